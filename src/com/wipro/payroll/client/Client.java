@@ -24,10 +24,13 @@ public class Client {
     private static final int RMI_PORT = 1099;
     private static final String SERVICE_NAME = "PayrollService";
     private static final int CONNECTION_TIMEOUT_MS = 5000;
+    private static final int PAYROLL_POLL_INTERVAL_MS = 1000;
 
     private static PayrollService payrollService = null;
     private static Scanner scanner = new Scanner(System.in);
     private static User loggedInUser = null;
+    // Set when the server no longer knows our session token; the main loop then goes back to the login menu
+    private static volatile boolean sessionExpired = false;
     private static int currentServerIndex = -1;
 
     public static void main(String[] args) {
@@ -44,7 +47,9 @@ public class Client {
         }
 
         while (true) {
-            if (loggedInUser == null) {
+            if (!isLoggedIn()) {
+                loggedInUser = null;
+                sessionExpired = false;
                 showMainMenu();
             } else {
                 routeUserBasedOnRole();
@@ -82,12 +87,18 @@ public class Client {
     }
 
     private static <T> T executeWithResilience(Function<PayrollService, T> rmiFunction) {
+        if (sessionExpired) {
+            return null; // already told the user; don't send a dead token again
+        }
         Callable<T> timedCall = () -> rmiFunction.apply(payrollService);
         ExecutorService executor = Executors.newSingleThreadExecutor();
         try {
             Future<T> future = executor.submit(timedCall);
             return future.get(CONNECTION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
         } catch (Exception e) {
+            if (isSessionExpired(e) || isThrottled(e)) {
+                return null;
+            }
             System.err.println("\n⚠️  RMI call failed or timed out. Attempting to reconnect...");
             if (establishConnection()) {
                 System.out.println("✅ Reconnected successfully. Retrying the operation...");
@@ -97,6 +108,9 @@ public class Client {
                     Future<T> future = executor.submit(timedCall);
                     return future.get(CONNECTION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
                 } catch (Exception retryException) {
+                    if (isSessionExpired(retryException)) {
+                        return null; // sessions are per server, so failing over to another one ends it
+                    }
                     System.err.println("❌ Retry failed. The operation could not be completed.");
                     retryException.printStackTrace();
                     return null;
@@ -110,6 +124,35 @@ public class Client {
         }
     }
 
+    // A session the server does not know can't be fixed by reconnecting: the user has to log in again
+    private static boolean isSessionExpired(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SessionExpiredException) {
+                if (!sessionExpired) {
+                    sessionExpired = true;
+                    System.out.println("\n⚠️  " + cause.getMessage());
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The server turned the attempt away on purpose; reconnecting and retrying would only count as another attempt
+    private static boolean isThrottled(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LoginThrottledException) {
+                System.out.println("\n⚠️  " + cause.getMessage());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isLoggedIn() {
+        return loggedInUser != null && !sessionExpired;
+    }
+
     private static void showMainMenu() {
         System.out.println("\n--- Welcome to Wipro Logistics Payroll System ---");
         System.out.println("1. Login");
@@ -172,7 +215,7 @@ public class Client {
     //  EMP MENU
     // =================================================================
     private static void showEmployeeMenu(boolean isSwitchedView) {
-        while (loggedInUser != null && (hasRole("EMPLOYEE") || isSwitchedView)) {
+        while (isLoggedIn() && (hasRole("EMPLOYEE") || isSwitchedView)) {
             System.out.println("\n--- Employee Portal ---");
             System.out.println("1. View My Profile");
             System.out.println("2. View My Latest Payslip");
@@ -217,7 +260,7 @@ public class Client {
     // =================================================================
 
     private static void showHrMenu() {
-        while (loggedInUser != null && hasRole("HR")) {
+        while (isLoggedIn() && hasRole("HR")) {
             System.out.println("\n--- HR Administrator Portal ---");
 
             System.out.println("\n-- Employee Management --");
@@ -239,6 +282,7 @@ public class Client {
 
             System.out.println("\n-- Reports Management --");
             System.out.println("8. Create New Report");
+            System.out.println("13. View Login and Access Metrics");
 
             System.out.println("\n");
             System.out.println("9. Switch to My Employee View");
@@ -278,6 +322,9 @@ public class Client {
                 case "12":
                     handleManageOrganization();
                     break;
+                case "13":
+                    handleViewSecurityMetrics();
+                    break;
                 case "9":
                     System.out.println("Switching to Employee View...");
                     showEmployeeMenu(true);
@@ -314,10 +361,10 @@ public class Client {
         System.out.println("(Type '0' OR ':e' for exit OR ':q' for quit at any time to return to the menu)\n");
 
         /// 1. Fetch necessary lists
-        List<Department> departments = executeWithResilience(s -> { try { return s.getAllDepartments(loggedInUser.getId()); } catch (RemoteException e) { throw new RuntimeException(e); }});
+        List<Department> departments = executeWithResilience(s -> { try { return s.getAllDepartments(loggedInUser.getSessionToken()); } catch (RemoteException e) { throw new RuntimeException(e); }});
         if (departments == null) { System.err.println("❌ Could not load departments. Aborting."); return; }
 
-        List<JobTitle> jobTitles = executeWithResilience(s -> { try { return s.getAllJobTitles(loggedInUser.getId()); } catch (RemoteException e) { throw new RuntimeException(e); }});
+        List<JobTitle> jobTitles = executeWithResilience(s -> { try { return s.getAllJobTitles(loggedInUser.getSessionToken()); } catch (RemoteException e) { throw new RuntimeException(e); }});
         if (jobTitles == null) { System.err.println("❌ Could not load job titles. Aborting."); return; }
 
         // 2. Get the details for the new job title
@@ -347,7 +394,7 @@ public class Client {
             newJobTitle.setLevel(level);
 
             // 3. Make the resilient call to create it
-            JobTitle result = executeWithResilience(s -> { try { return s.createJobTitle(loggedInUser.getId(), newJobTitle); } catch (RemoteException e) { throw new RuntimeException(e); }});
+            JobTitle result = executeWithResilience(s -> { try { return s.createJobTitle(loggedInUser.getSessionToken(), newJobTitle); } catch (RemoteException e) { throw new RuntimeException(e); }});
             if (result != null) {
                 System.out.println("✅ Job Title '" + result.getTitle() + "' created successfully with ID " + result.getId() + ".");
             } else {
@@ -362,7 +409,7 @@ public class Client {
         System.out.println("(Type '0' OR ':e' for exit OR ':q' for quit at any time to return to the menu)");
 
         // 1. Show existing list first to prevent duplicates
-        List<Department> departments = executeWithResilience(s -> { try { return s.getAllDepartments(loggedInUser.getId()); } catch (RemoteException e) { throw new RuntimeException(e); }});
+        List<Department> departments = executeWithResilience(s -> { try { return s.getAllDepartments(loggedInUser.getSessionToken()); } catch (RemoteException e) { throw new RuntimeException(e); }});
         if (departments == null) { System.err.println("❌ Could not load departments. Aborting."); return; }
         System.out.println("\nExisting Departments: " + departments.stream().map(Department::getDeptName).collect(Collectors.joining(", ")));
 
@@ -382,7 +429,7 @@ public class Client {
             newDepartment.setDeptName(deptName);
 
             // 3. Make the resilient call to create it
-            Department result = executeWithResilience(s -> { try { return s.createDepartment(loggedInUser.getId(), newDepartment); } catch (RemoteException e) { throw new RuntimeException(e); }});
+            Department result = executeWithResilience(s -> { try { return s.createDepartment(loggedInUser.getSessionToken(), newDepartment); } catch (RemoteException e) { throw new RuntimeException(e); }});
             if (result != null) {
                 System.out.println("✅ Department '" + result.getDeptName() + "' created successfully with ID " + result.getDeptId() + ".");
             } else {
@@ -396,7 +443,7 @@ public class Client {
     //  MANAGER Menu
     // =================================================================
     private static void showManagerMenu() {
-        while (loggedInUser != null && hasRole("MANAGER")) {
+        while (isLoggedIn() && hasRole("MANAGER")) {
             System.out.println("\n--- Manager Dashboard ---");
             System.out.println("1. View My Department Report");
             System.out.println("2. View Pending Bonuses");
@@ -437,7 +484,7 @@ public class Client {
         // We pass a function that takes the 'service' object as input and calls the method.
         List<User> users = executeWithResilience(service -> {
             try {
-                return service.readAllUsers(loggedInUser.getId());
+                return service.readAllUsers(loggedInUser.getSessionToken());
             } catch (RemoteException e) {
                 throw new RuntimeException(e);
             }
@@ -501,7 +548,7 @@ public class Client {
             List<JobTitle> jobTitles = executeWithResilience(service -> {
                 System.out.println("\nLoading available job titles...");
                 try {
-                    return service.getAllJobTitles(loggedInUser.getId());
+                    return service.getAllJobTitles(loggedInUser.getSessionToken());
                 } catch (RemoteException e) {
                     throw new RuntimeException(e);
                 }
@@ -520,7 +567,7 @@ public class Client {
             List<EmpType> empTypes = executeWithResilience(service -> {
                 System.out.println("\nLoading available employment types...");
                 try {
-                    return service.getAllEmpTypes(loggedInUser.getId());
+                    return service.getAllEmpTypes(loggedInUser.getSessionToken());
                 } catch (RemoteException e) {
                     throw new RuntimeException(e);
                 }
@@ -541,7 +588,7 @@ public class Client {
             // --- Step 3: FAULT-TOLERANT call to create the user ---
             String response = executeWithResilience(service -> {
                 try {
-                    return service.createUser(loggedInUser.getId(), newUser, tempPassword);
+                    return service.createUser(loggedInUser.getSessionToken(), newUser, tempPassword);
                 } catch (RemoteException e) {
                     throw new RuntimeException(e);
                 }
@@ -571,7 +618,7 @@ public class Client {
             // 1. RESILIENTLY fetch the user's current details
             User userToEdit = executeWithResilience(service -> {
                 try {
-                    return service.readUserById(loggedInUser.getId(), targetUserId);
+                    return service.readUserById(loggedInUser.getSessionToken(), targetUserId);
                 } catch (RemoteException e) {
                     throw new RuntimeException(e);
                 }
@@ -608,7 +655,7 @@ public class Client {
 
             List<JobTitle> jobTitles = executeWithResilience(s -> {
                 try {
-                    return s.getAllJobTitles(loggedInUser.getId());
+                    return s.getAllJobTitles(loggedInUser.getSessionToken());
                 } catch (RemoteException e) {
                     throw new RuntimeException(e);
                 }
@@ -628,7 +675,7 @@ public class Client {
 
             List<EmpType> empTypes = executeWithResilience(s -> {
                 try {
-                    return s.getAllEmpTypes(loggedInUser.getId());
+                    return s.getAllEmpTypes(loggedInUser.getSessionToken());
                 } catch (RemoteException e) {
                     throw new RuntimeException(e);
                 }
@@ -649,7 +696,7 @@ public class Client {
             // 3. RESILIENTLY call the update method on the server
             Boolean successObject = executeWithResilience(service -> {
                 try {
-                    return service.updateUser(loggedInUser.getId(), userToEdit);
+                    return service.updateUser(loggedInUser.getSessionToken(), userToEdit);
                 } catch (RemoteException e) {
                     throw new RuntimeException(e);
                 }
@@ -675,7 +722,7 @@ public class Client {
         if (userIdToDelete == null) return;
 
         // Fetch the user's name for the confirmation message
-        User userToDelete = executeWithResilience(s -> { try { return s.readUserById(loggedInUser.getId(), userIdToDelete); } catch (RemoteException e) { throw new RuntimeException(e); }});
+        User userToDelete = executeWithResilience(s -> { try { return s.readUserById(loggedInUser.getSessionToken(), userIdToDelete); } catch (RemoteException e) { throw new RuntimeException(e); }});
         if (userToDelete == null) {
             System.err.println("❌ User with ID " + userIdToDelete + " not found.");
             return;
@@ -689,7 +736,7 @@ public class Client {
         String confirmation = scanner.nextLine();
 
         if (confirmation.equals(userToDelete.getUsername())) {
-            Boolean success = executeWithResilience(s -> { try { return s.deleteUser(loggedInUser.getId(), userIdToDelete); } catch (RemoteException e) { throw new RuntimeException(e); }});
+            Boolean success = executeWithResilience(s -> { try { return s.deleteUser(loggedInUser.getSessionToken(), userIdToDelete); } catch (RemoteException e) { throw new RuntimeException(e); }});
             if (success != null && success) {
                 System.out.println("✅ User successfully deleted.");
             } else {
@@ -708,7 +755,7 @@ public class Client {
         // Step 1: Resiliently fetch and display job titles
         List<JobTitle> jobTitles = executeWithResilience(s -> {
             try {
-                return s.getAllJobTitles(loggedInUser.getId());
+                return s.getAllJobTitles(loggedInUser.getSessionToken());
             } catch (RemoteException e) {
                 throw new RuntimeException(e);
             }
@@ -726,7 +773,7 @@ public class Client {
         while (true) {
             List<PayTemplate> templates = executeWithResilience(s -> {
                 try {
-                    return s.getPayTemplatesForJobTitle(loggedInUser.getId(), jobTitleId);
+                    return s.getPayTemplatesForJobTitle(loggedInUser.getSessionToken(), jobTitleId);
                 } catch (RemoteException e) {
                     throw new RuntimeException(e);
                 }
@@ -764,7 +811,7 @@ public class Client {
 
                     Boolean success = executeWithResilience(s -> {
                         try {
-                            return s.updatePayTemplateItem(loggedInUser.getId(), finalUpdateId, newAmount);
+                            return s.updatePayTemplateItem(loggedInUser.getSessionToken(), finalUpdateId, newAmount);
                         } catch (RemoteException e) {
                             throw new RuntimeException(e);
                         }
@@ -792,7 +839,7 @@ public class Client {
 
                     PayTemplate result = executeWithResilience(s -> {
                         try {
-                            return s.addPayTemplateItem(loggedInUser.getId(), newItem);
+                            return s.addPayTemplateItem(loggedInUser.getSessionToken(), newItem);
                         } catch (RemoteException e) {
                             throw new RuntimeException(e);
                         }
@@ -813,7 +860,7 @@ public class Client {
 
                     Boolean success = executeWithResilience(s -> {
                         try {
-                            return s.deletePayTemplateItem(loggedInUser.getId(), finalDeleteId);
+                            return s.deletePayTemplateItem(loggedInUser.getSessionToken(), finalDeleteId);
                         } catch (RemoteException e) {
                             throw new RuntimeException(e);
                         }
@@ -837,7 +884,7 @@ public class Client {
         // Step 1: Resiliently fetch and display the list of all payslip summaries.
         System.out.println("Fetching all generated payslips...");
         List<PayslipSummary> summaries = executeWithResilience(service -> {
-            try { return service.getAllPayslips(loggedInUser.getId()); }
+            try { return service.getAllPayslips(loggedInUser.getSessionToken()); }
             catch (RemoteException e) { throw new RuntimeException(e); }
         });
 
@@ -867,7 +914,7 @@ public class Client {
         // Step 3: Resiliently fetch the full payslip object by its ID.
         final int finalPayslipId = payslipId;
         Payslip payslip = executeWithResilience(service -> {
-            try { return service.getPayslipById(loggedInUser.getId(), finalPayslipId); }
+            try { return service.getPayslipById(loggedInUser.getSessionToken(), finalPayslipId); }
             catch (RemoteException e) { throw new RuntimeException(e); }
         });
 
@@ -879,7 +926,7 @@ public class Client {
         // Step 4: Fetch the associated user's details and print the payslip.
         final int targetUserId = payslip.getUserId();
         User targetUser = executeWithResilience(service -> {
-            try { return service.readUserById(loggedInUser.getId(), targetUserId); }
+            try { return service.readUserById(loggedInUser.getSessionToken(), targetUserId); }
             catch (RemoteException e) { throw new RuntimeException(e); }
         });
 
@@ -889,6 +936,15 @@ public class Client {
     }
 
     private static void runPayrollFor(int targetUserId) {
+        runPayrollFor(targetUserId, PayrollOutputMode.BATCHED_INSERT);
+    }
+
+    private static void runPayrollFor(int targetUserId, PayrollOutputMode outputMode) {
+        runPayrollFor(targetUserId, outputMode, false);
+    }
+
+    // distributed: split the run into partitions that every server instance works on (full headcount only)
+    private static void runPayrollFor(int targetUserId, PayrollOutputMode outputMode, boolean distributed) {
         System.out.println("(Type '0' OR ':e' for exit OR ':q' for quit at any time to return to the menu)\n");
 
         int currentYear = java.time.LocalDate.now().getYear();
@@ -912,7 +968,7 @@ public class Client {
                 String password = scanner.nextLine();
 
                 Boolean passwordCorrect = executeWithResilience(service -> {
-                    try { return service.verifyCurrentUserPassword(loggedInUser.getId(), password); }
+                    try { return service.verifyCurrentUserPassword(loggedInUser.getSessionToken(), password); }
                     catch (RemoteException e) { throw new RuntimeException(e); }
                 });
 
@@ -925,16 +981,31 @@ public class Client {
             }
 
             if (passwordVerified) {
-                System.out.println("Password verified. Processing payroll...");
-                String result = executeWithResilience(service -> {
-                    try { return service.runMonthlyPayrollForTarget(loggedInUser.getId(), year, month, targetUserId); }
+                System.out.println("Password verified. Submitting payroll job...");
+                String jobId = executeWithResilience(service -> {
+                    try {
+                        return distributed
+                                ? service.submitDistributedPayrollJob(loggedInUser.getSessionToken(), year, month, outputMode)
+                                : service.submitPayrollJob(loggedInUser.getSessionToken(), year, month, targetUserId, outputMode);
+                    }
+                    catch (PayrollRunInProgressException e) {
+                        // Someone else is already running it: follow that job rather than failing
+                        System.out.println("⚠️ " + e.getMessage() + " Following that job instead...");
+                        return e.getJobId();
+                    }
                     catch (RemoteException e) { throw new RuntimeException(e); }
                 });
 
-                if (result != null) {
-                    System.out.println("\n✅ Server Response: " + result);
-                } else {
+                if (jobId == null) {
                     System.out.println("\n❌ Payroll run failed. The server may be unavailable.");
+                    return;
+                }
+
+                PayrollJobStatus status = waitForPayrollJob(jobId);
+                if (status != null && status.getSummary() != null) {
+                    System.out.println("\n✅ Server Response: " + status.getSummary());
+                } else {
+                    System.out.println("\n❌ Lost track of payroll job " + jobId + ". It may still be running on the server.");
                 }
             } else {
                 System.out.println("Too many incorrect password attempts. Payroll run cancelled.");
@@ -944,11 +1015,53 @@ public class Client {
         }
     }
 
+    // Polls a background payroll job with short RMI calls until it finishes, printing live progress.
+    private static PayrollJobStatus waitForPayrollJob(String jobId) {
+        PayrollJobStatus status = null;
+        int missedPolls = 0;
+        while (missedPolls < 3) {
+            PayrollJobStatus latest = executeWithResilience(service -> {
+                try { return service.getPayrollJobStatus(loggedInUser.getSessionToken(), jobId); }
+                catch (RemoteException e) { throw new RuntimeException(e); }
+            });
+
+            if (latest == null) {
+                missedPolls++;
+            } else {
+                missedPolls = 0;
+                status = latest;
+                int done = status.getProcessed() + status.getSkipped() + status.getFailed();
+                String eta = status.getEtaSeconds() < 0 ? "--" : status.getEtaSeconds() + "s";
+                System.out.printf("\r[%s] %d/%d  Processed: %d, Skipped: %d, Failed: %d  (%.1f emp/s, ETA %s, writers %d/%d)   ",
+                        status.getState(), done, status.getTotalEmployees(), status.getProcessed(),
+                        status.getSkipped(), status.getFailed(), status.getEmployeesPerSecond(), eta,
+                        status.getWriteLimit(), status.getMaxWriteLimit());
+                if (status.isFinished()) {
+                    System.out.println();
+                    if (!status.getStages().isEmpty()) {
+                        System.out.println("Pipeline stages:");
+                        status.getStages().forEach(stage -> System.out.println("   " + stage));
+                    }
+                    return status;
+                }
+            }
+
+            try {
+                Thread.sleep(PAYROLL_POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return status;
+            }
+        }
+        System.out.println();
+        return null;
+    }
+
     private static void handleCreatePayroll() {
         // RESILIENT CALL to check for pending items
         List<Bonus> pendingBonuses = executeWithResilience(service -> {
             try {
-                return service.getAllPendingBonuses(loggedInUser.getId());
+                return service.getAllPendingBonuses(loggedInUser.getSessionToken());
             } catch (RemoteException e) {
                 throw new RuntimeException(e);
             }
@@ -979,6 +1092,14 @@ public class Client {
         System.out.println("\n--- Payroll Operations ---");
         System.out.println("1. Run Full Payroll Cycle for ALL Employees");
         System.out.println("2. Run Payroll for a SINGLE Employee");
+        System.out.println("3. Run Full Payroll Cycle for ALL Employees (bulk COPY mode, for very large runs)");
+        System.out.println("4. Preview Payroll (dry run, nothing is saved)");
+        System.out.println("5. Re-run Payroll for Changed Employees only (after a template or bonus correction)");
+        System.out.println("6. Backfill Payroll for a Range of Months (e.g. migrated history)");
+        System.out.println("7. Run Full Payroll Cycle for ALL Employees across ALL servers (distributed)");
+        System.out.println("8. Scheduled Payroll Runs and Job History");
+        System.out.println("10. Draft Payroll Runs (stage for review, then promote or discard)");
+        System.out.println("11. Run Payroll by Department (each department committed on its own)");
         System.out.println("9. Return");
         System.out.print("Choose an option: ");
         String choice = scanner.nextLine();
@@ -990,6 +1111,427 @@ public class Client {
             if (targetUserId != null) {
                 runPayrollFor(targetUserId);
             }
+        } else if (choice.equals("3")) {
+            runPayrollFor(0, PayrollOutputMode.COPY);
+        } else if (choice.equals("4")) {
+            handlePreviewPayroll();
+        } else if (choice.equals("5")) {
+            handleRecomputePayroll();
+        } else if (choice.equals("6")) {
+            handleBackfillPayroll();
+        } else if (choice.equals("7")) {
+            runPayrollFor(0, PayrollOutputMode.BATCHED_INSERT, true);
+        } else if (choice.equals("8")) {
+            handlePayrollSchedules();
+        } else if (choice.equals("10")) {
+            handlePayrollDrafts();
+        } else if (choice.equals("11")) {
+            handleDepartmentPayroll();
+        }
+    }
+
+    private static void handleDepartmentPayroll() {
+        final Integer year = promptForInteger("Enter the Year for the payroll run: ", false);
+        if (year == null) return;
+        final Integer month = promptForInteger("Enter the Month (1-12): ", false);
+        if (month == null) return;
+
+        List<Department> departments = executeWithResilience(s -> { try { return s.getAllDepartments(loggedInUser.getSessionToken()); } catch (RemoteException e) { throw new RuntimeException(e); }});
+        if (departments == null) { System.err.println("❌ Could not load departments. Aborting."); return; }
+        departments.forEach(dept -> System.out.printf("  ID: %d, Name: %s\n", dept.getDeptId(), dept.getDeptName()));
+
+        System.out.print("\nEnter the Department IDs to run, separated by commas (e.g. 1,3,4): ");
+        final List<Integer> departmentIds = new ArrayList<>();
+        for (String part : scanner.nextLine().split(",")) {
+            String id = part.trim();
+            if (id.isEmpty()) continue;
+            try {
+                departmentIds.add(Integer.parseInt(id));
+            } catch (NumberFormatException e) {
+                System.out.println("❌ '" + id + "' is not a department ID. Payroll run cancelled.");
+                return;
+            }
+        }
+        if (departmentIds.isEmpty()) {
+            System.out.println("No departments entered. Payroll run cancelled.");
+            return;
+        }
+
+        System.out.printf("\nWARNING: This will pay every active employee of department(s) %s for %d-%02d.\n", departmentIds, year, month);
+        Integer confirmation = promptForInteger("Enter '1' to proceed, or '0' to cancel: ", false);
+        if (confirmation == null || confirmation != 1) {
+            System.out.println("Payroll run cancelled.");
+            return;
+        }
+
+        String jobId = executeWithResilience(service -> {
+            try { return service.submitPayrollDepartmentJob(loggedInUser.getSessionToken(), year, month, departmentIds); }
+            catch (PayrollRunInProgressException e) {
+                System.out.println("⚠️ " + e.getMessage() + " Wait for it to finish, then try again.");
+                return null;
+            }
+            catch (RemoteException e) { throw new RuntimeException(e); }
+        });
+        if (jobId == null) {
+            System.out.println("\n❌ Payroll run did not start.");
+            return;
+        }
+
+        PayrollJobStatus status = waitForPayrollJob(jobId);
+        if (status != null && status.getSummary() != null) {
+            status.getPeriodSummaries().forEach(line -> System.out.println("  " + line));
+            System.out.println("\n✅ Server Response: " + status.getSummary());
+        } else {
+            System.out.println("\n❌ Lost track of payroll job " + jobId + ". It may still be running on the server.");
+        }
+    }
+
+    private static void handlePayrollDrafts() {
+        System.out.println("\n--- Draft Payroll Runs ---");
+        List<PayrollDraft> drafts = executeWithResilience(service -> {
+            try { return service.getPayrollDrafts(loggedInUser.getSessionToken()); }
+            catch (RemoteException e) { throw new RuntimeException(e); }
+        });
+        if (drafts == null) {
+            System.out.println("❌ Could not load the drafts. The server may be unavailable.");
+            return;
+        }
+        if (drafts.isEmpty()) {
+            System.out.println("No open drafts.");
+        }
+        drafts.forEach(Client::printPayrollDraft);
+
+        System.out.println("\n1. Create a Draft");
+        System.out.println("2. Promote a Draft (pay it)");
+        System.out.println("3. Discard a Draft");
+        System.out.println("9. Return");
+        System.out.print("Choose an option: ");
+        String choice = scanner.nextLine();
+
+        if (choice.equals("1")) {
+            int currentYear = java.time.LocalDate.now().getYear();
+            int currentMonth = java.time.LocalDate.now().getMonthValue();
+            final Integer year = promptForIntegerWithDefault("Enter the Year for the draft", currentYear);
+            if (year == null) return;
+            final Integer month = promptForIntegerWithDefault("Enter the Month for the draft (1-12)", currentMonth);
+            if (month == null) return;
+            final Integer targetUserId = promptForIntegerWithDefault("Enter the User ID to pay, or '0' for ALL employees", 0);
+            if (targetUserId == null) return;
+
+            System.out.println("Calculating the draft. Nothing is paid until it is promoted...");
+            PayrollDraft draft = executeWithResilience(service -> {
+                try { return service.createPayrollDraft(loggedInUser.getSessionToken(), year, month, targetUserId); }
+                catch (RemoteException e) { throw new RuntimeException(e); }
+            });
+            if (draft == null) {
+                System.out.println("❌ Could not create the draft. The server may be unavailable.");
+                return;
+            }
+            System.out.println("\n✅ " + draft.getSummary());
+            printPayrollDraft(draft);
+        } else if (choice.equals("2") || choice.equals("3")) {
+            final Integer draftId = promptForInteger("Enter the draft ID: ", true);
+            if (draftId == null) return;
+            if (choice.equals("2")) {
+                System.out.println("\nWARNING: This creates real payslips for everyone in the draft and cannot be undone.");
+                Integer confirmation = promptForInteger("Enter '1' to proceed, or '0' to cancel: ", false);
+                if (confirmation == null || confirmation != 1) {
+                    System.out.println("Promotion cancelled.");
+                    return;
+                }
+                String summary = executeWithResilience(service -> {
+                    try { return service.promotePayrollDraft(loggedInUser.getSessionToken(), draftId); }
+                    catch (RemoteException e) { throw new RuntimeException(e); }
+                });
+                System.out.println(summary != null ? "\n✅ Server Response: " + summary : "\n❌ Promotion failed. The server may be unavailable.");
+            } else {
+                Boolean discarded = executeWithResilience(service -> {
+                    try { return service.discardPayrollDraft(loggedInUser.getSessionToken(), draftId); }
+                    catch (RemoteException e) { throw new RuntimeException(e); }
+                });
+                System.out.println(discarded != null && discarded ? "✅ Draft discarded." : "❌ No open draft with ID " + draftId + ".");
+            }
+        }
+    }
+
+    private static void printPayrollDraft(PayrollDraft draft) {
+        String target = draft.getTargetUserId() == 0 ? "all employees" : "user " + draft.getTargetUserId();
+        System.out.printf("Draft #%d  %d-%02d  %s  %d payslip(s)%s  Gross: %s  Deductions: %s  Net: %s\n",
+                draft.getDraftId(), draft.getYear(), draft.getMonth(), target, draft.getEmployeeCount(),
+                draft.getFailedCount() > 0 ? " (" + draft.getFailedCount() + " failed)" : "",
+                draft.getTotalGross(), draft.getTotalDeductions(), draft.getTotalNet());
+    }
+
+    private static void handlePayrollSchedules() {
+        System.out.println("\n--- Scheduled Payroll Runs ---");
+        List<PayrollSchedule> schedules = executeWithResilience(service -> {
+            try { return service.getPayrollSchedules(loggedInUser.getSessionToken()); }
+            catch (RemoteException e) { throw new RuntimeException(e); }
+        });
+        if (schedules == null) {
+            System.out.println("❌ Could not load the schedules. The server may be unavailable.");
+            return;
+        }
+        if (schedules.isEmpty()) {
+            System.out.println("No payroll schedules yet.");
+        }
+        for (PayrollSchedule schedule : schedules) {
+            System.out.println(schedule);
+            System.out.printf("     next run: %s, last run: %s%s\n", schedule.getNextRunAt(),
+                    schedule.getLastRunAt() == null ? "never" : schedule.getLastRunAt(),
+                    schedule.getLastResult() == null ? "" : " - " + schedule.getLastResult());
+        }
+
+        System.out.println("\n1. Add a Schedule");
+        System.out.println("2. Enable or Disable a Schedule");
+        System.out.println("3. Delete a Schedule");
+        System.out.println("4. View Payroll Job History");
+        System.out.println("9. Return");
+        System.out.print("Choose an option: ");
+        String choice = scanner.nextLine();
+
+        if (choice.equals("1")) {
+            handleCreatePayrollSchedule();
+        } else if (choice.equals("2") || choice.equals("3")) {
+            final Integer scheduleId = promptForInteger("Enter the schedule ID: ", true);
+            if (scheduleId == null) return;
+            Boolean changed;
+            if (choice.equals("2")) {
+                final Integer enable = promptForIntegerWithDefault("Enter '1' to enable or '2' to disable", 1);
+                if (enable == null) return;
+                changed = executeWithResilience(service -> {
+                    try { return service.setPayrollScheduleEnabled(loggedInUser.getSessionToken(), scheduleId, enable == 1); }
+                    catch (RemoteException e) { throw new RuntimeException(e); }
+                });
+            } else {
+                changed = executeWithResilience(service -> {
+                    try { return service.deletePayrollSchedule(loggedInUser.getSessionToken(), scheduleId); }
+                    catch (RemoteException e) { throw new RuntimeException(e); }
+                });
+            }
+            if (changed != null && changed) {
+                System.out.println("✅ Schedule updated.");
+            } else {
+                System.out.println("❌ No schedule with ID " + scheduleId + ".");
+            }
+        } else if (choice.equals("4")) {
+            handleViewPayrollJobHistory();
+        }
+    }
+
+    private static void handleCreatePayrollSchedule() {
+        System.out.println("(Type '0' OR ':e' for exit OR ':q' for quit at any time to return to the menu)\n");
+        String name = promptForInput("Enter a name for the schedule (e.g. Month-end payroll): ", ValidationType.ANY);
+        if (name == null) return;
+        Integer dayOfMonth = promptForInteger("Enter the day of the month to run on (1-31; short months use their last day): ", true);
+        if (dayOfMonth == null) return;
+        java.time.LocalTime runAt = null;
+        while (runAt == null) {
+            String time = promptForInput("Enter the time to run at, 24h HH:mm (e.g. 02:00): ", ValidationType.ANY);
+            if (time == null) return;
+            try {
+                runAt = java.time.LocalTime.parse(time);
+            } catch (java.time.format.DateTimeParseException e) {
+                System.err.println("❌ Invalid time. Please use HH:mm, e.g. 02:00.");
+            }
+        }
+        Integer periodOffset = promptForIntegerWithDefault("Which month to pay: '1' = the previous month, '0' = the current month", 1);
+        if (periodOffset == null) return;
+        Integer targetUserId = promptForIntegerWithDefault("Enter the User ID to pay, or '0' for ALL employees", 0);
+        if (targetUserId == null) return;
+
+        PayrollSchedule schedule = new PayrollSchedule();
+        schedule.setName(name);
+        schedule.setDayOfMonth(dayOfMonth);
+        schedule.setRunAt(runAt);
+        schedule.setPeriodOffset(periodOffset);
+        schedule.setTargetUserId(targetUserId);
+        Integer scheduleId = executeWithResilience(service -> {
+            try { return service.createPayrollSchedule(loggedInUser.getSessionToken(), schedule); }
+            catch (RemoteException e) { throw new RuntimeException(e); }
+        });
+        if (scheduleId != null) {
+            System.out.println("✅ Schedule created with ID " + scheduleId + ". The server will run it on its own.");
+        } else {
+            System.out.println("❌ Could not create the schedule. Check the values and try again.");
+        }
+    }
+
+    private static void handleViewPayrollJobHistory() {
+        List<PayrollRunHistory> history = executeWithResilience(service -> {
+            try { return service.getPayrollJobHistory(loggedInUser.getSessionToken(), 20); }
+            catch (RemoteException e) { throw new RuntimeException(e); }
+        });
+        if (history == null) {
+            System.out.println("❌ Could not load the job history. The server may be unavailable.");
+            return;
+        }
+        System.out.println("\n--- Payroll Job History (latest 20) ---");
+        System.out.printf("%-9s %-10s %-14s %-20s %-19s %8s\n", "Period", "State", "Target", "Started by", "Started at", "Duration");
+        for (PayrollRunHistory run : history) {
+            String target = run.getTargetUserId() == 0 ? (run.isDistributed() ? "ALL (cluster)" : "ALL") : "User " + run.getTargetUserId();
+            String startedBy = run.getScheduleName() == null ? "menu" : "schedule: " + run.getScheduleName();
+            String startedAt = run.getStartedAt() == null ? "-" : run.getStartedAt().withNano(0).toString().replace('T', ' ');
+            String duration = run.getDurationSeconds() < 0 ? "-" : run.getDurationSeconds() + "s";
+            System.out.printf("%d-%02d   %-10s %-14s %-20.20s %-19s %8s\n", run.getYear(), run.getMonth(), run.getState(),
+                    target, startedBy, startedAt, duration);
+            if (run.getSummary() != null) {
+                System.out.println("          " + run.getSummary());
+            }
+        }
+    }
+
+    private static void handleViewSecurityMetrics() {
+        Map<String, Long> metrics = executeWithResilience(service -> {
+            try { return service.getSecurityMetrics(loggedInUser.getSessionToken()); }
+            catch (RemoteException e) { throw new RuntimeException(e); }
+        });
+        if (metrics == null) {
+            System.out.println("❌ Could not load the metrics. The server may be unavailable.");
+            return;
+        }
+        System.out.println("\n--- Login and Access Metrics (since server start) ---");
+        for (Map.Entry<String, Long> metric : metrics.entrySet()) {
+            System.out.printf("%-26s %10d\n", metric.getKey(), metric.getValue());
+        }
+    }
+
+    private static void handleBackfillPayroll() {
+        final Integer startYear = promptForInteger("Enter the FIRST Year: ", false);
+        if (startYear == null) return;
+        final Integer startMonth = promptForInteger("Enter the FIRST Month (1-12): ", false);
+        if (startMonth == null) return;
+        final Integer endYear = promptForInteger("Enter the LAST Year: ", false);
+        if (endYear == null) return;
+        final Integer endMonth = promptForInteger("Enter the LAST Month (1-12): ", false);
+        if (endMonth == null) return;
+
+        System.out.printf("\nWARNING: This will pay ALL active employees for every month from %d-%02d to %d-%02d.\n",
+                startYear, startMonth, endYear, endMonth);
+        Integer confirmation = promptForInteger("Enter '1' to proceed, or '0' to cancel: ", false);
+        if (confirmation == null || confirmation != 1) {
+            System.out.println("Backfill cancelled.");
+            return;
+        }
+
+        String jobId = executeWithResilience(service -> {
+            try { return service.submitPayrollBackfillJob(loggedInUser.getSessionToken(), startYear, startMonth, endYear, endMonth, 0, PayrollOutputMode.BATCHED_INSERT); }
+            catch (PayrollRunInProgressException e) {
+                System.out.println("⚠️ " + e.getMessage() + " Wait for it to finish, then try again.");
+                return null;
+            }
+            catch (RemoteException e) { throw new RuntimeException(e); }
+        });
+        if (jobId == null) {
+            System.out.println("\n❌ Backfill did not start.");
+            return;
+        }
+
+        PayrollJobStatus status = waitForPayrollJob(jobId);
+        if (status != null && status.getSummary() != null) {
+            status.getPeriodSummaries().forEach(line -> System.out.println("  " + line));
+            System.out.println("\n✅ Server Response: " + status.getSummary());
+        } else {
+            System.out.println("\n❌ Lost track of payroll job " + jobId + ". It may still be running on the server.");
+        }
+    }
+
+    private static void handleRecomputePayroll() {
+        int currentYear = java.time.LocalDate.now().getYear();
+        int currentMonth = java.time.LocalDate.now().getMonthValue();
+        final Integer year = promptForIntegerWithDefault("Enter the Year to re-run", currentYear);
+        if (year == null) return;
+        final Integer month = promptForIntegerWithDefault("Enter the Month to re-run (1-12)", currentMonth);
+        if (month == null) return;
+
+        System.out.println("\nWARNING: Payslips whose templates, bonuses or job details changed will be overwritten.");
+        Integer confirmation = promptForInteger("Enter '1' to proceed, or '0' to cancel: ", false);
+        if (confirmation == null || confirmation != 1) {
+            System.out.println("Re-run cancelled.");
+            return;
+        }
+
+        String jobId = executeWithResilience(service -> {
+            try { return service.submitPayrollRecomputeJob(loggedInUser.getSessionToken(), year, month, 0); }
+            catch (PayrollRunInProgressException e) {
+                System.out.println("⚠️ " + e.getMessage() + " Wait for it to finish, then try again.");
+                return null;
+            }
+            catch (RemoteException e) { throw new RuntimeException(e); }
+        });
+        if (jobId == null) {
+            System.out.println("\n❌ Re-run did not start.");
+            return;
+        }
+
+        PayrollJobStatus status = waitForPayrollJob(jobId);
+        if (status != null && status.getSummary() != null) {
+            System.out.println("\n✅ Server Response: " + status.getSummary());
+        } else {
+            System.out.println("\n❌ Lost track of payroll job " + jobId + ". It may still be running on the server.");
+        }
+    }
+
+    private static void handlePreviewPayroll() {
+        int currentYear = java.time.LocalDate.now().getYear();
+        int currentMonth = java.time.LocalDate.now().getMonthValue();
+        final Integer year = promptForIntegerWithDefault("Enter the Year to preview", currentYear);
+        if (year == null) return;
+        final Integer month = promptForIntegerWithDefault("Enter the Month to preview (1-12)", currentMonth);
+        if (month == null) return;
+
+        // Optional "what if" amounts, keyed by pay template item ID
+        final Map<Integer, BigDecimal> overrides = new HashMap<>();
+        System.out.println("Override template amounts for this preview? Enter a Template Item ID, or '0' to skip.");
+        while (true) {
+            Integer templateId = promptForInteger("Template Item ID ('0' when done): ", true);
+            if (templateId == null) break;
+            BigDecimal amount = promptForBigDecimal("New amount for item " + templateId + ": ");
+            if (amount != null) {
+                overrides.put(templateId, amount);
+            }
+        }
+
+        System.out.println("Calculating preview...");
+        PayrollPreview preview = executeWithResilience(service -> {
+            try { return service.previewPayroll(loggedInUser.getSessionToken(), year, month, 0, overrides); }
+            catch (RemoteException e) { throw new RuntimeException(e); }
+        });
+        if (preview == null) {
+            System.err.println("❌ Could not calculate the preview. The server may be unavailable.");
+            return;
+        }
+
+        System.out.println("\n--- Payroll Preview for " + year + "-" + String.format("%02d", month) + " (NOT saved) ---");
+        System.out.printf("Employees: %d (already paid: %d, failed: %d), calculated in %d ms\n",
+                preview.getEmployeeCount(), preview.getAlreadyPaidCount(), preview.getFailedCount(), preview.getElapsedMillis());
+        System.out.printf("Total Gross: RM %,.2f | Total Deductions: RM %,.2f | Total Net: RM %,.2f\n",
+                preview.getTotalGross(), preview.getTotalDeductions(), preview.getTotalNet());
+
+        final int pageSize = 20;
+        int offset = 0;
+        while (offset < preview.getEmployeeCount()) {
+            final int pageOffset = offset;
+            List<PayrollPreviewLine> page = executeWithResilience(service -> {
+                try { return service.getPayrollPreviewPage(loggedInUser.getSessionToken(), preview.getPreviewId(), pageOffset, pageSize); }
+                catch (RemoteException e) { throw new RuntimeException(e); }
+            });
+            if (page == null || page.isEmpty()) break;
+
+            System.out.printf("%-8s %-20s %14s %14s %14s\n", "User ID", "Username", "Gross", "Deductions", "Net");
+            for (PayrollPreviewLine line : page) {
+                if (line.getError() != null) {
+                    System.out.printf("%-8d %-20s FAILED: %s\n", line.getUserId(), line.getUsername(), line.getError());
+                } else {
+                    System.out.printf("%-8d %-20s %14.2f %14.2f %14.2f%s\n", line.getUserId(), line.getUsername(),
+                            line.getGrossEarnings(), line.getTotalDeductions(), line.getNetPay(),
+                            line.isAlreadyPaid() ? "  (already paid)" : "");
+                }
+            }
+            offset += page.size();
+            if (offset >= preview.getEmployeeCount()) break;
+            System.out.print("Press Enter for the next page, or type 'q' to stop: ");
+            if (scanner.nextLine().trim().equalsIgnoreCase("q")) break;
         }
     }
 
@@ -998,7 +1540,7 @@ public class Client {
 
         List<Bonus> pendingBonuses = executeWithResilience(service -> {
             try {
-                return service.getAllPendingBonuses(loggedInUser.getId());
+                return service.getAllPendingBonuses(loggedInUser.getSessionToken());
             } catch (RemoteException e) {
                 throw new RuntimeException(e);
             }
@@ -1062,7 +1604,7 @@ public class Client {
 
     private static void handleCreateReport() {
         List<String> periods = executeWithResilience(service -> {
-            try { return service.getExistingPayrollPeriods(loggedInUser.getId()); }
+            try { return service.getExistingPayrollPeriods(loggedInUser.getSessionToken()); }
             catch (RemoteException e) { throw new RuntimeException(e); }
         });
         if (periods == null || periods.isEmpty()) {
@@ -1082,7 +1624,7 @@ public class Client {
         // 3. Fetch the report data from the server ONE TIME
         System.out.println("\nGenerating report... please wait.");
         PayrollSummaryReport report = executeWithResilience(service -> {
-            try { return service.getPayrollSummaryReport(loggedInUser.getId(), year, month); }
+            try { return service.getPayrollSummaryReport(loggedInUser.getSessionToken(), year, month); }
             catch (RemoteException e) { throw new RuntimeException(e); }
         });
 
@@ -1158,7 +1700,7 @@ public class Client {
         System.out.println("\nFetching your department report...");
 
         List<User> employees = executeWithResilience(service -> {
-            try { return service.getMyDepartmentEmployees(loggedInUser.getId()); }
+            try { return service.getMyDepartmentEmployees(loggedInUser.getSessionToken()); }
             catch (RemoteException e) { throw new RuntimeException(e); }
         });
 
@@ -1194,7 +1736,7 @@ public class Client {
 
         // 1. Show the manager who is on their team for easy selection
         System.out.println("\nFetching your department's employees...");
-        List<User> employees = executeWithResilience(s -> { try { return s.getMyDepartmentEmployees(loggedInUser.getId()); } catch (RemoteException e) { throw new RuntimeException(e); }});
+        List<User> employees = executeWithResilience(s -> { try { return s.getMyDepartmentEmployees(loggedInUser.getSessionToken()); } catch (RemoteException e) { throw new RuntimeException(e); }});
         if (employees == null || employees.isEmpty()) {
             System.out.println("Could not load your department's employees.");
             return;
@@ -1234,7 +1776,7 @@ public class Client {
         newBonus.setAmount(bonusAmount);
         newBonus.setPayPeriodStartDate(LocalDate.of(year, month, 1));
 
-        Bonus result = executeWithResilience(s -> { try { return s.createBonusesToEmployee(loggedInUser.getId(), newBonus); } catch (RemoteException e) { throw new RuntimeException(e); }});
+        Bonus result = executeWithResilience(s -> { try { return s.createBonusesToEmployee(loggedInUser.getSessionToken(), newBonus); } catch (RemoteException e) { throw new RuntimeException(e); }});
         if (result != null) {
             System.out.println("✅ Bonus assigned successfully with ID " + result.getId() + ".");
         } else {
@@ -1247,7 +1789,7 @@ public class Client {
         System.out.println("(Type '0' OR ':e' for exit OR ':q' for quit at any time to return to the menu)\n");
 
         List<Bonus> pendingBonuses = executeWithResilience(service -> {
-            try { return service.getUnapprovedBonusesForMyDepartment(loggedInUser.getId()); }
+            try { return service.getUnapprovedBonusesForMyDepartment(loggedInUser.getSessionToken()); }
             catch (RemoteException e) { throw new RuntimeException(e); }
         });
 
@@ -1325,7 +1867,7 @@ public class Client {
         for (int bonusId : idsToApprove) {
             final int finalBonusId = bonusId;
             Boolean success = executeWithResilience(service -> {
-                try { return service.approveBonus(loggedInUser.getId(), finalBonusId); }
+                try { return service.approveBonus(loggedInUser.getSessionToken(), finalBonusId); }
                 catch (RemoteException e) { throw new RuntimeException(e); }
             });
             if (success != null && success) {
@@ -1344,7 +1886,7 @@ public class Client {
     private static void handleViewMyLatestPayslip() {
         try {
             System.out.println("\nFetching your latest payslip...");
-            Payslip payslip = payrollService.getMyLatestPayslip(loggedInUser.getId());
+            Payslip payslip = payrollService.getMyLatestPayslip(loggedInUser.getSessionToken());
 
             if (payslip != null) {
                 printPayslip(payslip); // Use a helper to format the output
@@ -1360,7 +1902,7 @@ public class Client {
         try {
             // 1. Show current details
             System.out.println("\n--- Update My Bank Details ---");
-            UserBankDetails currentDetails = payrollService.getMyBankDetails(loggedInUser.getId());
+            UserBankDetails currentDetails = payrollService.getMyBankDetails(loggedInUser.getSessionToken());
             if (currentDetails != null) {
                 System.out.println("Current Bank Name: " + currentDetails.getBankName());
                 System.out.println("Current Account No: " + currentDetails.getAccountNumber());
@@ -1389,7 +1931,7 @@ public class Client {
             newDetails.setAccountNumber(accNo);
             newDetails.setAccountHolderName(accName);
 
-            boolean success = payrollService.updateMyBankDetails(loggedInUser.getId(), newDetails);
+            boolean success = payrollService.updateMyBankDetails(loggedInUser.getSessionToken(), newDetails);
             if (success) {
                 System.out.println("✅ Bank details updated successfully.");
             } else {
@@ -1434,7 +1976,7 @@ public class Client {
     private static void handleViewMyProfile() {
         try {
             System.out.println("\nFetching your profile...");
-            UserProfile profile = payrollService.getMyProfile(loggedInUser.getId());
+            UserProfile profile = payrollService.getMyProfile(loggedInUser.getSessionToken());
 
             if (profile != null) {
                 System.out.println("\n================ MY PROFILE ================");
@@ -1467,6 +2009,11 @@ public class Client {
 
     private static void handleLogout() {
         System.out.println("Logging out user: " + loggedInUser.getUsername());
+        String sessionToken = loggedInUser.getSessionToken();
+        executeWithResilience(service -> {
+            try { service.logout(sessionToken); return Boolean.TRUE; }
+            catch (RemoteException e) { throw new RuntimeException(e); }
+        });
         loggedInUser = null; // This will cause the main loop to go back to showMainMenu()
     }
 
@@ -0,0 +1,15 @@
+package com.wipro.payroll.common;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown when a login or password check is turned away before it is tried: too many recent attempts for the
+ * account or from the client's host, or too many logins in progress on the server. Retrying right away won't help.
+ */
+public class LoginThrottledException extends RemoteException {
+    private static final long serialVersionUID = 1L;
+
+    public LoginThrottledException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,53 @@
+package com.wipro.payroll.common;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * A staged payroll run: payslips are calculated and kept aside for review, and only become real
+ * payslips when HR promotes the draft. Discarding a draft leaves nothing behind.
+ */
+public class PayrollDraft implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int draftId;
+    private int year;
+    private int month;
+    private int targetUserId;
+    private String status;   // DRAFT, PROMOTED or DISCARDED
+    private int employeeCount;
+    private int failedCount; // employees whose calculation failed and are not in the draft
+    private BigDecimal totalGross = BigDecimal.ZERO;
+    private BigDecimal totalDeductions = BigDecimal.ZERO;
+    private BigDecimal totalNet = BigDecimal.ZERO;
+    private LocalDateTime createdAt;
+    private String summary;
+
+    public PayrollDraft() {}
+
+    public int getDraftId() { return draftId; }
+    public void setDraftId(int draftId) { this.draftId = draftId; }
+    public int getYear() { return year; }
+    public void setYear(int year) { this.year = year; }
+    public int getMonth() { return month; }
+    public void setMonth(int month) { this.month = month; }
+    public int getTargetUserId() { return targetUserId; }
+    public void setTargetUserId(int targetUserId) { this.targetUserId = targetUserId; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public int getEmployeeCount() { return employeeCount; }
+    public void setEmployeeCount(int employeeCount) { this.employeeCount = employeeCount; }
+    public int getFailedCount() { return failedCount; }
+    public void setFailedCount(int failedCount) { this.failedCount = failedCount; }
+    public BigDecimal getTotalGross() { return totalGross; }
+    public void setTotalGross(BigDecimal totalGross) { this.totalGross = totalGross; }
+    public BigDecimal getTotalDeductions() { return totalDeductions; }
+    public void setTotalDeductions(BigDecimal totalDeductions) { this.totalDeductions = totalDeductions; }
+    public BigDecimal getTotalNet() { return totalNet; }
+    public void setTotalNet(BigDecimal totalNet) { this.totalNet = totalNet; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    public String getSummary() { return summary; }
+    public void setSummary(String summary) { this.summary = summary; }
+}
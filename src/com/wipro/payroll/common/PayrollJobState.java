@@ -0,0 +1,11 @@
+package com.wipro.payroll.common;
+
+import java.io.Serializable;
+
+public enum PayrollJobState implements Serializable {
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    FAILED,
+    CANCELLED
+}
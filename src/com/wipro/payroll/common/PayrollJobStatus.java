@@ -0,0 +1,76 @@
+package com.wipro.payroll.common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A snapshot of a background payroll job, returned to the client while it polls.
+ */
+public class PayrollJobStatus implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String jobId;
+    private PayrollJobState state;
+    private int year;
+    private int month;
+    private int targetUserId;
+    private int totalEmployees;
+    private int processed;
+    private int skipped;
+    private int failed;
+    private double employeesPerSecond;
+    private long etaSeconds = -1; // -1 while there is not enough progress to estimate
+    private String summary;
+    // Range (backfill) jobs only: the last period, and one summary line per finished period
+    private int endYear;
+    private int endMonth;
+    private List<String> periodSummaries = new ArrayList<>();
+    private List<PipelineStageStats> stages = new ArrayList<>(); // read / calculate / write, to spot the bottleneck
+    // The answering server's adaptive write limit: concurrent payslip writes allowed right now, out of the maximum
+    private int writeLimit;
+    private int maxWriteLimit;
+
+    public PayrollJobStatus() {}
+
+    public String getJobId() { return jobId; }
+    public void setJobId(String jobId) { this.jobId = jobId; }
+    public PayrollJobState getState() { return state; }
+    public void setState(PayrollJobState state) { this.state = state; }
+    public int getYear() { return year; }
+    public void setYear(int year) { this.year = year; }
+    public int getMonth() { return month; }
+    public void setMonth(int month) { this.month = month; }
+    public int getTargetUserId() { return targetUserId; }
+    public void setTargetUserId(int targetUserId) { this.targetUserId = targetUserId; }
+    public int getTotalEmployees() { return totalEmployees; }
+    public void setTotalEmployees(int totalEmployees) { this.totalEmployees = totalEmployees; }
+    public int getProcessed() { return processed; }
+    public void setProcessed(int processed) { this.processed = processed; }
+    public int getSkipped() { return skipped; }
+    public void setSkipped(int skipped) { this.skipped = skipped; }
+    public int getFailed() { return failed; }
+    public void setFailed(int failed) { this.failed = failed; }
+    public double getEmployeesPerSecond() { return employeesPerSecond; }
+    public void setEmployeesPerSecond(double employeesPerSecond) { this.employeesPerSecond = employeesPerSecond; }
+    public long getEtaSeconds() { return etaSeconds; }
+    public void setEtaSeconds(long etaSeconds) { this.etaSeconds = etaSeconds; }
+    public String getSummary() { return summary; }
+    public void setSummary(String summary) { this.summary = summary; }
+    public int getEndYear() { return endYear; }
+    public void setEndYear(int endYear) { this.endYear = endYear; }
+    public int getEndMonth() { return endMonth; }
+    public void setEndMonth(int endMonth) { this.endMonth = endMonth; }
+    public List<String> getPeriodSummaries() { return periodSummaries; }
+    public void setPeriodSummaries(List<String> periodSummaries) { this.periodSummaries = periodSummaries; }
+    public List<PipelineStageStats> getStages() { return stages; }
+    public void setStages(List<PipelineStageStats> stages) { this.stages = stages; }
+    public int getWriteLimit() { return writeLimit; }
+    public void setWriteLimit(int writeLimit) { this.writeLimit = writeLimit; }
+    public int getMaxWriteLimit() { return maxWriteLimit; }
+    public void setMaxWriteLimit(int maxWriteLimit) { this.maxWriteLimit = maxWriteLimit; }
+
+    public boolean isFinished() {
+        return state == PayrollJobState.COMPLETED || state == PayrollJobState.FAILED || state == PayrollJobState.CANCELLED;
+    }
+}
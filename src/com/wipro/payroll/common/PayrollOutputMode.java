@@ -0,0 +1,6 @@
+package com.wipro.payroll.common;
+
+public enum PayrollOutputMode {
+    BATCHED_INSERT, // multi-row INSERT plus JDBC batches, the default
+    COPY            // PostgreSQL COPY ... FROM STDIN, for very large runs
+}
@@ -0,0 +1,49 @@
+package com.wipro.payroll.common;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * Aggregate totals of a payroll dry run. Nothing was written; the per-employee lines are fetched
+ * page by page with the preview id.
+ */
+public class PayrollPreview implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String previewId;
+    private int year;
+    private int month;
+    private int targetUserId;
+    private int employeeCount;
+    private int alreadyPaidCount;
+    private int failedCount;
+    private BigDecimal totalGross = BigDecimal.ZERO;
+    private BigDecimal totalDeductions = BigDecimal.ZERO;
+    private BigDecimal totalNet = BigDecimal.ZERO;
+    private long elapsedMillis;
+
+    public PayrollPreview() {}
+
+    public String getPreviewId() { return previewId; }
+    public void setPreviewId(String previewId) { this.previewId = previewId; }
+    public int getYear() { return year; }
+    public void setYear(int year) { this.year = year; }
+    public int getMonth() { return month; }
+    public void setMonth(int month) { this.month = month; }
+    public int getTargetUserId() { return targetUserId; }
+    public void setTargetUserId(int targetUserId) { this.targetUserId = targetUserId; }
+    public int getEmployeeCount() { return employeeCount; }
+    public void setEmployeeCount(int employeeCount) { this.employeeCount = employeeCount; }
+    public int getAlreadyPaidCount() { return alreadyPaidCount; }
+    public void setAlreadyPaidCount(int alreadyPaidCount) { this.alreadyPaidCount = alreadyPaidCount; }
+    public int getFailedCount() { return failedCount; }
+    public void setFailedCount(int failedCount) { this.failedCount = failedCount; }
+    public BigDecimal getTotalGross() { return totalGross; }
+    public void setTotalGross(BigDecimal totalGross) { this.totalGross = totalGross; }
+    public BigDecimal getTotalDeductions() { return totalDeductions; }
+    public void setTotalDeductions(BigDecimal totalDeductions) { this.totalDeductions = totalDeductions; }
+    public BigDecimal getTotalNet() { return totalNet; }
+    public void setTotalNet(BigDecimal totalNet) { this.totalNet = totalNet; }
+    public long getElapsedMillis() { return elapsedMillis; }
+    public void setElapsedMillis(long elapsedMillis) { this.elapsedMillis = elapsedMillis; }
+}
@@ -0,0 +1,36 @@
+package com.wipro.payroll.common;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * One employee's result in a payroll dry run.
+ */
+public class PayrollPreviewLine implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int userId;
+    private String username;
+    private BigDecimal grossEarnings;
+    private BigDecimal totalDeductions;
+    private BigDecimal netPay;
+    private boolean alreadyPaid; // a real run would skip this employee
+    private String error;        // set instead of the amounts when the calculation failed
+
+    public PayrollPreviewLine() {}
+
+    public int getUserId() { return userId; }
+    public void setUserId(int userId) { this.userId = userId; }
+    public String getUsername() { return username; }
+    public void setUsername(String username) { this.username = username; }
+    public BigDecimal getGrossEarnings() { return grossEarnings; }
+    public void setGrossEarnings(BigDecimal grossEarnings) { this.grossEarnings = grossEarnings; }
+    public BigDecimal getTotalDeductions() { return totalDeductions; }
+    public void setTotalDeductions(BigDecimal totalDeductions) { this.totalDeductions = totalDeductions; }
+    public BigDecimal getNetPay() { return netPay; }
+    public void setNetPay(BigDecimal netPay) { this.netPay = netPay; }
+    public boolean isAlreadyPaid() { return alreadyPaid; }
+    public void setAlreadyPaid(boolean alreadyPaid) { this.alreadyPaid = alreadyPaid; }
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+}
@@ -0,0 +1,56 @@
+package com.wipro.payroll.common;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * One persisted payroll run, for the job history: what ran, who or what started it, and how long it took.
+ */
+public class PayrollRunHistory implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String jobId;
+    private int year;
+    private int month;
+    private int targetUserId;
+    private PayrollJobState state;
+    private String scheduleName;     // null when started from the menu
+    private boolean distributed;
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;  // null while still queued
+    private LocalDateTime finishedAt; // null while queued or running
+    private String summary;
+
+    public PayrollRunHistory() {}
+
+    public String getJobId() { return jobId; }
+    public void setJobId(String jobId) { this.jobId = jobId; }
+    public int getYear() { return year; }
+    public void setYear(int year) { this.year = year; }
+    public int getMonth() { return month; }
+    public void setMonth(int month) { this.month = month; }
+    public int getTargetUserId() { return targetUserId; }
+    public void setTargetUserId(int targetUserId) { this.targetUserId = targetUserId; }
+    public PayrollJobState getState() { return state; }
+    public void setState(PayrollJobState state) { this.state = state; }
+    public String getScheduleName() { return scheduleName; }
+    public void setScheduleName(String scheduleName) { this.scheduleName = scheduleName; }
+    public boolean isDistributed() { return distributed; }
+    public void setDistributed(boolean distributed) { this.distributed = distributed; }
+    public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    public LocalDateTime getStartedAt() { return startedAt; }
+    public void setStartedAt(LocalDateTime startedAt) { this.startedAt = startedAt; }
+    public LocalDateTime getFinishedAt() { return finishedAt; }
+    public void setFinishedAt(LocalDateTime finishedAt) { this.finishedAt = finishedAt; }
+    public String getSummary() { return summary; }
+    public void setSummary(String summary) { this.summary = summary; }
+
+    /** @return The run time in seconds, or -1 if it has not both started and finished. */
+    public long getDurationSeconds() {
+        if (startedAt == null || finishedAt == null) {
+            return -1;
+        }
+        return java.time.Duration.between(startedAt, finishedAt).getSeconds();
+    }
+}
@@ -0,0 +1,20 @@
+package com.wipro.payroll.common;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown when payroll is submitted for a month and target that some server is already running.
+ * Carries the id of that job, so the client can follow it instead of starting the same work twice.
+ */
+public class PayrollRunInProgressException extends RemoteException {
+    private static final long serialVersionUID = 1L;
+
+    private final String jobId;
+
+    public PayrollRunInProgressException(String message, String jobId) {
+        super(message);
+        this.jobId = jobId;
+    }
+
+    public String getJobId() { return jobId; }
+}
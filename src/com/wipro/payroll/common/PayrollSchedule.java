@@ -0,0 +1,61 @@
+package com.wipro.payroll.common;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * A recurring payroll run the server starts on its own, e.g. "all employees, previous month, 02:00 on the 25th".
+ * Scheduled runs get a smaller worker budget than runs started from the menu.
+ */
+public class PayrollSchedule implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int id;
+    private String name;
+    private int dayOfMonth;       // 1-31; months that are shorter run on their last day
+    private LocalTime runAt;      // server local time
+    private int periodOffset = 1; // which month to pay: 0 = the current month, 1 = the previous month, ...
+    private int targetUserId;     // 0 = all employees
+    private PayrollOutputMode outputMode = PayrollOutputMode.BATCHED_INSERT;
+    private boolean enabled = true;
+    private LocalDateTime nextRunAt;
+    private LocalDateTime lastRunAt;
+    private String lastJobId;
+    private String lastResult;
+
+    public PayrollSchedule() {}
+
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public int getDayOfMonth() { return dayOfMonth; }
+    public void setDayOfMonth(int dayOfMonth) { this.dayOfMonth = dayOfMonth; }
+    public LocalTime getRunAt() { return runAt; }
+    public void setRunAt(LocalTime runAt) { this.runAt = runAt; }
+    public int getPeriodOffset() { return periodOffset; }
+    public void setPeriodOffset(int periodOffset) { this.periodOffset = periodOffset; }
+    public int getTargetUserId() { return targetUserId; }
+    public void setTargetUserId(int targetUserId) { this.targetUserId = targetUserId; }
+    public PayrollOutputMode getOutputMode() { return outputMode; }
+    public void setOutputMode(PayrollOutputMode outputMode) { this.outputMode = outputMode; }
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public LocalDateTime getNextRunAt() { return nextRunAt; }
+    public void setNextRunAt(LocalDateTime nextRunAt) { this.nextRunAt = nextRunAt; }
+    public LocalDateTime getLastRunAt() { return lastRunAt; }
+    public void setLastRunAt(LocalDateTime lastRunAt) { this.lastRunAt = lastRunAt; }
+    public String getLastJobId() { return lastJobId; }
+    public void setLastJobId(String lastJobId) { this.lastJobId = lastJobId; }
+    public String getLastResult() { return lastResult; }
+    public void setLastResult(String lastResult) { this.lastResult = lastResult; }
+
+    @Override
+    public String toString() {
+        String target = targetUserId == 0 ? "all employees" : "user " + targetUserId;
+        String period = periodOffset == 0 ? "current month" : periodOffset == 1 ? "previous month" : periodOffset + " months back";
+        return String.format("#%d %s: %s, %s, %s on day %d (%s)%s",
+                id, name, target, period, runAt, dayOfMonth, outputMode, enabled ? "" : " [DISABLED]");
+    }
+}
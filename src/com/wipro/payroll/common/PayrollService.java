@@ -4,59 +4,99 @@ import java.math.BigDecimal;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
+import java.util.Map;
 
 public interface PayrollService extends Remote {
 
     // =================================================================
     //  Authentication & Session
     // =================================================================
+    // On success the returned user carries a session token; every other call takes that token instead of a user id
     User login(String username, String password) throws RemoteException;
-    boolean verifyCurrentUserPassword(int actorUserId, String password) throws RemoteException;
-    Payslip getPayslipById(int actorUserId, int payslipId) throws RemoteException;
+    void logout(String sessionToken) throws RemoteException;
+    boolean verifyCurrentUserPassword(String sessionToken, String password) throws RemoteException;
+    Payslip getPayslipById(String sessionToken, int payslipId) throws RemoteException;
 
     // Employee Self-Service
-    UserProfile getMyProfile(int userId) throws RemoteException;
-    Payslip getMyLatestPayslip(int userId) throws RemoteException;
-    UserBankDetails getMyBankDetails(int userId) throws RemoteException;
-    boolean updateMyBankDetails(int userId, UserBankDetails details) throws RemoteException;
+    UserProfile getMyProfile(String sessionToken) throws RemoteException;
+    Payslip getMyLatestPayslip(String sessionToken) throws RemoteException;
+    UserBankDetails getMyBankDetails(String sessionToken) throws RemoteException;
+    boolean updateMyBankDetails(String sessionToken, UserBankDetails details) throws RemoteException;
 
 
     // =================================================================
     //  HR Administrator Methods
     // =================================================================
-    List<User> readAllUsers(int userId) throws RemoteException;
-    String createUser(int userId, User newUser, String password) throws RemoteException;
-    boolean updateUser(int userId, User userToUpdate) throws RemoteException;
-    User readUserById(int userId, int targetUserId) throws RemoteException;
-    boolean deleteUser(int actorUserId, int userIdToDelete) throws RemoteException;
+    List<User> readAllUsers(String sessionToken) throws RemoteException;
+    String createUser(String sessionToken, User newUser, String password) throws RemoteException;
+    boolean updateUser(String sessionToken, User userToUpdate) throws RemoteException;
+    User readUserById(String sessionToken, int targetUserId) throws RemoteException;
+    boolean deleteUser(String sessionToken, int userIdToDelete) throws RemoteException;
 
-    String runMonthlyPayrollForTarget(int actorUserId, int year, int month, int targetUserId) throws RemoteException;
-    List<PayslipSummary> getAllPayslips(int actorUserId) throws RemoteException;
+    String runMonthlyPayrollForTarget(String sessionToken, int year, int month, int targetUserId) throws RemoteException;
+    String runMonthlyPayrollForTarget(String sessionToken, int year, int month, int targetUserId, PayrollOutputMode outputMode) throws RemoteException;
+    // Re-runs a paid period, overwriting only the payslips whose inputs changed since they were generated
+    String recomputePayrollForTarget(String sessionToken, int year, int month, int targetUserId) throws RemoteException;
+    List<PayslipSummary> getAllPayslips(String sessionToken) throws RemoteException;
 
-    List<Department> getAllDepartments(int actorUserId) throws RemoteException;
-    Department createDepartment(int actorUserId, Department newDepartment) throws RemoteException;
-    JobTitle createJobTitle(int actorUserId, JobTitle newJobTitle) throws RemoteException;
+    // Background payroll jobs (submit, then poll)
+    String submitPayrollJob(String sessionToken, int year, int month, int targetUserId, PayrollOutputMode outputMode) throws RemoteException;
+    // Whole-company run split into partitions that every server instance works on; poll it like any other job
+    String submitDistributedPayrollJob(String sessionToken, int year, int month, PayrollOutputMode outputMode) throws RemoteException;
+    // One job for a range of months (inclusive), e.g. to backfill history; poll it like any other job
+    String submitPayrollBackfillJob(String sessionToken, int startYear, int startMonth, int endYear, int endMonth, int targetUserId, PayrollOutputMode outputMode) throws RemoteException;
+    // One month for the given departments only; each department commits on its own and gets its own summary line
+    String submitPayrollDepartmentJob(String sessionToken, int year, int month, List<Integer> departmentIds) throws RemoteException;
+    // Incremental re-run of a paid month (like recomputePayrollForTarget) as a job; poll it like any other job
+    String submitPayrollRecomputeJob(String sessionToken, int year, int month, int targetUserId) throws RemoteException;
+    PayrollJobStatus getPayrollJobStatus(String sessionToken, String jobId) throws RemoteException;
+    boolean cancelPayrollJob(String sessionToken, String jobId) throws RemoteException;
+    boolean resumePayrollJob(String sessionToken, String jobId) throws RemoteException;
+
+    // Payroll dry run: totals first, then per-employee lines page by page. Overrides are keyed by pay template id.
+    PayrollPreview previewPayroll(String sessionToken, int year, int month, int targetUserId, Map<Integer, BigDecimal> templateAmountOverrides) throws RemoteException;
+    List<PayrollPreviewLine> getPayrollPreviewPage(String sessionToken, String previewId, int offset, int limit) throws RemoteException;
+
+    // Draft runs: payslips are staged for review, then promoted into the real tables in one go, or discarded
+    PayrollDraft createPayrollDraft(String sessionToken, int year, int month, int targetUserId) throws RemoteException;
+    List<PayrollDraft> getPayrollDrafts(String sessionToken) throws RemoteException;
+    String promotePayrollDraft(String sessionToken, int draftId) throws RemoteException;
+    boolean discardPayrollDraft(String sessionToken, int draftId) throws RemoteException;
+
+    // Off-peak payroll the server starts on its own, and the history of every persisted run
+    int createPayrollSchedule(String sessionToken, PayrollSchedule schedule) throws RemoteException;
+    List<PayrollSchedule> getPayrollSchedules(String sessionToken) throws RemoteException;
+    boolean setPayrollScheduleEnabled(String sessionToken, int scheduleId, boolean enabled) throws RemoteException;
+    boolean deletePayrollSchedule(String sessionToken, int scheduleId) throws RemoteException;
+    List<PayrollRunHistory> getPayrollJobHistory(String sessionToken, int limit) throws RemoteException;
+
+    // Counters of the login limiter and the authorization cache since the server started
+    Map<String, Long> getSecurityMetrics(String sessionToken) throws RemoteException;
+
+    List<Department> getAllDepartments(String sessionToken) throws RemoteException;
+    Department createDepartment(String sessionToken, Department newDepartment) throws RemoteException;
+    JobTitle createJobTitle(String sessionToken, JobTitle newJobTitle) throws RemoteException;
 
     // Payroll & Compensation (HR Role)
-    List<PayTemplate> getPayTemplatesForJobTitle(int actorUserId, int jobTitleId) throws RemoteException;
-    boolean updatePayTemplateItem(int actorUserId, int payTemplateItemId, BigDecimal newAmount) throws RemoteException;
-    List<String> getExistingPayrollPeriods(int actorUserId) throws RemoteException;
+    List<PayTemplate> getPayTemplatesForJobTitle(String sessionToken, int jobTitleId) throws RemoteException;
+    boolean updatePayTemplateItem(String sessionToken, int payTemplateItemId, BigDecimal newAmount) throws RemoteException;
+    List<String> getExistingPayrollPeriods(String sessionToken) throws RemoteException;
 
-    List<JobTitle> getAllJobTitles(int userId) throws RemoteException;
-    List<EmpType> getAllEmpTypes(int userId) throws RemoteException;
-    List<Bonus> getAllPendingBonuses(int actorUserId) throws RemoteException;
+    List<JobTitle> getAllJobTitles(String sessionToken) throws RemoteException;
+    List<EmpType> getAllEmpTypes(String sessionToken) throws RemoteException;
+    List<Bonus> getAllPendingBonuses(String sessionToken) throws RemoteException;
 
     // Pay Template
-    PayTemplate addPayTemplateItem(int userId, PayTemplate newItem) throws RemoteException;
-    boolean deletePayTemplateItem(int userId, int payTemplateItemId) throws RemoteException;
+    PayTemplate addPayTemplateItem(String sessionToken, PayTemplate newItem) throws RemoteException;
+    boolean deletePayTemplateItem(String sessionToken, int payTemplateItemId) throws RemoteException;
 
 
     // =================================================================
     //  MANAGER Administrator Methods
     // =================================================================
-    List<User> getMyDepartmentEmployees(int actorUserId) throws RemoteException;
-    PayrollSummaryReport getPayrollSummaryReport(int actorUserId, int year, int month) throws RemoteException;
-    List<Bonus> getUnapprovedBonusesForMyDepartment(int actorUserId) throws RemoteException;
-    Bonus createBonusesToEmployee(int actorUserId, Bonus newBonus) throws RemoteException;
-    boolean approveBonus(int actorUserId, int bonusId) throws RemoteException;
+    List<User> getMyDepartmentEmployees(String sessionToken) throws RemoteException;
+    PayrollSummaryReport getPayrollSummaryReport(String sessionToken, int year, int month) throws RemoteException;
+    List<Bonus> getUnapprovedBonusesForMyDepartment(String sessionToken) throws RemoteException;
+    Bonus createBonusesToEmployee(String sessionToken, Bonus newBonus) throws RemoteException;
+    boolean approveBonus(String sessionToken, int bonusId) throws RemoteException;
 }
\ No newline at end of file
@@ -20,6 +20,7 @@ public class Payslip implements Serializable {
     private BigDecimal grossEarnings;
     private BigDecimal totalDeductions;
     private BigDecimal netPay;
+    private String inputFingerprint; // hash of the rules, bonuses and job data this payslip was calculated from
 
 
     public Payslip() {}
@@ -44,4 +45,6 @@ public class Payslip implements Serializable {
     public void setTotalDeductions(BigDecimal totalDeductions) { this.totalDeductions = totalDeductions; }
     public BigDecimal getNetPay() { return netPay; }
     public void setNetPay(BigDecimal netPay) { this.netPay = netPay; }
+    public String getInputFingerprint() { return inputFingerprint; }
+    public void setInputFingerprint(String inputFingerprint) { this.inputFingerprint = inputFingerprint; }
 }
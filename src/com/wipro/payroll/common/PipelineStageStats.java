@@ -0,0 +1,41 @@
+package com.wipro.payroll.common;
+
+import java.io.Serializable;
+
+/**
+ * Live numbers for one stage (read, calculate or write) of a payroll run, to see which stage is the bottleneck.
+ */
+public class PipelineStageStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String stage;
+    private int threads;
+    private long employees;          // employees that have left this stage
+    private double employeesPerSecond;
+    private double busyPercent;      // time the stage's threads spent working rather than waiting on a queue
+    private int queueDepth;          // batches waiting in front of this stage
+    private int queueCapacity;
+
+    public PipelineStageStats() {}
+
+    public String getStage() { return stage; }
+    public void setStage(String stage) { this.stage = stage; }
+    public int getThreads() { return threads; }
+    public void setThreads(int threads) { this.threads = threads; }
+    public long getEmployees() { return employees; }
+    public void setEmployees(long employees) { this.employees = employees; }
+    public double getEmployeesPerSecond() { return employeesPerSecond; }
+    public void setEmployeesPerSecond(double employeesPerSecond) { this.employeesPerSecond = employeesPerSecond; }
+    public double getBusyPercent() { return busyPercent; }
+    public void setBusyPercent(double busyPercent) { this.busyPercent = busyPercent; }
+    public int getQueueDepth() { return queueDepth; }
+    public void setQueueDepth(int queueDepth) { this.queueDepth = queueDepth; }
+    public int getQueueCapacity() { return queueCapacity; }
+    public void setQueueCapacity(int queueCapacity) { this.queueCapacity = queueCapacity; }
+
+    @Override
+    public String toString() {
+        return String.format("%-9s x%-2d %8d emp  %8.1f emp/s  busy %5.1f%%  queue %d/%d",
+                stage, threads, employees, employeesPerSecond, busyPercent, queueDepth, queueCapacity);
+    }
+}
@@ -0,0 +1,15 @@
+package com.wipro.payroll.common;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown when a call presents a session token the server does not know: never issued, logged out,
+ * idle for too long, or issued by another server instance. The client has to log in again.
+ */
+public class SessionExpiredException extends RemoteException {
+    private static final long serialVersionUID = 1L;
+
+    public SessionExpiredException(String message) {
+        super(message);
+    }
+}
@@ -19,6 +19,7 @@ public class User implements Serializable {
     private String ic;
     private UserStatus status;
     private Role role;
+    private String sessionToken; // set on the user returned by login only
 
     public User() {}
 
@@ -48,6 +49,8 @@ public class User implements Serializable {
     public void setIc(String ic) { this.ic = ic; }
     public UserStatus getStatus() { return status; }
     public void setStatus(UserStatus status) { this.status = status; }
+    public String getSessionToken() { return sessionToken; }
+    public void setSessionToken(String sessionToken) { this.sessionToken = sessionToken; }
     public Role getRole() { return role; }
     public void setRole(Role role) { this.role = role; }
 }
\ No newline at end of file
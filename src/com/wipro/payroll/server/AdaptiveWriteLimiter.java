@@ -0,0 +1,139 @@
+package com.wipro.payroll.server;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Engine-wide limit on concurrent payslip writes that adapts to how busy the database is (AIMD).
+ * Payroll shares the database with logins and self-service calls (and the batch pool with reports), so the limit
+ * has to leave them room:
+ *
+ * - Every finished write is a sample. Its latency per employee is compared with the best latency seen recently,
+ *   and the average connection wait of ALL batch pool users since the last sample is checked (see DatabaseManager).
+ * - Congested (latency over LATENCY_TOLERANCE x baseline, or callers queuing for a connection): the limit is
+ *   multiplied by DECREASE_FACTOR, at most once per DECREASE_COOLDOWN_MS so one burst doesn't drop it to 1.
+ * - Otherwise the limit grows by 1/limit per write, i.e. about one extra writer per round of writes.
+ *
+ * The limit stays between 1 and the writer count; acquire() blocks while that many writes are in flight.
+ */
+public class AdaptiveWriteLimiter {
+
+    private static final double DECREASE_FACTOR = 0.7;
+    private static final double LATENCY_TOLERANCE = Double.parseDouble(System.getProperty("payroll.writeLatencyTolerance", "2.0"));
+    private static final long POOL_WAIT_TOLERANCE_NANOS = Long.getLong("payroll.poolWaitToleranceMs", 20) * 1_000_000L;
+    private static final long DECREASE_COOLDOWN_MS = 1000;
+    // The baseline creeps up 1% per sample, so it follows the database if it gets permanently slower
+    private static final double BASELINE_DRIFT = 1.01;
+
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitFreed = lock.newCondition();
+
+    // All guarded by lock
+    private double limit;
+    private int inFlight;
+    private double smoothedNanosPerEmployee;
+    private double baselineNanosPerEmployee;
+    private long lastDecreaseMillis;
+    private long lastPoolWaitNanos = DatabaseManager.getBatchConnectionWaitNanos();
+    private long lastPoolRequests = DatabaseManager.getBatchConnectionRequests();
+    private long decreases;
+
+    public AdaptiveWriteLimiter(int maxLimit) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.limit = this.maxLimit;
+    }
+
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                permitFreed.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees the permit and feeds the write's duration into the limit.
+     * @param employees How many payslips the write covered; 0 for a write that says nothing about latency.
+     */
+    public void release(int employees, long elapsedNanos) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (employees > 0) {
+                adjust(elapsedNanos / (double) employees);
+            }
+            permitFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjust(double nanosPerEmployee) {
+        smoothedNanosPerEmployee = smoothedNanosPerEmployee == 0
+                ? nanosPerEmployee : smoothedNanosPerEmployee * 0.8 + nanosPerEmployee * 0.2;
+        baselineNanosPerEmployee = baselineNanosPerEmployee == 0
+                ? nanosPerEmployee : Math.min(baselineNanosPerEmployee * BASELINE_DRIFT, nanosPerEmployee);
+
+        // Average time anyone (payroll writers, readers or reports) waited for a batch connection since the last sample
+        long poolWaitNanos = DatabaseManager.getBatchConnectionWaitNanos();
+        long poolRequests = DatabaseManager.getBatchConnectionRequests();
+        long requests = poolRequests - lastPoolRequests;
+        long averagePoolWait = requests > 0 ? (poolWaitNanos - lastPoolWaitNanos) / requests : 0;
+        lastPoolWaitNanos = poolWaitNanos;
+        lastPoolRequests = poolRequests;
+
+        double latencyRatio = smoothedNanosPerEmployee / baselineNanosPerEmployee;
+        boolean poolContended = averagePoolWait > POOL_WAIT_TOLERANCE_NANOS || DatabaseManager.getThreadsAwaitingBatchConnection() > 0;
+        if (latencyRatio > LATENCY_TOLERANCE || poolContended) {
+            long now = System.currentTimeMillis();
+            if (now - lastDecreaseMillis >= DECREASE_COOLDOWN_MS && limit > 1) {
+                int before = (int) limit;
+                limit = Math.max(1, limit * DECREASE_FACTOR);
+                lastDecreaseMillis = now;
+                decreases++;
+                System.out.printf("⚠️ Payroll write limit %d -> %d (latency %.1fx baseline, avg pool wait %d ms).\n",
+                        before, (int) limit, latencyRatio, averagePoolWait / 1_000_000);
+            }
+        } else if (limit < maxLimit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    /** The number of writes currently allowed at once. */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** How many times congestion has cut the limit since the server started. */
+    public long getDecreases() {
+        lock.lock();
+        try {
+            return decreases;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.wipro.payroll.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Database settings, looked up (highest priority first) as a system property (-Ddb.oltp.maximumPoolSize=8),
+ * an environment variable (PAYROLL_DB_OLTP_MAXIMUMPOOLSIZE=8) or a properties file (payroll.dbConfig, default
+ * ./db.properties, else db.properties on the classpath).
+ *
+ * Kept apart from DatabaseManager so a tool can look at the settings without opening any pool.
+ *
+ * There are no built-in connection settings: db.url, db.username and db.password must be set.
+ */
+public final class DatabaseConfig {
+    private static final String[] CONNECTION_KEYS = {"db.url", "db.username", "db.password"};
+    private static final Properties file = loadFile();
+
+    private DatabaseConfig() {}
+
+    /**
+     * @return The configured value, or null if the key is set nowhere.
+     */
+    public static String get(String key) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(envName(key));
+        }
+        if (value == null) {
+            value = file.getProperty(key);
+        }
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    public static String get(String key, String defaultValue) {
+        String value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Checks that db.url, db.username and db.password are all set.
+     * @throws IllegalStateException naming every missing key and where it can be set.
+     */
+    public static void requireConnectionSettings() {
+        List<String> missing = new ArrayList<>();
+        for (String key : CONNECTION_KEYS) {
+            if (get(key) == null) {
+                missing.add(key + " (-D" + key + "=... or " + envName(key) + ")");
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("Database connection settings missing: " + String.join(", ", missing)
+                    + ". They can also go in db.properties (or the file named by payroll.dbConfig).");
+        }
+    }
+
+    /**
+     * @return true if the JDBC URL points at a PgBouncer-style pooler, e.g. Neon's -pooler host.
+     */
+    public static boolean isPoolerUrl(String jdbcUrl) {
+        return jdbcUrl != null && jdbcUrl.contains("-pooler.");
+    }
+
+    /**
+     * @return true if the JDBC URL's host is this machine.
+     */
+    public static boolean isLocalUrl(String jdbcUrl) {
+        if (jdbcUrl == null || !jdbcUrl.startsWith("jdbc:postgresql://")) {
+            return false;
+        }
+        String rest = jdbcUrl.substring("jdbc:postgresql://".length());
+        String host;
+        if (rest.startsWith("[")) {
+            host = rest.substring(1, Math.max(1, rest.indexOf(']'))); // [::1]:5432
+        } else {
+            int end = rest.length();
+            for (char separator : new char[]{':', '/', '?', ','}) {
+                int at = rest.indexOf(separator);
+                if (at >= 0 && at < end) {
+                    end = at;
+                }
+            }
+            host = rest.substring(0, end);
+        }
+        return host.equalsIgnoreCase("localhost") || host.equals("127.0.0.1") || host.equals("::1");
+    }
+
+    private static String envName(String key) {
+        return "PAYROLL_" + key.toUpperCase().replace('.', '_');
+    }
+
+    private static Properties loadFile() {
+        Properties properties = new Properties();
+        String file = System.getProperty("payroll.dbConfig", System.getenv().getOrDefault("PAYROLL_DB_CONFIG", "db.properties"));
+        Path path = Paths.get(file);
+        try {
+            if (Files.isRegularFile(path)) {
+                try (InputStream in = Files.newInputStream(path)) {
+                    properties.load(in);
+                }
+                System.out.println("✅ Database settings loaded from " + path.toAbsolutePath());
+            } else {
+                try (InputStream in = DatabaseConfig.class.getClassLoader().getResourceAsStream("db.properties")) {
+                    if (in != null) {
+                        properties.load(in);
+                        System.out.println("✅ Database settings loaded from db.properties on the classpath");
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("⚠️  Could not read database settings from " + file + ": " + e.getMessage());
+        }
+        return properties;
+    }
+}
@@ -4,31 +4,80 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * The server's two connection pools:
+ * - OLTP ({@link #getConnection()}): small, fails fast. Logins, self-service and HR calls.
+ * - Batch ({@link #getBatchConnection()}): payroll runs, drafts and reports. It waits longer and batches inserts.
+ * A long payroll run can exhaust the batch pool without a login ever waiting for a connection.
+ *
+ * Settings come from {@link DatabaseConfig}. db.url, db.username and db.password are required; the pools
+ * refuse to start without them. Per pool (db.oltp.* and db.batch.*), with the defaults below: maximumPoolSize,
+ * minimumIdle, connectionTimeoutMs, statementTimeoutMs (0 = none), prepareThreshold and reWriteBatchedInserts.
+ *
+ * PgBouncer-style poolers in transaction mode (e.g. Neon's -pooler host) don't keep server-side prepared
+ * statements across transactions, and may refuse statementTimeoutMs, which is sent as a startup option.
+ * On a -pooler URL prepareThreshold therefore defaults to 0 (never prepare on the server) for both pools;
+ * use the direct endpoint to get prepared statements or a statement timeout.
+ */
 public class DatabaseManager {
-    private static HikariDataSource dataSource;
-
-    // This static block runs once when the class is first loaded.
-    // It configures and initializes the connection pool.
     static {
-        HikariConfig config = new HikariConfig();
-        config.setJdbcUrl("jdbc:postgresql://ep-withered-flower-a811hc2n-pooler.eastus2.azure.neon.tech:5432/neondb?sslmode=require");
-        config.setUsername("neondb_owner");
-        config.setPassword("npg_4A1VduWMcaYT");
+        DatabaseConfig.requireConnectionSettings();
+    }
+
+    private static final Pool oltp = new Pool("oltp", 5, 2, 3_000, 0, 5, false);
+    private static final Pool batch = new Pool("batch", 10, 2, 30_000, 0, 1, true);
+
+    private static final class Pool {
+        private final HikariDataSource dataSource;
+        // Time every caller spent waiting for a connection, so the payroll engine can see when the pool is congested
+        private final LongAdder connectionWaitNanos = new LongAdder();
+        private final LongAdder connectionRequests = new LongAdder();
+
+        Pool(String name, int maximumPoolSize, int minimumIdle, long connectionTimeoutMs, long statementTimeoutMs,
+             int prepareThreshold, boolean reWriteBatchedInserts) {
+            String prefix = "db." + name + ".";
+            HikariConfig hikari = new HikariConfig();
+            hikari.setPoolName("payroll-" + name);
+            String url = DatabaseConfig.get("db.url");
+            hikari.setJdbcUrl(url);
+            hikari.setUsername(DatabaseConfig.get("db.username"));
+            hikari.setPassword(DatabaseConfig.get("db.password"));
+
+            // --- Pool Configuration ---
+            hikari.setMaximumPoolSize(Integer.parseInt(DatabaseConfig.get(prefix + "maximumPoolSize", String.valueOf(maximumPoolSize))));
+            hikari.setMinimumIdle(Integer.parseInt(DatabaseConfig.get(prefix + "minimumIdle", String.valueOf(minimumIdle))));
+            // How long a caller waits for a connection before getting an error
+            hikari.setConnectionTimeout(Long.parseLong(DatabaseConfig.get(prefix + "connectionTimeoutMs", String.valueOf(connectionTimeoutMs))));
+
+            // --- pgjdbc options ---
+            hikari.addDataSourceProperty("ApplicationName", "payroll-" + name);
+            if (DatabaseConfig.isPoolerUrl(url)) {
+                prepareThreshold = 0; // prepared statements don't survive the pooler moving us to another backend
+            }
+            hikari.addDataSourceProperty("prepareThreshold", DatabaseConfig.get(prefix + "prepareThreshold", String.valueOf(prepareThreshold)));
+            hikari.addDataSourceProperty("reWriteBatchedInserts", DatabaseConfig.get(prefix + "reWriteBatchedInserts", String.valueOf(reWriteBatchedInserts)));
+            long statementTimeout = Long.parseLong(DatabaseConfig.get(prefix + "statementTimeoutMs", String.valueOf(statementTimeoutMs)));
+            if (statementTimeout > 0) {
+                hikari.addDataSourceProperty("options", "-c statement_timeout=" + statementTimeout);
+            }
 
-        // --- Pool Configuration ---
-        // Maximum number of connections in the pool
-        config.setMaximumPoolSize(10);
-        // Minimum number of idle connections
-        config.setMinimumIdle(5);
-        // How long to wait for a connection before timing out
-        config.setConnectionTimeout(30000); // 30 seconds
+            this.dataSource = new HikariDataSource(hikari);
+            System.out.printf("✅ Database pool '%s' initialized: up to %d connection(s), %d ms connection timeout.\n",
+                    name, hikari.getMaximumPoolSize(), hikari.getConnectionTimeout());
+        }
 
-        // Create the pool
-        dataSource = new HikariDataSource(config);
-        System.out.println("✅ Database Connection Pool initialized.");
+        Connection getConnection() throws SQLException {
+            long started = System.nanoTime();
+            try {
+                return dataSource.getConnection();
+            } finally {
+                connectionWaitNanos.add(System.nanoTime() - started);
+                connectionRequests.increment();
+            }
+        }
     }
 
     /**
@@ -37,11 +86,48 @@ public class DatabaseManager {
     private DatabaseManager() {}
 
     /**
-     * Gets a connection from the pool.
+     * Gets a connection from the OLTP pool, for short interactive calls.
      * @return A database connection.
      * @throws SQLException if a connection cannot be obtained.
      */
     public static Connection getConnection() throws SQLException {
-        return dataSource.getConnection();
+        return oltp.getConnection();
+    }
+
+    /**
+     * Gets a connection from the batch pool, for payroll runs and reports.
+     * @return A database connection.
+     * @throws SQLException if a connection cannot be obtained.
+     */
+    public static Connection getBatchConnection() throws SQLException {
+        return batch.getConnection();
+    }
+
+    /**
+     * Gets the configured maximum size of the batch pool.
+     * Used by the payroll engine to size its worker pool so it never takes every connection.
+     * @return The maximum number of connections the batch pool will open.
+     */
+    public static int getBatchPoolSize() {
+        return batch.dataSource.getMaximumPoolSize();
+    }
+
+    /**
+     * Total time all callers have spent waiting for a batch connection since startup. Sample it twice and
+     * divide by the difference in getBatchConnectionRequests() to get the recent average wait.
+     */
+    public static long getBatchConnectionWaitNanos() {
+        return batch.connectionWaitNanos.sum();
+    }
+
+    public static long getBatchConnectionRequests() {
+        return batch.connectionRequests.sum();
+    }
+
+    /**
+     * @return How many threads are queuing for a batch connection right now, i.e. the batch pool is exhausted.
+     */
+    public static int getThreadsAwaitingBatchConnection() {
+        return batch.dataSource.getHikariPoolMXBean().getThreadsAwaitingConnection();
     }
 }
@@ -0,0 +1,147 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayItem;
+import com.wipro.payroll.common.PayItemType;
+import com.wipro.payroll.common.Payslip;
+import com.wipro.payroll.common.User;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The payslip calculation in primitive longs instead of BigDecimal. Money is kept in cents, percentage rates
+ * (EPF, EIS) in millionths, and deductions in 1e-8 units, which is exactly cents x millionths. That makes
+ * gross x rate an exact long product, so nothing is rounded earlier than in the BigDecimal version:
+ * deduction items, total deductions, gross and net are each rounded HALF_UP to cents at the same points.
+ * BigDecimals are only created for the finished payslip.
+ *
+ * Inputs that don't fit (an amount with more than 2 decimals, a rate with more than 6, or a long overflow)
+ * make calculate() return null, and the caller uses the BigDecimal path instead. Results are therefore
+ * always identical to PayrollEngine.calculatePayslipExact; PayrollMoneyCheck verifies that on random inputs.
+ */
+final class FixedPointPayCalculator {
+
+    static final long NOT_EXACT = Long.MIN_VALUE;
+
+    private static final long RATE_SCALE = 1_000_000L;     // rates are kept in millionths
+    private static final long SUB_CENTS_PER_CENT = RATE_SCALE; // deductions are kept in cents x millionths
+
+    private FixedPointPayCalculator() {}
+
+    /**
+     * @return The payslip, or null if the inputs can't be calculated exactly in fixed point.
+     */
+    static Payslip calculate(User employee, LocalDate startDate, LocalDate endDate,
+                             PayRulePlan plan, List<PayItem> variableItems) {
+        long grossCents = plan.getFixedEarningsCents();
+        if (grossCents == NOT_EXACT) {
+            return null;
+        }
+        try {
+            List<PayItem> finalPayItems = new ArrayList<>(plan.getEarnings().size() + variableItems.size() + plan.getDeductions().size());
+
+            // Earnings: the same items as the BigDecimal path, amounts passed through untouched
+            for (PayRulePlan.CompiledRule rule : plan.getEarnings()) {
+                PayItem earningItem = new PayItem();
+                earningItem.setName(rule.getName());
+                earningItem.setType(PayItemType.EARNING);
+                earningItem.setAmount(rule.getAmount());
+                finalPayItems.add(earningItem);
+            }
+            for (PayItem varItem : variableItems) {
+                if (varItem.getType() == PayItemType.EARNING) {
+                    long cents = toCents(varItem.getAmount());
+                    if (cents == NOT_EXACT) {
+                        return null;
+                    }
+                    grossCents = Math.addExact(grossCents, cents);
+                    finalPayItems.add(varItem);
+                }
+            }
+
+            // Deductions, in exact 1e-8 units; each item is rounded on its own, the total only at the end
+            long totalDeductions = 0;
+            for (PayRulePlan.CompiledRule rule : plan.getDeductions()) {
+                long deduction = rule.getKind() == PayRulePlan.RuleKind.PERCENT_OF_GROSS_DEDUCTION
+                        ? Math.multiplyExact(grossCents, rule.getFixedPoint())
+                        : rule.getFixedPoint();
+                totalDeductions = Math.addExact(totalDeductions, deduction);
+                PayItem deductionItem = new PayItem();
+                deductionItem.setName(rule.getName());
+                deductionItem.setType(PayItemType.DEDUCTION);
+                deductionItem.setAmount(BigDecimal.valueOf(roundHalfUp(deduction, SUB_CENTS_PER_CENT), 2));
+                finalPayItems.add(deductionItem);
+            }
+            long netPay = Math.subtractExact(Math.multiplyExact(grossCents, SUB_CENTS_PER_CENT), totalDeductions);
+
+            Payslip payslip = new Payslip();
+            payslip.setUserId(employee.getId());
+            payslip.setPayPeriodStartDate(startDate);
+            payslip.setPayPeriodEndDate(endDate);
+            payslip.setGrossEarnings(BigDecimal.valueOf(grossCents, 2));
+            payslip.setTotalDeductions(BigDecimal.valueOf(roundHalfUp(totalDeductions, SUB_CENTS_PER_CENT), 2));
+            payslip.setNetPay(BigDecimal.valueOf(roundHalfUp(netPay, SUB_CENTS_PER_CENT), 2));
+            payslip.setPayItems(finalPayItems);
+            return payslip;
+        } catch (ArithmeticException overflow) {
+            return null;
+        }
+    }
+
+    /**
+     * Divides by divisor, rounding halves away from zero like RoundingMode.HALF_UP.
+     */
+    static long roundHalfUp(long value, long divisor) {
+        long quotient = value / divisor;   // truncates toward zero
+        long remainder = value % divisor;  // same sign as value
+        if (Math.abs(remainder) * 2 >= divisor) {
+            quotient += Long.signum(value);
+        }
+        return quotient;
+    }
+
+    static long toCents(BigDecimal amount) {
+        return scaled(amount, 2);
+    }
+
+    static long toRateMicros(BigDecimal rate) {
+        return scaled(rate, 6);
+    }
+
+    static long toSubCents(BigDecimal amount) {
+        return scaled(amount, 8);
+    }
+
+    /**
+     * Total of the fixed earnings in cents, or NOT_EXACT if any rule in the plan has no exact fixed-point form.
+     */
+    static long sumCents(List<PayRulePlan.CompiledRule> earnings, List<PayRulePlan.CompiledRule> deductions) {
+        long total = 0;
+        try {
+            for (PayRulePlan.CompiledRule rule : earnings) {
+                if (rule.getFixedPoint() == NOT_EXACT) return NOT_EXACT;
+                total = Math.addExact(total, rule.getFixedPoint());
+            }
+        } catch (ArithmeticException overflow) {
+            return NOT_EXACT;
+        }
+        for (PayRulePlan.CompiledRule rule : deductions) {
+            if (rule.getFixedPoint() == NOT_EXACT) return NOT_EXACT;
+        }
+        return total;
+    }
+
+    private static long scaled(BigDecimal value, int scale) {
+        if (value == null) {
+            return NOT_EXACT;
+        }
+        try {
+            long unscaled = value.setScale(scale).unscaledValue().longValueExact(); // throws if rounding would be needed
+            return unscaled == NOT_EXACT ? NOT_EXACT : unscaled;
+        } catch (ArithmeticException e) {
+            return NOT_EXACT;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.LoginThrottledException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control for logins and password checks, applied before any database query or hashing, so a
+ * rejected attempt costs a map lookup and nothing else.
+ *
+ * Three limits, checked in this order:
+ * - a token bucket per client host (payroll.loginHostBurst attempts, refilled at payroll.loginHostPerMinute),
+ * - a token bucket per account (payroll.loginAccountBurst, refilled at payroll.loginAccountPerMinute),
+ * - at most payroll.maxConcurrentLogins attempts in progress at once on this server.
+ *
+ * Each bucket map keeps the MAX_BUCKETS most recently used hosts/accounts; the least recently used one is
+ * dropped when a new one arrives, so a flood of new names costs the same per attempt as a single one.
+ */
+public class LoginLimiter {
+
+    private static final int HOST_BURST = Integer.getInteger("payroll.loginHostBurst", 20);
+    private static final int HOST_PER_MINUTE = Integer.getInteger("payroll.loginHostPerMinute", 30);
+    private static final int ACCOUNT_BURST = Integer.getInteger("payroll.loginAccountBurst", 5);
+    private static final int ACCOUNT_PER_MINUTE = Integer.getInteger("payroll.loginAccountPerMinute", 5);
+    private static final int MAX_CONCURRENT = Math.max(1, Integer.getInteger("payroll.maxConcurrentLogins", 8));
+    private static final int MAX_BUCKETS = 10_000;
+
+    private final Map<String, TokenBucket> hostBuckets = new BucketMap();
+    private final Map<String, TokenBucket> accountBuckets = new BucketMap();
+    private final Semaphore inProgress = new Semaphore(MAX_CONCURRENT);
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejectedHost = new LongAdder();
+    private final LongAdder rejectedAccount = new LongAdder();
+    private final LongAdder rejectedBusy = new LongAdder();
+
+    /**
+     * Held for the duration of one admitted attempt; release it in a finally block.
+     */
+    public final class Permit {
+        private boolean released;
+
+        public void release() {
+            if (!released) {
+                released = true;
+                inProgress.release();
+            }
+        }
+    }
+
+    /**
+     * @param account Whatever identifies the account being tried, e.g. the lower-cased username.
+     * @throws LoginThrottledException if any of the limits is reached; nothing else has been done at that point.
+     */
+    public Permit admit(String account, String host) throws LoginThrottledException {
+        if (!bucket(hostBuckets, host, HOST_BURST, HOST_PER_MINUTE).tryTake()) {
+            rejectedHost.increment();
+            throw new LoginThrottledException("Too many login attempts from your computer. Please wait a minute and try again.");
+        }
+        if (!bucket(accountBuckets, account, ACCOUNT_BURST, ACCOUNT_PER_MINUTE).tryTake()) {
+            rejectedAccount.increment();
+            throw new LoginThrottledException("Too many login attempts for this account. Please wait a minute and try again.");
+        }
+        if (!inProgress.tryAcquire()) {
+            rejectedBusy.increment();
+            throw new LoginThrottledException("The server is busy signing other users in. Please try again in a moment.");
+        }
+        admitted.increment();
+        return new Permit();
+    }
+
+    /**
+     * Counters since the server started, for the metrics view.
+     */
+    public Map<String, Long> metrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("login.admitted", admitted.sum());
+        metrics.put("login.rejected.host", rejectedHost.sum());
+        metrics.put("login.rejected.account", rejectedAccount.sum());
+        metrics.put("login.rejected.busy", rejectedBusy.sum());
+        metrics.put("login.inProgress", (long) (MAX_CONCURRENT - inProgress.availablePermits()));
+        metrics.put("login.trackedHosts", (long) size(hostBuckets));
+        metrics.put("login.trackedAccounts", (long) size(accountBuckets));
+        return metrics;
+    }
+
+    private static TokenBucket bucket(Map<String, TokenBucket> buckets, String key, int burst, int perMinute) {
+        synchronized (buckets) {
+            return buckets.computeIfAbsent(key == null ? "" : key, k -> new TokenBucket(burst, perMinute));
+        }
+    }
+
+    private static int size(Map<String, TokenBucket> buckets) {
+        synchronized (buckets) {
+            return buckets.size();
+        }
+    }
+
+    /**
+     * Ordered by last access, evicting the least recently used bucket once there are more than MAX_BUCKETS.
+     * Not thread-safe on its own: every access goes through bucket() or size().
+     */
+    private static final class BucketMap extends LinkedHashMap<String, TokenBucket> {
+        private static final long serialVersionUID = 1L;
+
+        BucketMap() {
+            super(256, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+            return size() > MAX_BUCKETS;
+        }
+    }
+
+    static final class TokenBucket {
+        private final double capacity;
+        private final double tokensPerNano;
+        private double tokens;
+        private long lastRefillNanos;
+
+        TokenBucket(int capacity, int perMinute) {
+            this.capacity = Math.max(1, capacity);
+            this.tokensPerNano = Math.max(1, perMinute) / 60_000_000_000.0;
+            this.tokens = this.capacity;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        synchronized boolean tryTake() {
+            refill(System.nanoTime());
+            if (tokens < 1) {
+                return false;
+            }
+            tokens -= 1;
+            return true;
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+            lastRefillNanos = now;
+        }
+    }
+}
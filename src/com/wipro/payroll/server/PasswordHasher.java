@@ -0,0 +1,120 @@
+package com.wipro.payroll.server;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.security.MessageDigest;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Password hashing with bcrypt. Every bcrypt hash or check runs on a small dedicated pool with a bounded queue,
+ * so a burst of logins waits its turn (or is turned away with "busy") instead of tying up every RMI thread
+ * and starving payroll calls.
+ *
+ * Older accounts still have the unsalted SHA-256 hex hashes of the first version. They are still accepted,
+ * and {@link #needsRehash(String)} tells login to replace them with bcrypt once the password is known.
+ *
+ * Tuning: payroll.hashThreads (default half the cores), payroll.hashQueue (64 waiting requests),
+ * payroll.hashTimeoutMs (5000, queue wait included) and payroll.bcryptCost (10).
+ */
+public class PasswordHasher {
+
+    private static final int COST = Integer.getInteger("payroll.bcryptCost", 10);
+    private static final long TIMEOUT_MS = Long.getLong("payroll.hashTimeoutMs", 5000);
+
+    private final ThreadPoolExecutor pool;
+
+    public PasswordHasher() {
+        int threads = Math.max(1, Integer.getInteger("payroll.hashThreads", Runtime.getRuntime().availableProcessors() / 2));
+        int queue = Math.max(1, Integer.getInteger("payroll.hashQueue", 64));
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queue), runnable -> {
+            Thread t = new Thread(runnable, "password-hasher-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        System.out.printf("✅ Password hasher ready: bcrypt cost %d on %d thread(s), %d queued at most.\n", COST, threads, queue);
+    }
+
+    public String hash(String password) throws RemoteException {
+        return onPool(() -> BCrypt.hashpw(password, BCrypt.gensalt(COST)));
+    }
+
+    /**
+     * Checks a password against a stored bcrypt or legacy SHA-256 hash.
+     */
+    public boolean verify(String password, String storedHash) throws RemoteException {
+        if (storedHash == null || password == null) {
+            return false;
+        }
+        if (!isBcrypt(storedHash)) {
+            // Legacy hashes are a single SHA-256, cheap enough to check on the caller's thread
+            return MessageDigest.isEqual(legacySha256(password).getBytes(StandardCharsets.US_ASCII),
+                    storedHash.getBytes(StandardCharsets.US_ASCII));
+        }
+        return onPool(() -> BCrypt.checkpw(password, storedHash));
+    }
+
+    /**
+     * @return true for legacy SHA-256 hashes and bcrypt hashes made with another cost than the current one.
+     */
+    public boolean needsRehash(String storedHash) {
+        if (!isBcrypt(storedHash)) {
+            return true;
+        }
+        // $2a$10$... : the two digits after the version are the cost
+        try {
+            return Integer.parseInt(storedHash.substring(4, 6)) != COST;
+        } catch (RuntimeException e) {
+            return true;
+        }
+    }
+
+    private static boolean isBcrypt(String storedHash) {
+        return storedHash.startsWith("$2");
+    }
+
+    private <T> T onPool(Callable<T> task) throws RemoteException {
+        Future<T> future;
+        try {
+            future = pool.submit(task);
+        } catch (RejectedExecutionException e) {
+            System.err.println("⚠️  Password hashing queue is full; turning a login away.");
+            throw new RemoteException("The server is busy signing other users in. Please try again in a moment.");
+        }
+        try {
+            return future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true); // still queued: it never runs
+            System.err.printf("⚠️  Password hashing took longer than %d ms; giving up on it.\n", TIMEOUT_MS);
+            throw new RemoteException("The server is busy signing other users in. Please try again in a moment.");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while checking the password.", e);
+        } catch (ExecutionException e) {
+            throw new RemoteException("Server security error.", e.getCause());
+        }
+    }
+
+    /**
+     * The unsalted SHA-256 hex hash the first version stored (and DataSeeder still writes for the demo accounts).
+     */
+    static String legacySha256(String password) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hash = md.digest(password.getBytes());
+            BigInteger number = new BigInteger(1, hash);
+            StringBuilder hexString = new StringBuilder(number.toString(16));
+            while (hexString.length() < 64) {
+                hexString.insert(0, '0');
+            }
+            return hexString.toString();
+        } catch (Exception e) {
+            throw new RuntimeException("Error hashing password", e);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayItemType;
+import com.wipro.payroll.common.PayTemplate;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * All pay_templates rows, loaded with a single query.
+ * Rules are resolved and compiled once per (jobTitleId, empTypeId) pair, so employees sharing a job title cost nothing extra.
+ * The engine keeps one index across runs and drops it whenever a template changes.
+ */
+public class PayRuleIndex {
+
+    private final List<Row> rows = new ArrayList<>();
+    private final List<PayTemplate> globalRules = new ArrayList<>();
+    private final Map<Integer, List<PayTemplate>> rulesByEmpType = new HashMap<>();
+    private final Map<Integer, List<PayTemplate>> rulesByJobTitle = new HashMap<>();
+
+    // Resolved rule sets, keyed by (jobTitleId, empTypeId). Workers share this, so it must be concurrent.
+    private final Map<Long, Map<String, PayTemplate>> resolvedRules = new ConcurrentHashMap<>();
+    private final Map<Long, PayRulePlan> plans = new ConcurrentHashMap<>();
+
+    private PayRuleIndex() {}
+
+    public static PayRuleIndex load() throws SQLException {
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            return load(conn);
+        }
+    }
+
+    public static PayRuleIndex load(Connection conn) throws SQLException {
+        PayRuleIndex index = new PayRuleIndex();
+        String sql = "SELECT id, job_title_id, emp_type_id, description, type, amount FROM public.pay_templates ORDER BY id";
+        try (PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                PayTemplate item = new PayTemplate();
+                item.setId(rs.getInt("id"));
+                item.setJobTitleId(rs.getInt("job_title_id"));
+                boolean hasJobTitle = !rs.wasNull();
+                item.setEmpTypeId(rs.getInt("emp_type_id"));
+                boolean hasEmpType = !rs.wasNull();
+                item.setDescription(rs.getString("description"));
+                item.setType(PayItemType.valueOf(rs.getString("type")));
+                item.setAmount(rs.getBigDecimal("amount"));
+
+                index.add(item, hasJobTitle, hasEmpType);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Copies this index with some template amounts replaced, keyed by pay_templates id. Used by payroll previews;
+     * the original index (and the shared cache) is left untouched.
+     */
+    public PayRuleIndex withOverrides(Map<Integer, BigDecimal> amountOverrides) {
+        PayRuleIndex copy = new PayRuleIndex();
+        for (Row row : rows) {
+            PayTemplate item = row.template;
+            BigDecimal amount = amountOverrides.get(item.getId());
+            if (amount != null) {
+                PayTemplate overridden = new PayTemplate();
+                overridden.setId(item.getId());
+                overridden.setJobTitleId(item.getJobTitleId());
+                overridden.setEmpTypeId(item.getEmpTypeId());
+                overridden.setDescription(item.getDescription());
+                overridden.setType(item.getType());
+                overridden.setAmount(amount);
+                item = overridden;
+            }
+            copy.add(item, row.hasJobTitle, row.hasEmpType);
+        }
+        return copy;
+    }
+
+    private void add(PayTemplate item, boolean hasJobTitle, boolean hasEmpType) {
+        rows.add(new Row(item, hasJobTitle, hasEmpType));
+        if (hasJobTitle) {
+            rulesByJobTitle.computeIfAbsent(item.getJobTitleId(), k -> new ArrayList<>()).add(item);
+        } else if (hasEmpType) {
+            rulesByEmpType.computeIfAbsent(item.getEmpTypeId(), k -> new ArrayList<>()).add(item);
+        } else {
+            globalRules.add(item);
+        }
+    }
+
+    /**
+     * Returns the rules for an employee, keyed by description.
+     * Same rows as the old per-employee query; when descriptions clash, job title beats employment type beats global.
+     */
+    public Map<String, PayTemplate> rulesFor(int jobTitleId, int empTypeId) {
+        return resolvedRules.computeIfAbsent(key(jobTitleId, empTypeId), k -> resolve(jobTitleId, empTypeId));
+    }
+
+    /**
+     * Returns the compiled evaluation plan for an employee. This is what the payroll hot path uses.
+     */
+    public PayRulePlan planFor(int jobTitleId, int empTypeId) {
+        return plans.computeIfAbsent(key(jobTitleId, empTypeId), k -> PayRulePlan.compile(rulesFor(jobTitleId, empTypeId)));
+    }
+
+    private static long key(int jobTitleId, int empTypeId) {
+        return ((long) jobTitleId << 32) | (empTypeId & 0xFFFFFFFFL);
+    }
+
+    private Map<String, PayTemplate> resolve(int jobTitleId, int empTypeId) {
+        Map<String, PayTemplate> rules = new LinkedHashMap<>();
+        for (PayTemplate rule : globalRules) {
+            rules.put(rule.getDescription(), rule);
+        }
+        for (PayTemplate rule : rulesByEmpType.getOrDefault(empTypeId, Collections.emptyList())) {
+            rules.put(rule.getDescription(), rule);
+        }
+        for (PayTemplate rule : rulesByJobTitle.getOrDefault(jobTitleId, Collections.emptyList())) {
+            rules.put(rule.getDescription(), rule);
+        }
+        return Collections.unmodifiableMap(rules);
+    }
+
+    // A loaded row plus which of its scope columns were NULL
+    private static class Row {
+        final PayTemplate template;
+        final boolean hasJobTitle;
+        final boolean hasEmpType;
+
+        Row(PayTemplate template, boolean hasJobTitle, boolean hasEmpType) {
+            this.template = template;
+            this.hasJobTitle = hasJobTitle;
+            this.hasEmpType = hasEmpType;
+        }
+    }
+}
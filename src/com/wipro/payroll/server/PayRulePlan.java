@@ -0,0 +1,141 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayItemType;
+import com.wipro.payroll.common.PayTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The pay rules for one (jobTitleId, empTypeId) pair, compiled once into explicit rule kinds.
+ * The description checks ("Leave Entitlement", "EPF", "EIS") happen here, at compile time,
+ * so calculating a payslip is only additions and multiplications.
+ *
+ * Plans are immutable and shared by every worker thread.
+ */
+public final class PayRulePlan {
+
+    public enum RuleKind {
+        FIXED_EARNING,
+        FIXED_DEDUCTION,
+        PERCENT_OF_GROSS_DEDUCTION, // amount is a rate, e.g. 0.11 for EPF
+        EXCLUDED                    // informational rows such as leave entitlements, never paid out
+    }
+
+    public static final class CompiledRule {
+        private final String name;
+        private final RuleKind kind;
+        private final BigDecimal amount;
+        // Fixed-point copy of amount for FixedPointPayCalculator: cents for earnings, millionths for rates,
+        // 1e-8 units for fixed deductions. NOT_EXACT when the amount has more decimals than that.
+        private final long fixedPoint;
+
+        CompiledRule(String name, RuleKind kind, BigDecimal amount) {
+            this.name = name;
+            this.kind = kind;
+            this.amount = amount;
+            switch (kind) {
+                case FIXED_EARNING:
+                    this.fixedPoint = FixedPointPayCalculator.toCents(amount);
+                    break;
+                case PERCENT_OF_GROSS_DEDUCTION:
+                    this.fixedPoint = FixedPointPayCalculator.toRateMicros(amount);
+                    break;
+                case FIXED_DEDUCTION:
+                    this.fixedPoint = FixedPointPayCalculator.toSubCents(amount);
+                    break;
+                default:
+                    this.fixedPoint = 0;
+            }
+        }
+
+        public String getName() { return name; }
+        public RuleKind getKind() { return kind; }
+        public BigDecimal getAmount() { return amount; }
+        long getFixedPoint() { return fixedPoint; }
+
+        void appendTo(StringBuilder sb) {
+            sb.append(kind).append(':').append(name).append('=').append(amount.stripTrailingZeros().toPlainString()).append(';');
+        }
+    }
+
+    // Both lists keep the template order, so payslips list their items exactly as before
+    private final List<CompiledRule> earnings;
+    private final List<CompiledRule> deductions;
+    private final BigDecimal fixedEarningsTotal;
+    private final String fingerprint;
+    private final long fixedEarningsCents; // NOT_EXACT when the plan can't be evaluated in fixed point
+
+    private PayRulePlan(List<CompiledRule> earnings, List<CompiledRule> deductions) {
+        this.earnings = Collections.unmodifiableList(earnings);
+        this.deductions = Collections.unmodifiableList(deductions);
+        BigDecimal total = BigDecimal.ZERO;
+        for (CompiledRule rule : earnings) {
+            total = total.add(rule.amount);
+        }
+        this.fixedEarningsTotal = total;
+        this.fixedEarningsCents = FixedPointPayCalculator.sumCents(earnings, deductions);
+
+        StringBuilder fp = new StringBuilder();
+        for (CompiledRule rule : earnings) {
+            rule.appendTo(fp);
+        }
+        for (CompiledRule rule : deductions) {
+            rule.appendTo(fp);
+        }
+        this.fingerprint = fp.toString();
+    }
+
+    /**
+     * Compiles resolved rules (keyed by description, in template order) into a plan.
+     */
+    public static PayRulePlan compile(Map<String, PayTemplate> rules) {
+        List<CompiledRule> earnings = new ArrayList<>();
+        List<CompiledRule> deductions = new ArrayList<>();
+        for (PayTemplate rule : rules.values()) {
+            RuleKind kind = classify(rule);
+            CompiledRule compiled = new CompiledRule(rule.getDescription(), kind, rule.getAmount());
+            switch (kind) {
+                case FIXED_EARNING:
+                    earnings.add(compiled);
+                    break;
+                case FIXED_DEDUCTION:
+                case PERCENT_OF_GROSS_DEDUCTION:
+                    deductions.add(compiled);
+                    break;
+                case EXCLUDED:
+                    break;
+            }
+        }
+        return new PayRulePlan(earnings, deductions);
+    }
+
+    /**
+     * The one place that decides what a template row means.
+     */
+    static RuleKind classify(PayTemplate rule) {
+        String description = rule.getDescription();
+        if (rule.getType() == PayItemType.EARNING) {
+            return description.contains("Leave Entitlement") ? RuleKind.EXCLUDED : RuleKind.FIXED_EARNING;
+        }
+        if (description.contains("EPF") || description.contains("EIS")) {
+            return RuleKind.PERCENT_OF_GROSS_DEDUCTION;
+        }
+        return RuleKind.FIXED_DEDUCTION;
+    }
+
+    public List<CompiledRule> getEarnings() { return earnings; }
+    public List<CompiledRule> getDeductions() { return deductions; }
+
+    /** Sum of all fixed earnings, before bonuses. */
+    public BigDecimal getFixedEarningsTotal() { return fixedEarningsTotal; }
+
+    /** Fixed earnings in cents, or FixedPointPayCalculator.NOT_EXACT if some rule needs the BigDecimal path. */
+    long getFixedEarningsCents() { return fixedEarningsCents; }
+
+    /** Every rule that affects pay, as text. Equal plans give equal fingerprints; used to detect changed inputs. */
+    public String getFingerprint() { return fingerprint; }
+}
@@ -0,0 +1,89 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayrollDraft;
+import com.wipro.payroll.common.User;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Draft payroll runs: calculate the month exactly like a real run, stage the payslips for review,
+ * then promote the whole draft in one transaction or discard it.
+ *
+ * Unlike a preview, a draft is on the server side in the database, so it survives the client disconnecting,
+ * can be reviewed by someone else, and promoting it does not recalculate anything: what was reviewed is what is paid.
+ */
+public class PayrollDraftManager {
+
+    private final PayrollEngine engine;
+    private final PayrollDraftStore draftStore = new PayrollDraftStore();
+
+    public PayrollDraftManager(PayrollEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Calculates the period into a new draft and returns it with its totals. Employees who are already paid
+     * are left out, like in a real run.
+     */
+    public PayrollDraft create(int year, int month, int targetUserId, int createdBy) throws SQLException {
+        LocalDate payPeriodStart = LocalDate.of(year, month, 1);
+        int draftId = draftStore.create(payPeriodStart, targetUserId, createdBy);
+
+        PayrollEngine.RunResult result = new PayrollEngine.RunResult();
+        try {
+            List<User> employees = PayrollEngine.loadEmployeesToPay(targetUserId);
+            result.setTotal(employees.size());
+            engine.runInto(employees, payPeriodStart, new PayslipDraftWriter(draftId), result);
+        } catch (SQLException | RuntimeException e) {
+            // Never leave a half-staged draft behind: it could not be promoted or discarded
+            try {
+                draftStore.abandon(draftId, "Calculation failed: " + e.getMessage());
+            } catch (SQLException cleanup) {
+                e.addSuppressed(cleanup);
+            }
+            throw e;
+        }
+
+        String summary = String.format("Draft %d for %d-%02d: %d payslip(s) staged, %d already paid, %d failed.",
+                draftId, year, month, result.getProcessed(), result.getSkipped(), result.getFailed());
+        draftStore.recordCalculation(draftId, result.getFailed(), summary);
+        System.out.println(summary);
+        return draftStore.load(draftId);
+    }
+
+    public PayrollDraft get(int draftId) throws SQLException {
+        return draftStore.load(draftId);
+    }
+
+    public List<PayrollDraft> listOpen() throws SQLException {
+        return draftStore.findOpen();
+    }
+
+    /**
+     * @return A summary of the promotion, or null if the draft is not open (already promoted or discarded).
+     */
+    public String promote(int draftId) throws SQLException {
+        PayrollDraft draft = draftStore.load(draftId);
+        if (draft == null || !PayrollDraftStore.DRAFT.equals(draft.getStatus())) {
+            return null;
+        }
+        int promoted = draftStore.promote(draftId);
+        if (promoted < 0) {
+            return null; // promoted or discarded by someone else in the meantime
+        }
+        String summary = String.format("Draft %d for %d-%02d promoted: %d payslip(s) created, %d skipped (paid since the draft was made).",
+                draftId, draft.getYear(), draft.getMonth(), promoted, draft.getEmployeeCount() - promoted);
+        System.out.println("✅ " + summary);
+        return summary;
+    }
+
+    public boolean discard(int draftId) throws SQLException {
+        boolean discarded = draftStore.discard(draftId);
+        if (discarded) {
+            System.out.printf("Draft %d discarded.\n", draftId);
+        }
+        return discarded;
+    }
+}
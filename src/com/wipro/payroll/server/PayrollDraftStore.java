@@ -0,0 +1,285 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayrollDraft;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Database access for payroll drafts. Each draft is a row in payroll_draft plus its own pair of UNLOGGED
+ * staging tables mirroring payslip and pay_items, so drafts skip the WAL and one draft can be thrown away
+ * with a TRUNCATE without touching any other.
+ *
+ * A draft is CALCULATING until its calculation has finished and DRAFT after that; only a DRAFT is listed,
+ * promoted or discarded, so nobody reviews or pays a month that is still half staged.
+ *
+ * UNLOGGED tables are emptied if PostgreSQL crashes. A draft caught by that simply shows 0 employees;
+ * discard it and create it again.
+ */
+public class PayrollDraftStore {
+
+    public static final String CALCULATING = "CALCULATING";
+    public static final String DRAFT = "DRAFT";
+    public static final String PROMOTED = "PROMOTED";
+    public static final String DISCARDED = "DISCARDED";
+
+    // Table names are built from the integer draft id only, never from user input
+    static String payslipTable(int draftId) {
+        return "public.payslip_draft_" + draftId;
+    }
+
+    static String itemsTable(int draftId) {
+        return "public.pay_items_draft_" + draftId;
+    }
+
+    /**
+     * Registers the draft as CALCULATING and creates its empty staging tables, in one transaction.
+     */
+    public int create(LocalDate payPeriodStart, int targetUserId, int createdBy) throws SQLException {
+        String sql = "INSERT INTO public.payroll_draft (pay_period_start_date, target_user_id, status, created_by) " +
+                "VALUES (?, ?, ?, ?) RETURNING id";
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int draftId;
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setDate(1, java.sql.Date.valueOf(payPeriodStart));
+                    ps.setInt(2, targetUserId);
+                    ps.setString(3, CALCULATING);
+                    ps.setInt(4, createdBy);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        rs.next();
+                        draftId = rs.getInt("id");
+                    }
+                }
+                try (Statement st = conn.createStatement()) {
+                    st.executeUpdate("CREATE UNLOGGED TABLE " + payslipTable(draftId) + " (" +
+                            "user_id INT PRIMARY KEY, " +
+                            "pay_period_start_date DATE NOT NULL, " +
+                            "pay_period_end_date DATE NOT NULL, " +
+                            "gross_earnings NUMERIC NOT NULL, " +
+                            "total_deductions NUMERIC NOT NULL, " +
+                            "net_pay NUMERIC NOT NULL, " +
+                            "input_fingerprint VARCHAR(64))");
+                    st.executeUpdate("CREATE UNLOGGED TABLE " + itemsTable(draftId) + " (" +
+                            "user_id INT NOT NULL, " +
+                            "item_no INT NOT NULL, " +
+                            "name VARCHAR(255) NOT NULL, " +
+                            "type pay_item_type_enum NOT NULL, " +
+                            "amount NUMERIC NOT NULL, " +
+                            "PRIMARY KEY (user_id, item_no))");
+                }
+                conn.commit();
+                return draftId;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Marks the calculation finished, which opens the draft for review, promotion and discard.
+     */
+    public void recordCalculation(int draftId, int failed, String summary) throws SQLException {
+        String sql = "UPDATE public.payroll_draft SET status = ?, failed = ?, summary = ? WHERE id = ? AND status = ?";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, DRAFT);
+            ps.setInt(2, failed);
+            ps.setString(3, summary);
+            ps.setInt(4, draftId);
+            ps.setString(5, CALCULATING);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Drops a draft whose calculation failed part way, so its staging tables don't linger.
+     */
+    public void abandon(int draftId, String summary) throws SQLException {
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement ps = conn.prepareStatement(
+                        "UPDATE public.payroll_draft SET summary = ? WHERE id = ? AND status = ?")) {
+                    ps.setString(1, summary);
+                    ps.setInt(2, draftId);
+                    ps.setString(3, CALCULATING);
+                    if (ps.executeUpdate() == 0) {
+                        conn.rollback();
+                        return;
+                    }
+                }
+                finishDraft(conn, draftId, DISCARDED);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return The draft with its totals summed from the staging table (finished, open drafts only), or null if unknown.
+     */
+    public PayrollDraft load(int draftId) throws SQLException {
+        String sql = "SELECT id, pay_period_start_date, target_user_id, status, failed, created_at, summary " +
+                "FROM public.payroll_draft WHERE id = ?";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, draftId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                PayrollDraft draft = toDraft(rs);
+                if (DRAFT.equals(draft.getStatus())) {
+                    addTotals(conn, draft);
+                }
+                return draft;
+            }
+        }
+    }
+
+    public List<PayrollDraft> findOpen() throws SQLException {
+        String sql = "SELECT id, pay_period_start_date, target_user_id, status, failed, created_at, summary " +
+                "FROM public.payroll_draft WHERE status = 'DRAFT' ORDER BY id";
+        List<PayrollDraft> drafts = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    drafts.add(toDraft(rs));
+                }
+            }
+            for (PayrollDraft draft : drafts) {
+                addTotals(conn, draft);
+            }
+        }
+        return drafts;
+    }
+
+    /**
+     * Copies the whole draft into payslip and pay_items with one INSERT ... SELECT, in one transaction,
+     * then drops the staging tables. Employees paid since the draft was made are skipped (ON CONFLICT),
+     * and the usual per-employee advisory locks keep a concurrent run from racing the promotion.
+     * @return How many payslips were created, or -1 if the draft is not open.
+     */
+    public int promote(int draftId) throws SQLException {
+        String payslips = payslipTable(draftId);
+        String items = itemsTable(draftId);
+        String promoteSql = "WITH promoted AS (" +
+                "INSERT INTO public.payslip (user_id, pay_period_start_date, pay_period_end_date, gross_earnings, total_deductions, net_pay, input_fingerprint) " +
+                "SELECT user_id, pay_period_start_date, pay_period_end_date, gross_earnings, total_deductions, net_pay, input_fingerprint " +
+                "FROM " + payslips + " ORDER BY user_id " +
+                "ON CONFLICT (user_id, pay_period_start_date) DO NOTHING RETURNING id, user_id), " +
+                "promoted_items AS (" +
+                "INSERT INTO public.pay_items (payslip_id, name, type, amount) " +
+                "SELECT p.id, i.name, i.type, i.amount FROM promoted p JOIN " + items + " i ON i.user_id = p.user_id " +
+                "ORDER BY i.user_id, i.item_no) " +
+                "SELECT COUNT(*) FROM promoted";
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false); // START TRANSACTION
+            try {
+                LocalDate payPeriodStart = lockOpenDraft(conn, draftId);
+                if (payPeriodStart == null) {
+                    conn.rollback();
+                    return -1;
+                }
+                PayrollLocks.lockEmployeesIn(conn, payPeriodStart, payslips);
+
+                int promoted;
+                try (Statement st = conn.createStatement();
+                     ResultSet rs = st.executeQuery(promoteSql)) {
+                    rs.next();
+                    promoted = rs.getInt(1);
+                }
+                finishDraft(conn, draftId, PROMOTED);
+                conn.commit(); // COMMIT TRANSACTION
+                return promoted;
+            } catch (SQLException e) {
+                conn.rollback(); // ROLLBACK TRANSACTION ON ERROR
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Throws the staged payslips away with a TRUNCATE (no row-by-row delete, no WAL for the rows)
+     * and drops the staging tables.
+     * @return false if the draft is not open.
+     */
+    public boolean discard(int draftId) throws SQLException {
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                if (lockOpenDraft(conn, draftId) == null) {
+                    conn.rollback();
+                    return false;
+                }
+                try (Statement st = conn.createStatement()) {
+                    st.executeUpdate("TRUNCATE " + payslipTable(draftId) + ", " + itemsTable(draftId));
+                }
+                finishDraft(conn, draftId, DISCARDED);
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Row-locks an open draft so promote and discard can't run on it at the same time
+    private LocalDate lockOpenDraft(Connection conn, int draftId) throws SQLException {
+        String sql = "SELECT pay_period_start_date FROM public.payroll_draft WHERE id = ? AND status = 'DRAFT' FOR UPDATE";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, draftId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getDate(1).toLocalDate() : null;
+            }
+        }
+    }
+
+    private void finishDraft(Connection conn, int draftId, String status) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(
+                "UPDATE public.payroll_draft SET status = ?, finished_at = now() WHERE id = ?")) {
+            ps.setString(1, status);
+            ps.setInt(2, draftId);
+            ps.executeUpdate();
+        }
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("DROP TABLE IF EXISTS " + itemsTable(draftId) + ", " + payslipTable(draftId));
+        }
+    }
+
+    private void addTotals(Connection conn, PayrollDraft draft) throws SQLException {
+        String sql = "SELECT COUNT(*), COALESCE(SUM(gross_earnings), 0), COALESCE(SUM(total_deductions), 0), " +
+                "COALESCE(SUM(net_pay), 0) FROM " + payslipTable(draft.getDraftId());
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            rs.next();
+            draft.setEmployeeCount(rs.getInt(1));
+            draft.setTotalGross(rs.getBigDecimal(2));
+            draft.setTotalDeductions(rs.getBigDecimal(3));
+            draft.setTotalNet(rs.getBigDecimal(4));
+        }
+    }
+
+    private PayrollDraft toDraft(ResultSet rs) throws SQLException {
+        PayrollDraft draft = new PayrollDraft();
+        LocalDate period = rs.getDate("pay_period_start_date").toLocalDate();
+        draft.setDraftId(rs.getInt("id"));
+        draft.setYear(period.getYear());
+        draft.setMonth(period.getMonthValue());
+        draft.setTargetUserId(rs.getInt("target_user_id"));
+        draft.setStatus(rs.getString("status"));
+        draft.setFailedCount(rs.getInt("failed"));
+        draft.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        draft.setSummary(rs.getString("summary"));
+        return draft;
+    }
+}
@@ -0,0 +1,742 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs the monthly payroll for a list of employees on a bounded pool of worker threads.
+ * Employees are calculated and committed in chunks; if a chunk fails, its employees are
+ * retried one transaction each, so one bad row never rolls back the others.
+ */
+public class PayrollEngine {
+
+    // Batch-pool connections we never hand to payroll workers, so reports, drafts and run bookkeeping keep working during a run.
+    // Logins and self-service calls have their own pool (see DatabaseManager).
+    private static final int RESERVED_BATCH_CONNECTIONS = Integer.getInteger("payroll.reservedConnections", 3);
+
+    private static final int BONUS_FETCH_SIZE = 1000;
+
+    // How many employees are calculated and committed together
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    // Runs the chunk writes of incremental re-runs and the departments of department runs; normal runs use their own pipeline threads
+    private final ExecutorService workers;
+    private final int workerCount;
+    // Engine-wide budget of concurrent payslip writes (one connection each), shared by every run.
+    // It shrinks while the database slows down or batch callers queue for a connection, and grows back when it is quiet.
+    private final AdaptiveWriteLimiter writeLimiter;
+    private final int readerThreads = Math.max(1, Integer.getInteger("payroll.readerThreads", 1));
+    private final int calculatorThreads = Math.max(1, Integer.getInteger("payroll.calculatorThreads",
+            Runtime.getRuntime().availableProcessors()));
+    private final int batchSize = Math.max(1, Math.min(PayslipBatchWriter.MAX_ROWS_PER_INSERT,
+            Integer.getInteger("payroll.batchSize", DEFAULT_BATCH_SIZE)));
+    // Background budget for scheduled runs: fewer threads, so a run that starts late still leaves room for people
+    private final int lowPriorityCalculators = Math.max(1, Integer.getInteger("payroll.lowPriorityCalculators",
+            Math.max(1, calculatorThreads / 2)));
+    private final int lowPriorityWriters;
+    private final PayslipBatchWriter batchWriter = new PayslipBatchWriter();
+    private final PayslipCopyWriter copyWriter = new PayslipCopyWriter(batchWriter);
+
+    // Compiled pay rules, kept across runs until a template changes
+    private volatile PayRuleIndex payRules;
+    private volatile long payRulesVersion;
+
+    /**
+     * Creates an engine using the "payroll.workers" system property, or the largest pool the database allows.
+     */
+    public PayrollEngine() {
+        this(Integer.getInteger("payroll.workers", 0));
+    }
+
+    /**
+     * @param requestedWorkers Number of worker threads. 0 or less means "as many as the connection pool allows".
+     */
+    public PayrollEngine(int requestedWorkers) {
+        int maxWorkers = maxWorkersForPool();
+        this.workerCount = requestedWorkers <= 0 ? maxWorkers : Math.min(requestedWorkers, maxWorkers);
+        this.writeLimiter = new AdaptiveWriteLimiter(workerCount);
+        this.lowPriorityWriters = Math.max(1, Math.min(workerCount, Integer.getInteger("payroll.lowPriorityWriters",
+                Math.max(1, workerCount / 3))));
+
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread t = new Thread(runnable, "payroll-worker-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        System.out.printf("✅ Payroll engine ready: %d reader(s), %d calculator(s), %d writer(s); scheduled runs get %d calculator(s), %d writer(s).\n",
+                readerThreads, calculatorThreads, workerCount, lowPriorityCalculators, lowPriorityWriters);
+    }
+
+    /**
+     * Each writer holds at most one connection at a time, so the writer count is capped
+     * at the batch pool size minus the connections reserved for reports and bookkeeping.
+     */
+    public static int maxWorkersForPool() {
+        return Math.max(1, DatabaseManager.getBatchPoolSize() - RESERVED_BATCH_CONNECTIONS);
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public AdaptiveWriteLimiter getWriteLimiter() {
+        return writeLimiter;
+    }
+
+    /**
+     * Processes every employee in the list and blocks until all of them are done.
+     * The run goes through a read, calculate and write pipeline (see {@link PayrollPipeline}). The write budget is
+     * shared between runs, so two runs at the same time still stay inside the same connection budget.
+     * Pay templates, approved bonuses and the ids of already-paid employees are loaded once
+     * for the whole run instead of once per employee.
+     */
+    public RunResult run(List<User> employeesToPay, LocalDate payPeriodStart) throws SQLException {
+        return run(employeesToPay, payPeriodStart, PayrollOutputMode.BATCHED_INSERT);
+    }
+
+    /**
+     * Same as {@link #run(List, LocalDate)}, but lets the caller pick how payslips are written.
+     */
+    public RunResult run(List<User> employeesToPay, LocalDate payPeriodStart, PayrollOutputMode outputMode) throws SQLException {
+        RunResult result = new RunResult();
+        result.setTotal(employeesToPay.size());
+        return run(employeesToPay, payPeriodStart, outputMode, result);
+    }
+
+    /**
+     * Runs into a caller-supplied result, so a background job can read the live counters,
+     * checkpoint each chunk through a listener, and request cancellation while the run is still going.
+     * The caller sets the result's total.
+     */
+    public RunResult run(List<User> employeesToPay, LocalDate payPeriodStart, PayrollOutputMode outputMode,
+                         RunResult result) throws SQLException {
+        return runInto(employeesToPay, payPeriodStart, sinkFor(outputMode), result);
+    }
+
+    /**
+     * Same as a normal run, but the payslips go to the given sink, e.g. a draft's staging tables.
+     */
+    public RunResult runInto(List<User> employeesToPay, LocalDate payPeriodStart, PayslipSink sink,
+                             RunResult result) throws SQLException {
+        PayrollPipeline.Period period = new PayrollPipeline.Period(payPeriodStart, employeesToPay, result, null);
+        runPipeline(Collections.singletonList(period), sink, result);
+        if (period.loadError != null) {
+            throw period.loadError;
+        }
+        return result;
+    }
+
+    /**
+     * Pays a range of months (first to last, inclusive) as one run, e.g. to backfill a migrated company.
+     * Employees and rules are loaded once. The read stage loads period N+1 while the later stages are still
+     * calculating and writing period N, so the database reads overlap with the writes.
+     *
+     * Each period gets its own result, which also feeds the overall result; periodListener is told as each one finishes.
+     */
+    public RunResult runRange(List<User> employees, LocalDate firstPeriod, LocalDate lastPeriod, PayrollOutputMode outputMode,
+                              RunResult overall, BiConsumer<LocalDate, RunResult> periodListener) throws SQLException {
+        List<PayrollPipeline.Period> periods = new ArrayList<>();
+        for (LocalDate period = firstPeriod; !period.isAfter(lastPeriod); period = period.plusMonths(1)) {
+            RunResult periodResult = RunResult.childOf(overall);
+            periodResult.setTotal(employees.size());
+            periods.add(new PayrollPipeline.Period(period, employees, periodResult,
+                    p -> periodListener.accept(p.payPeriodStart, p.result)));
+        }
+        runPipeline(periods, sinkFor(outputMode), overall);
+        for (PayrollPipeline.Period period : periods) {
+            if (period.loadError != null) {
+                throw period.loadError;
+            }
+        }
+        return overall;
+    }
+
+    private void runPipeline(List<PayrollPipeline.Period> periods, PayslipSink sink, RunResult result) throws SQLException {
+        PayrollPipeline pipeline = result.isLowPriority()
+                ? new PayrollPipeline(payRules(), sink, writeLimiter, batchSize,
+                        1, lowPriorityCalculators, lowPriorityWriters)
+                : new PayrollPipeline(payRules(), sink, writeLimiter, batchSize,
+                        readerThreads, calculatorThreads, workerCount);
+        result.pipeline = pipeline;
+        try {
+            pipeline.run(periods);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.cancel();
+        }
+        for (PipelineStageStats stage : pipeline.snapshot()) {
+            System.out.println("   " + stage);
+        }
+    }
+
+    /**
+     * Everything a run loads per pay period.
+     */
+    static class PeriodInputs {
+        final LocalDate payPeriodStart;
+        final LocalDate payPeriodEnd;
+        final Map<Integer, List<PayItem>> bonusesByUser;
+        final BitSet paidUserIds;
+
+        PeriodInputs(LocalDate payPeriodStart, Map<Integer, List<PayItem>> bonusesByUser, BitSet paidUserIds) {
+            this.payPeriodStart = payPeriodStart;
+            this.payPeriodEnd = payPeriodStart.withDayOfMonth(payPeriodStart.lengthOfMonth());
+            this.bonusesByUser = bonusesByUser;
+            this.paidUserIds = paidUserIds;
+        }
+    }
+
+    static PeriodInputs loadPeriodInputs(LocalDate payPeriodStart) throws SQLException {
+        return new PeriodInputs(payPeriodStart, loadApprovedBonuses(payPeriodStart), loadPaidUserIds(payPeriodStart));
+    }
+
+    private void awaitChunks(List<Future<?>> tasks) {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                tasks.forEach(f -> f.cancel(true));
+                break;
+            } catch (ExecutionException e) {
+                // Chunks record their own failures; this only happens on a programming error
+                System.err.println("!!! Payroll chunk crashed: " + e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Incremental re-run: recalculates only the employees whose payslip for this period was built from
+     * different inputs (rules, bonuses, job title, employment type) than they have now, and overwrites those
+     * payslips in place. Employees without a payslip for the period are left to a normal run.
+     *
+     * In the result, processed = recomputed and skipped = unchanged. Cancelling it drops the chunks that have
+     * not started writing yet.
+     */
+    public RunResult recompute(List<User> employees, LocalDate payPeriodStart, RunResult result) throws SQLException {
+        LocalDate payPeriodEnd = payPeriodStart.withDayOfMonth(payPeriodStart.lengthOfMonth());
+        PayRuleIndex ruleIndex = payRules();
+        Map<Integer, List<PayItem>> bonusesByUser = loadApprovedBonuses(payPeriodStart);
+        Map<Integer, ExistingPayslip> existing = loadExistingPayslips(payPeriodStart);
+
+        // Step A: compare fingerprints in memory; this is cheap even for the full headcount
+        List<Payslip> changed = new ArrayList<>();
+        List<Integer> unchanged = new ArrayList<>();
+        Map<Integer, String> failures = new LinkedHashMap<>();
+        for (User employee : employees) {
+            ExistingPayslip current = existing.get(employee.getId());
+            if (current == null) {
+                continue;
+            }
+            try {
+                PayRulePlan plan = ruleIndex.planFor(employee.getJobTitleId(), employee.getEmpTypeId());
+                List<PayItem> bonuses = bonusesByUser.getOrDefault(employee.getId(), Collections.emptyList());
+                String fingerprint = inputFingerprint(employee, plan, bonuses);
+                // Payslips written before fingerprints existed have none, so they are recomputed once
+                if (fingerprint.equals(current.fingerprint)) {
+                    unchanged.add(employee.getId());
+                    continue;
+                }
+                Payslip payslip = calculatePayslip(employee, payPeriodStart, payPeriodEnd, plan, bonuses);
+                payslip.setId(current.id);
+                payslip.setInputFingerprint(fingerprint);
+                changed.add(payslip);
+            } catch (Exception e) {
+                System.err.printf("!!! FAILED to recompute payroll for %s: %s\n", employee.getUsername(), e.getMessage());
+                failures.put(employee.getId(), e.getMessage());
+            }
+        }
+        result.setTotal(changed.size() + unchanged.size() + failures.size());
+        result.recordChunk(Collections.emptyList(), unchanged, failures);
+
+        // Step B: overwrite the changed payslips in chunks on the shared workers
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int from = 0; from < changed.size(); from += batchSize) {
+            List<Payslip> chunk = changed.subList(from, Math.min(from + batchSize, changed.size()));
+            tasks.add(workers.submit(() -> {
+                if (result.isCancelled()) {
+                    return null;
+                }
+                PayslipSink.WriteResult written;
+                writeLimiter.acquire();
+                long started = System.nanoTime();
+                try {
+                    written = batchWriter.replace(chunk);
+                } finally {
+                    writeLimiter.release(chunk.size(), System.nanoTime() - started);
+                }
+                List<Integer> replaced = new ArrayList<>(chunk.size());
+                for (Payslip payslip : chunk) {
+                    if (!written.getFailures().containsKey(payslip.getUserId())) {
+                        replaced.add(payslip.getUserId());
+                    }
+                }
+                result.recordChunk(replaced, Collections.emptyList(), written.getFailures());
+                return null;
+            }));
+        }
+        awaitChunks(tasks);
+        return result;
+    }
+
+    /**
+     * Department run: every department is a partition of its own, calculated on the shared workers in parallel
+     * and written in ONE transaction. A department therefore appears in the summary report complete, the moment
+     * it commits, and a database error rolls back that department only (all its payslips count as failed).
+     * @param departmentListener Called as each department has committed or failed, with that department's result.
+     */
+    public RunResult runDepartments(Map<Integer, List<User>> employeesByDepartment, LocalDate payPeriodStart,
+                                    RunResult overall, BiConsumer<Integer, RunResult> departmentListener) throws SQLException {
+        PayRuleIndex ruleIndex = payRules();
+        PeriodInputs inputs = loadPeriodInputs(payPeriodStart);
+
+        List<Future<?>> tasks = new ArrayList<>();
+        for (Map.Entry<Integer, List<User>> department : employeesByDepartment.entrySet()) {
+            RunResult departmentResult = RunResult.childOf(overall);
+            departmentResult.setTotal(department.getValue().size());
+            tasks.add(workers.submit(() -> {
+                if (departmentResult.isCancelled()) {
+                    return null; // departments that have not started yet are simply dropped
+                }
+                runDepartment(department.getValue(), inputs, ruleIndex, departmentResult);
+                departmentListener.accept(department.getKey(), departmentResult);
+                return null;
+            }));
+        }
+        awaitChunks(tasks);
+        return overall;
+    }
+
+    private void runDepartment(List<User> employees, PeriodInputs inputs, PayRuleIndex ruleIndex, RunResult result)
+            throws InterruptedException {
+        // Step A: calculate everyone who is not paid yet, in memory
+        List<Payslip> payslips = new ArrayList<>(employees.size());
+        List<Integer> skipped = new ArrayList<>();
+        Map<Integer, String> failures = new LinkedHashMap<>();
+        for (User employee : employees) {
+            if (inputs.paidUserIds.get(employee.getId())) {
+                skipped.add(employee.getId());
+                continue;
+            }
+            try {
+                PayRulePlan plan = ruleIndex.planFor(employee.getJobTitleId(), employee.getEmpTypeId());
+                List<PayItem> bonuses = inputs.bonusesByUser.getOrDefault(employee.getId(), Collections.emptyList());
+                Payslip payslip = calculatePayslip(employee, inputs.payPeriodStart, inputs.payPeriodEnd, plan, bonuses);
+                payslip.setInputFingerprint(inputFingerprint(employee, plan, bonuses));
+                payslips.add(payslip);
+            } catch (Exception e) {
+                System.err.printf("!!! FAILED to process payroll for %s: %s\n", employee.getUsername(), e.getMessage());
+                failures.put(employee.getId(), e.getMessage());
+            }
+        }
+
+        // Step B: the whole department in one commit
+        List<Integer> saved = new ArrayList<>(payslips.size());
+        writeLimiter.acquire();
+        long started = System.nanoTime();
+        try {
+            batchWriter.writeAtomically(payslips, batchSize);
+            for (Payslip payslip : payslips) {
+                if (payslip.getId() != 0) {
+                    saved.add(payslip.getUserId());
+                } else {
+                    skipped.add(payslip.getUserId()); // paid by another run since the period inputs were loaded
+                }
+            }
+        } catch (SQLException e) {
+            System.err.printf("!!! Department of %d employees rolled back: %s\n", employees.size(), e.getMessage());
+            payslips.forEach(p -> failures.put(p.getUserId(), e.getMessage()));
+        } finally {
+            writeLimiter.release(payslips.size(), System.nanoTime() - started);
+        }
+        result.recordChunk(saved, skipped, failures);
+    }
+
+    /**
+     * Fetches the ACTIVE employees to pay: everyone when targetUserId is 0, otherwise just that user.
+     */
+    public static List<User> loadEmployeesToPay(int targetUserId) throws SQLException {
+        List<User> employeesToPay = new ArrayList<>();
+
+        // Start with the base SQL query
+        StringBuilder fetchUsersSql = new StringBuilder(
+                "SELECT id, username, f_name, l_name, job_title_id, emp_type_id FROM public.\"user\" WHERE status = 'ACTIVE'"
+        );
+
+        // SECURELY add the condition if we are targeting a single user
+        if (targetUserId != 0) {
+            fetchUsersSql.append(" AND id = ?");
+        }
+
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(fetchUsersSql.toString())) {
+
+            // Set the parameter ONLY if we're fetching a single user
+            if (targetUserId != 0) {
+                ps.setInt(1, targetUserId);
+            }
+
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                User u = new User();
+                u.setId(rs.getInt("id"));
+                u.setUsername(rs.getString("username"));
+                u.setJobTitleId(rs.getInt("job_title_id"));
+                u.setEmpTypeId(rs.getInt("emp_type_id"));
+                employeesToPay.add(u);
+            }
+        }
+        return employeesToPay;
+    }
+
+    /**
+     * The compiled pay rules, shared across runs. Loaded on first use and again after {@link #invalidatePayRules()}.
+     */
+    PayRuleIndex payRules() throws SQLException {
+        PayRuleIndex rules = payRules;
+        if (rules != null) {
+            return rules;
+        }
+        long version = payRulesVersion;
+        rules = PayRuleIndex.load();
+        synchronized (this) {
+            // A template changed while we were loading, so this copy may be stale: use it once, but don't cache it
+            if (version == payRulesVersion) {
+                payRules = rules;
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Drops the cached pay rules. Call this after any change to pay_templates; runs already going keep their snapshot.
+     */
+    public synchronized void invalidatePayRules() {
+        payRulesVersion++;
+        payRules = null;
+    }
+
+    /**
+     * Fetches the ACTIVE employees whose id is in [fromUserId, toUserId], e.g. one partition of a distributed run.
+     */
+    public static List<User> loadEmployeesInRange(int fromUserId, int toUserId) throws SQLException {
+        List<User> employees = new ArrayList<>();
+        String sql = "SELECT id, username, job_title_id, emp_type_id FROM public.\"user\" " +
+                "WHERE status = 'ACTIVE' AND id BETWEEN ? AND ? ORDER BY id";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, fromUserId);
+            ps.setInt(2, toUserId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    User u = new User();
+                    u.setId(rs.getInt("id"));
+                    u.setUsername(rs.getString("username"));
+                    u.setJobTitleId(rs.getInt("job_title_id"));
+                    u.setEmpTypeId(rs.getInt("emp_type_id"));
+                    employees.add(u);
+                }
+            }
+        }
+        return employees;
+    }
+
+    /**
+     * Fetches the ACTIVE employees of each department, by id order. Every requested department is in the map,
+     * in the order given, even if it has nobody to pay.
+     */
+    public static Map<Integer, List<User>> loadEmployeesByDepartment(List<Integer> departmentIds) throws SQLException {
+        Map<Integer, List<User>> byDepartment = new LinkedHashMap<>();
+        for (Integer departmentId : departmentIds) {
+            byDepartment.put(departmentId, new ArrayList<>());
+        }
+        String sql = "SELECT u.id, u.username, u.job_title_id, u.emp_type_id, j.dept_id FROM public.\"user\" u " +
+                "JOIN public.job_titles j ON u.job_title_id = j.id " +
+                "WHERE u.status = 'ACTIVE' AND j.dept_id = ANY (?) ORDER BY u.id";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setArray(1, conn.createArrayOf("integer", departmentIds.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    User u = new User();
+                    u.setId(rs.getInt("id"));
+                    u.setUsername(rs.getString("username"));
+                    u.setJobTitleId(rs.getInt("job_title_id"));
+                    u.setEmpTypeId(rs.getInt("emp_type_id"));
+                    byDepartment.get(rs.getInt("dept_id")).add(u);
+                }
+            }
+        }
+        return byDepartment;
+    }
+
+    PayslipSink sinkFor(PayrollOutputMode outputMode) {
+        return outputMode == PayrollOutputMode.COPY ? copyWriter : batchWriter;
+    }
+
+    /**
+     * Loads every approved bonus for the pay period in one streaming query, grouped by user id.
+     */
+    static Map<Integer, List<PayItem>> loadApprovedBonuses(LocalDate payPeriodStart) throws SQLException {
+        Map<Integer, List<PayItem>> bonusesByUser = new HashMap<>();
+        String bonusSql = "SELECT user_id, name, amount, type FROM bonuses WHERE pay_period_start_date = ? AND is_approved = true";
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            // The PostgreSQL driver only streams with a cursor when auto-commit is off
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(bonusSql)) {
+                ps.setFetchSize(BONUS_FETCH_SIZE);
+                ps.setDate(1, java.sql.Date.valueOf(payPeriodStart));
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        PayItem bonusItem = new PayItem();
+                        bonusItem.setName(rs.getString("name"));
+                        bonusItem.setAmount(rs.getBigDecimal("amount"));
+                        bonusItem.setType(PayItemType.valueOf(rs.getString("type")));
+                        bonusesByUser.computeIfAbsent(rs.getInt("user_id"), k -> new ArrayList<>()).add(bonusItem);
+                    }
+                }
+            } finally {
+                conn.rollback(); // read-only, nothing to keep
+                conn.setAutoCommit(true);
+            }
+        }
+        return bonusesByUser;
+    }
+
+    /**
+     * Loads the id and input fingerprint of every payslip in the period, keyed by user id.
+     */
+    static Map<Integer, ExistingPayslip> loadExistingPayslips(LocalDate payPeriodStart) throws SQLException {
+        Map<Integer, ExistingPayslip> payslips = new HashMap<>();
+        String sql = "SELECT id, user_id, input_fingerprint FROM payslip WHERE pay_period_start_date = ?";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setDate(1, java.sql.Date.valueOf(payPeriodStart));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    payslips.put(rs.getInt("user_id"), new ExistingPayslip(rs.getInt("id"), rs.getString("input_fingerprint")));
+                }
+            }
+        }
+        return payslips;
+    }
+
+    /**
+     * Hashes everything a payslip is calculated from. Bonuses are sorted first, because the bonus query has no order.
+     */
+    static String inputFingerprint(User employee, PayRulePlan plan, List<PayItem> variableItems) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(employee.getJobTitleId()).append('/').append(employee.getEmpTypeId()).append('|').append(plan.getFingerprint()).append('|');
+        if (!variableItems.isEmpty()) {
+            List<String> bonuses = new ArrayList<>(variableItems.size());
+            for (PayItem item : variableItems) {
+                bonuses.add(item.getType() + ":" + item.getName() + "=" + item.getAmount().stripTrailingZeros().toPlainString());
+            }
+            Collections.sort(bonuses);
+            bonuses.forEach(b -> sb.append(b).append(';'));
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] hash = md.digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Loads the ids of everyone who already has a payslip for the period.
+     * User ids come from a sequence, so a BitSet keeps this compact even for large headcounts.
+     */
+    static BitSet loadPaidUserIds(LocalDate payPeriodStart) throws SQLException {
+        BitSet paidUserIds = new BitSet();
+        String sql = "SELECT user_id FROM payslip WHERE pay_period_start_date = ?";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setDate(1, java.sql.Date.valueOf(payPeriodStart));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    paidUserIds.set(rs.getInt(1));
+                }
+            }
+        }
+        return paidUserIds;
+    }
+
+    /**
+     * Calculates one employee's payslip from their compiled plan and bonuses. Pure calculation, no database access.
+     * Uses long cents when the amounts allow it, and the BigDecimal reference otherwise; both give identical payslips.
+     */
+    static Payslip calculatePayslip(User employee, LocalDate startDate, LocalDate endDate,
+                                    PayRulePlan plan, List<PayItem> variableItems) {
+        Payslip payslip = FixedPointPayCalculator.calculate(employee, startDate, endDate, plan, variableItems);
+        return payslip != null ? payslip : calculatePayslipExact(employee, startDate, endDate, plan, variableItems);
+    }
+
+    /**
+     * The BigDecimal reference calculation. Every amount is exact until the final HALF_UP rounding to cents.
+     */
+    static Payslip calculatePayslipExact(User employee, LocalDate startDate, LocalDate endDate,
+                                         PayRulePlan plan, List<PayItem> variableItems) {
+        List<PayItem> finalPayItems = new ArrayList<>(plan.getEarnings().size() + variableItems.size() + plan.getDeductions().size());
+
+        // --- Step C: Calculate Gross Pay & build the final pay item list ---
+        // First, add all standard earnings from the plan
+        BigDecimal grossPay = plan.getFixedEarningsTotal();
+        for (PayRulePlan.CompiledRule rule : plan.getEarnings()) {
+            PayItem earningItem = new PayItem();
+            earningItem.setName(rule.getName());
+            earningItem.setType(PayItemType.EARNING);
+            earningItem.setAmount(rule.getAmount());
+            finalPayItems.add(earningItem);
+        }
+        // NEXT, add all variable earnings (like bonuses) to the gross pay and the final list
+        for (PayItem varItem : variableItems) {
+            if (varItem.getType() == PayItemType.EARNING) {
+                grossPay = grossPay.add(varItem.getAmount());
+                finalPayItems.add(varItem);
+            }
+        }
+
+        // Step C: Calculate Deductions (including percentages)
+        BigDecimal totalDeductions = BigDecimal.ZERO;
+        for (PayRulePlan.CompiledRule rule : plan.getDeductions()) {
+            BigDecimal deductionAmount = rule.getKind() == PayRulePlan.RuleKind.PERCENT_OF_GROSS_DEDUCTION
+                    ? grossPay.multiply(rule.getAmount())
+                    : rule.getAmount();
+            totalDeductions = totalDeductions.add(deductionAmount);
+            PayItem deductionItem = new PayItem();
+            deductionItem.setName(rule.getName());
+            deductionItem.setType(PayItemType.DEDUCTION);
+            deductionItem.setAmount(deductionAmount.setScale(2, RoundingMode.HALF_UP));
+            finalPayItems.add(deductionItem);
+        }
+        BigDecimal netPay = grossPay.subtract(totalDeductions);
+
+        // Step D: Build the final historical record (saved later, a chunk at a time)
+        Payslip payslip = new Payslip();
+        payslip.setUserId(employee.getId());
+        payslip.setPayPeriodStartDate(startDate);
+        payslip.setPayPeriodEndDate(endDate);
+        payslip.setGrossEarnings(grossPay.setScale(2, RoundingMode.HALF_UP));
+        payslip.setTotalDeductions(totalDeductions.setScale(2, RoundingMode.HALF_UP));
+        payslip.setNetPay(netPay.setScale(2, RoundingMode.HALF_UP));
+        payslip.setPayItems(finalPayItems);
+        return payslip;
+    }
+
+    /**
+     * Thread-safe Processed/Skipped/Failed counters for one run. They are updated live while the run is going.
+     */
+    public static class RunResult {
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final long startedAtMillis = System.currentTimeMillis();
+        private volatile int total;
+        private volatile boolean cancelled;
+        private volatile ChunkListener listener;
+        private volatile boolean lowPriority;
+        private RunResult parent;
+        volatile PayrollPipeline pipeline;
+
+        /** A result for one part of a bigger run: its counts also go to the parent, and cancelling the parent stops it. */
+        static RunResult childOf(RunResult parent) {
+            RunResult child = new RunResult();
+            child.parent = parent;
+            return child;
+        }
+
+        public int getProcessed() { return processed.get(); }
+        public int getSkipped() { return skipped.get(); }
+        public int getFailed() { return failed.get(); }
+        public int getTotal() { return total; }
+        public void setTotal(int total) { this.total = total; }
+        public int getDone() { return getProcessed() + getSkipped() + getFailed(); }
+        public long getStartedAtMillis() { return startedAtMillis; }
+
+        /** Per-stage throughput and queue depth of the run's pipeline, or an empty list before it has started. */
+        public List<PipelineStageStats> getStageStats() {
+            PayrollPipeline p = pipeline;
+            return p == null ? Collections.emptyList() : p.snapshot();
+        }
+
+        /** Seeds the counters, e.g. with the progress a resumed run had already made. */
+        public void reset(int processed, int skipped, int failed) {
+            this.processed.set(processed);
+            this.skipped.set(skipped);
+            this.failed.set(failed);
+        }
+
+        public void setListener(ChunkListener listener) { this.listener = listener; }
+
+        /** Low-priority runs (scheduled, off-peak) get the engine's smaller background worker budget. */
+        public void setLowPriority(boolean lowPriority) { this.lowPriority = lowPriority; }
+        public boolean isLowPriority() { return lowPriority; }
+
+        /** Asks the run to stop; chunks already being written are allowed to finish. */
+        public void cancel() { cancelled = true; }
+        public boolean isCancelled() { return cancelled || (parent != null && parent.isCancelled()); }
+
+        void recordChunk(List<Integer> savedUserIds, List<Integer> skippedUserIds, Map<Integer, String> failures) {
+            processed.addAndGet(savedUserIds.size());
+            skipped.addAndGet(skippedUserIds.size());
+            failed.addAndGet(failures.size());
+            ChunkListener l = listener;
+            if (l != null && (!savedUserIds.isEmpty() || !skippedUserIds.isEmpty() || !failures.isEmpty())) {
+                l.chunkFinished(savedUserIds, skippedUserIds, failures);
+            }
+            if (parent != null) {
+                parent.recordChunk(savedUserIds, skippedUserIds, failures);
+            }
+        }
+
+        public String toSummary(int year, int month, int targetUserId) {
+            String target = targetUserId == 0 ? "all employees" : "user ID " + targetUserId;
+            return String.format("Payroll run for %d-%02d for %s %s. Processed: %d, Skipped: %d, Failed: %d.",
+                    year, month, target, isCancelled() ? "cancelled" : "complete", getProcessed(), getSkipped(), getFailed());
+        }
+    }
+
+    static class ExistingPayslip {
+        final int id;
+        final String fingerprint;
+
+        ExistingPayslip(int id, String fingerprint) {
+            this.id = id;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * Told about every finished chunk, from the worker thread that finished it.
+     */
+    public interface ChunkListener {
+        void chunkFinished(List<Integer> savedUserIds, List<Integer> skippedUserIds, Map<Integer, String> failures);
+    }
+}
@@ -0,0 +1,637 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.*;
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs payroll in the background so the client does not have to hold one long RMI call open.
+ * A job is submitted, gets an id straight away, and can then be polled or cancelled by that id.
+ *
+ * Every job is also persisted as a payroll_run, with one checkpoint row per employee written after each chunk.
+ * If the server dies halfway, the run is picked up again on the next start and only the employees that are
+ * not DONE or SKIPPED yet are processed. Employees that failed are retried with backoff, up to MAX_ATTEMPTS.
+ */
+public class PayrollJobManager {
+
+    // Finished jobs are kept around this long so a client that reconnects can still read the result
+    private static final long FINISHED_JOB_RETENTION_MS = 60 * 60 * 1000L;
+    private static final int MAX_ATTEMPTS = Integer.getInteger("payroll.maxAttempts", 3);
+    // Employees per partition of a distributed run
+    private static final int PARTITION_SIZE = Math.max(1, Integer.getInteger("payroll.partitionSize", 2000));
+    // How often a backfill, department or re-run job touches its guard rows, well within PayrollRunStore.STALE_RUN_SECONDS
+    private static final long GUARD_HEARTBEAT_MS = 30_000L;
+
+    private final PayrollEngine engine;
+    private final PayrollRunStore runStore = new PayrollRunStore();
+    private final String ownerHost = System.getProperty("java.rmi.server.hostname", "localhost");
+    // Jobs only coordinate; the real work runs on the engine's shared workers
+    private final ExecutorService jobRunners;
+    private final Map<String, PayrollJob> jobs = new ConcurrentHashMap<>();
+
+    public PayrollJobManager(PayrollEngine engine) {
+        this.engine = engine;
+        AtomicInteger threadNumber = new AtomicInteger(1);
+        this.jobRunners = Executors.newFixedThreadPool(Integer.getInteger("payroll.maxConcurrentJobs", 2), runnable -> {
+            Thread t = new Thread(runnable, "payroll-job-" + threadNumber.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Queues a payroll run and returns its job id immediately.
+     */
+    public String submit(int year, int month, int targetUserId, PayrollOutputMode outputMode)
+            throws SQLException, PayrollRunInProgressException {
+        return submit(year, month, targetUserId, outputMode, 0);
+    }
+
+    /**
+     * Same as {@link #submit(int, int, int, PayrollOutputMode)} for a run started by a payroll schedule.
+     * It is recorded against the schedule and runs with the engine's low-priority worker budget.
+     */
+    public String submitScheduled(int year, int month, int targetUserId, PayrollOutputMode outputMode, int scheduleId)
+            throws SQLException, PayrollRunInProgressException {
+        return submit(year, month, targetUserId, outputMode, scheduleId);
+    }
+
+    private String submit(int year, int month, int targetUserId, PayrollOutputMode outputMode, int scheduleId)
+            throws SQLException, PayrollRunInProgressException {
+        evictOldJobs();
+        PayrollJob job = new PayrollJob(UUID.randomUUID().toString(), year, month, targetUserId, outputMode, false);
+        job.result.setLowPriority(scheduleId > 0);
+        String activeRunId = runStore.createRun(job.id, LocalDate.of(year, month, 1), targetUserId, outputMode, ownerHost, scheduleId);
+        if (activeRunId != null) {
+            throw alreadyInProgress(year, month, targetUserId, activeRunId);
+        }
+        start(job);
+        System.out.printf("Payroll job %s queued for %d-%02d.\n", job.id, year, month);
+        return job.id;
+    }
+
+    /**
+     * The latest persisted runs, newest first, with their timings and what started them.
+     */
+    public List<PayrollRunHistory> history(int limit) throws SQLException {
+        return runStore.loadHistory(limit);
+    }
+
+    /**
+     * Starts a distributed run: the ACTIVE employees are cut into partitions that every server instance's
+     * PayrollPartitionWorker claims, this one included. Poll it with getStatus like any other job.
+     */
+    public String submitPartitioned(int year, int month, PayrollOutputMode outputMode)
+            throws SQLException, PayrollRunInProgressException {
+        String runId = UUID.randomUUID().toString();
+        String activeRunId = runStore.createPartitionedRun(runId, LocalDate.of(year, month, 1), outputMode, ownerHost, PARTITION_SIZE);
+        if (activeRunId != null) {
+            throw alreadyInProgress(year, month, 0, activeRunId);
+        }
+        int partitions = runStore.sumPartitions(runId).partitions;
+        if (partitions == 0) {
+            runStore.finishRunningRun(runId, PayrollJobState.COMPLETED, "No active employees to pay.");
+        }
+        System.out.printf("Distributed payroll job %s created for %d-%02d with %d partition(s).\n", runId, year, month, partitions);
+        return runId;
+    }
+
+    private static PayrollRunInProgressException alreadyInProgress(int year, int month, int targetUserId, String activeRunId) {
+        String who = targetUserId == 0 ? "all employees" : "user ID " + targetUserId;
+        System.out.printf("⚠️ Payroll for %d-%02d for %s is already in progress as job %s. Not starting it twice.\n",
+                year, month, who, activeRunId);
+        return new PayrollRunInProgressException(String.format(
+                "Payroll for %d-%02d for %s is already in progress (job %s).", year, month, who, activeRunId), activeRunId);
+    }
+
+    /**
+     * Queues a backfill over a range of months (inclusive) as one job and returns its id immediately.
+     * The job itself lives in memory; rerunning one is safe because already-paid employees are skipped. Each month
+     * gets a guard row in payroll_run, so nothing else runs the same month and target at the same time.
+     */
+    public String submitRange(int startYear, int startMonth, int endYear, int endMonth, int targetUserId,
+                              PayrollOutputMode outputMode) throws SQLException, PayrollRunInProgressException {
+        evictOldJobs();
+        PayrollJob job = new PayrollJob(UUID.randomUUID().toString(), startYear, startMonth, targetUserId, outputMode, false);
+        job.lastPeriod = LocalDate.of(endYear, endMonth, 1);
+        SortedMap<LocalDate, String> runIds = new TreeMap<>();
+        for (LocalDate period = LocalDate.of(startYear, startMonth, 1); !period.isAfter(job.lastPeriod); period = period.plusMonths(1)) {
+            runIds.put(period, runIds.isEmpty() ? job.id : UUID.randomUUID().toString());
+        }
+        createGuardRuns(job, runIds, "BACKFILL", null);
+        jobs.put(job.id, job);
+        job.future = jobRunners.submit(() -> executeRange(job));
+        System.out.printf("Payroll backfill job %s queued for %d-%02d to %d-%02d.\n", job.id, startYear, startMonth, endYear, endMonth);
+        return job.id;
+    }
+
+    /**
+     * Queues a department run for one month: each department is calculated in parallel and committed as a whole,
+     * with its own line in the job's summaries. Kept in memory like backfill jobs, with a guard row for the month
+     * and its departments: it can't run next to a full run of the same month, or another department run that
+     * shares a department. Department runs over different departments go ahead side by side.
+     */
+    public String submitDepartments(int year, int month, List<Integer> departmentIds)
+            throws SQLException, PayrollRunInProgressException {
+        evictOldJobs();
+        PayrollJob job = new PayrollJob(UUID.randomUUID().toString(), year, month, 0, PayrollOutputMode.BATCHED_INSERT, false);
+        job.departmentIds = new ArrayList<>(departmentIds);
+        SortedMap<LocalDate, String> runIds = new TreeMap<>();
+        runIds.put(LocalDate.of(year, month, 1), job.id);
+        createGuardRuns(job, runIds, "DEPARTMENT", job.departmentIds);
+        jobs.put(job.id, job);
+        job.future = jobRunners.submit(() -> executeDepartments(job));
+        System.out.printf("Payroll department job %s queued for %d-%02d, department(s) %s.\n", job.id, year, month, departmentIds);
+        return job.id;
+    }
+
+    /**
+     * Queues an incremental re-run of a paid month (see PayrollEngine.recompute) and returns its job id immediately.
+     * Kept in memory like backfill jobs, with a guard row for the month and target, so it can't overwrite payslips
+     * while a regular run or another re-run of the same month is going.
+     */
+    public String submitRecompute(int year, int month, int targetUserId) throws SQLException, PayrollRunInProgressException {
+        evictOldJobs();
+        PayrollJob job = new PayrollJob(UUID.randomUUID().toString(), year, month, targetUserId, PayrollOutputMode.BATCHED_INSERT, false);
+        SortedMap<LocalDate, String> runIds = new TreeMap<>();
+        runIds.put(LocalDate.of(year, month, 1), job.id);
+        createGuardRuns(job, runIds, "RECOMPUTE", null);
+        jobs.put(job.id, job);
+        job.future = jobRunners.submit(() -> executeRecompute(job));
+        System.out.printf("Payroll re-run job %s queued for %d-%02d.\n", job.id, year, month);
+        return job.id;
+    }
+
+    private void createGuardRuns(PayrollJob job, SortedMap<LocalDate, String> runIds, String kind, List<Integer> departmentIds)
+            throws SQLException, PayrollRunInProgressException {
+        String activeRunId = runStore.createJobRuns(runIds, job.targetUserId, job.outputMode, ownerHost, kind, departmentIds);
+        if (activeRunId != null) {
+            PayrollRunStore.RunRecord active = runStore.loadRun(activeRunId);
+            LocalDate period = active != null ? active.payPeriodStart : runIds.firstKey();
+            throw alreadyInProgress(period.getYear(), period.getMonthValue(), job.targetUserId, activeRunId);
+        }
+        job.runIds = runIds;
+        // Every chunk doubles as a heartbeat for the guard rows, at most every GUARD_HEARTBEAT_MS
+        job.result.setListener((saved, skipped, failures) -> touchGuardRuns(job));
+    }
+
+    /**
+     * Blocks until the job has finished and returns its summary. Used by the synchronous RMI call.
+     */
+    public String awaitSummary(String jobId) throws InterruptedException {
+        PayrollJob job = jobs.get(jobId);
+        try {
+            job.future.get();
+        } catch (ExecutionException | CancellationException e) {
+            // execute() records its own failures in the summary; a cancelled future already has one too
+        }
+        return job.summary;
+    }
+
+    /**
+     * Picks up the runs this server left unfinished, e.g. after a crash. Called once on server start.
+     */
+    public void resumeUnfinishedRuns() {
+        try {
+            int abandoned = runStore.failUnfinishedJobRuns(ownerHost);
+            if (abandoned > 0) {
+                System.out.printf("⚠️  %d month(s) of backfill, department or re-run jobs were cut short by the restart and marked FAILED.\n", abandoned);
+            }
+            for (PayrollRunStore.RunRecord run : runStore.findUnfinishedRuns(ownerHost)) {
+                System.out.printf("Resuming unfinished payroll job %s for %s.\n", run.id, run.payPeriodStart);
+                start(fromRecord(run));
+            }
+        } catch (SQLException e) {
+            System.err.println("⚠️  Could not look for unfinished payroll runs: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Resumes a cancelled, failed or orphaned run from its last checkpoint. A run that is QUEUED or RUNNING counts
+     * as orphaned only once it hasn't been updated for PayrollRunStore.STALE_RUN_SECONDS, so a run another server is executing
+     * right now is left alone. A distributed run gets its pending and failed partitions reopened for the workers.
+     * @return false if the run is unknown, still active, or already completed.
+     * @throws PayrollRunInProgressException if another run for the same month and target started in the meantime.
+     */
+    public boolean resume(String jobId) throws SQLException, PayrollRunInProgressException {
+        PayrollJob current = jobs.get(jobId);
+        if (current != null && !current.isFinished()) {
+            return false;
+        }
+        PayrollRunStore.RunRecord run = runStore.loadRun(jobId);
+        if (run == null || run.status == PayrollJobState.COMPLETED) {
+            return false;
+        }
+        PayrollRunStore.ReopenResult reopen = runStore.reopenRun(run, ownerHost, PayrollRunStore.STALE_RUN_SECONDS);
+        if (reopen.activeRunId != null) {
+            throw alreadyInProgress(run.payPeriodStart.getYear(), run.payPeriodStart.getMonthValue(), run.targetUserId, reopen.activeRunId);
+        }
+        if (!reopen.reopened) {
+            return false;
+        }
+        if (run.partitioned) {
+            System.out.printf("Distributed payroll job %s reopened; the partition workers will pick it up.\n", jobId);
+        } else {
+            start(fromRecord(run));
+        }
+        return true;
+    }
+
+    /**
+     * @return A snapshot of the job, or null if no job with that id is known.
+     */
+    public PayrollJobStatus getStatus(String jobId) throws SQLException {
+        PayrollJobStatus status = loadStatus(jobId);
+        if (status != null) {
+            AdaptiveWriteLimiter limiter = engine.getWriteLimiter();
+            status.setWriteLimit(limiter.getLimit());
+            status.setMaxWriteLimit(limiter.getMaxLimit());
+        }
+        return status;
+    }
+
+    private PayrollJobStatus loadStatus(String jobId) throws SQLException {
+        PayrollJob job = jobs.get(jobId);
+        if (job != null) {
+            return job.toStatus();
+        }
+        // Not in memory (evicted, or run before a restart), so answer from the persisted run
+        PayrollRunStore.RunRecord run = runStore.loadRun(jobId);
+        if (run == null) {
+            return null;
+        }
+        PayrollJobStatus status = new PayrollJobStatus();
+        status.setJobId(run.id);
+        status.setState(run.status);
+        status.setYear(run.payPeriodStart.getYear());
+        status.setMonth(run.payPeriodStart.getMonthValue());
+        status.setTargetUserId(run.targetUserId);
+        status.setSummary(run.summary);
+        if (run.partitioned) {
+            // Distributed runs report per partition, as each node finishes one
+            PayrollRunStore.PartitionProgress progress = runStore.sumPartitions(jobId);
+            status.setTotalEmployees(progress.employees);
+            status.setProcessed(progress.processed);
+            status.setSkipped(progress.skipped);
+            status.setFailed(progress.failed);
+        } else {
+            PayrollRunStore.StateCounts counts = runStore.countStates(jobId);
+            status.setTotalEmployees(counts.total());
+            status.setProcessed(counts.done);
+            status.setSkipped(counts.skipped);
+            status.setFailed(counts.failed);
+        }
+        return status;
+    }
+
+    private void start(PayrollJob job) {
+        jobs.put(job.id, job);
+        job.future = jobRunners.submit(() -> execute(job));
+    }
+
+    private PayrollJob fromRecord(PayrollRunStore.RunRecord run) {
+        PayrollJob job = new PayrollJob(run.id, run.payPeriodStart.getYear(), run.payPeriodStart.getMonthValue(),
+                run.targetUserId, run.outputMode, true);
+        job.result.setLowPriority(run.scheduleId > 0); // a resumed scheduled run stays in the background budget
+        return job;
+    }
+
+    /**
+     * Cancels a queued or running job. Chunks that are already being written finish first.
+     * @return false if the job is unknown or already finished.
+     */
+    public boolean cancel(String jobId) throws SQLException {
+        PayrollJob job = jobs.get(jobId);
+        if (job == null) {
+            // Only a distributed run can be cancelled from any server; any other run belongs to the server executing it
+            return runStore.cancelPartitionedRun(jobId, "Payroll job cancelled.");
+        }
+        if (job.isFinished()) {
+            return false;
+        }
+        job.result.cancel();
+        if (job.future != null && job.future.cancel(false)) {
+            finish(job, PayrollJobState.CANCELLED, "Payroll job cancelled before it started.");
+        }
+        return true;
+    }
+
+    private void execute(PayrollJob job) {
+        if (job.result.isCancelled()) {
+            finish(job, PayrollJobState.CANCELLED, "Payroll job cancelled before it started.");
+            return;
+        }
+        job.state = PayrollJobState.RUNNING;
+        job.runStartedAtMillis = System.currentTimeMillis();
+        try {
+            runStore.updateRunStatus(job.id, PayrollJobState.RUNNING, null);
+            // Step A: enroll everyone once; on resume the checkpoint rows are already there,
+            // unless the run was cancelled before it ever started
+            if (!job.resumed || runStore.countStates(job.id).total() == 0) {
+                runStore.enrollEmployees(job.id, job.targetUserId);
+            }
+            job.result.setListener((saved, skipped, failures) -> checkpoint(job, saved, skipped, failures));
+
+            // Step B: process whatever is left, then retry failed employees once their backoff has passed
+            LocalDate payPeriodStart = LocalDate.of(job.year, job.month, 1);
+            boolean stalled = false;
+            while (!job.result.isCancelled()) {
+                PayrollRunStore.RunnableEmployees runnable = runStore.loadRunnableEmployees(job.id, MAX_ATTEMPTS);
+                PayrollRunStore.StateCounts counts = runStore.countStates(job.id);
+                job.result.setTotal(counts.total());
+                // Employees being retried are counted again when their new attempt finishes
+                job.result.reset(counts.done, counts.skipped, counts.failed - runnable.retries);
+
+                if (!runnable.employees.isEmpty()) {
+                    if (runnable.retries > 0) {
+                        System.out.printf("Payroll job %s: retrying %d failed employee(s).\n", job.id, runnable.retries);
+                    }
+                    int doneBefore = job.result.getDone();
+                    engine.run(runnable.employees, payPeriodStart, job.outputMode, job.result);
+                    if (job.result.getDone() == doneBefore && !job.result.isCancelled()) {
+                        // Every employee ends up saved, skipped or failed, so this shouldn't happen; if it does,
+                        // running the same pending employees again would loop forever
+                        System.err.printf("!!! Payroll job %s: a pass over %d employee(s) recorded no outcome. Stopping.\n",
+                                job.id, runnable.employees.size());
+                        stalled = true;
+                        break;
+                    }
+                    continue;
+                }
+                Timestamp nextRetry = runStore.nextRetryAt(job.id, MAX_ATTEMPTS);
+                if (nextRetry == null) {
+                    break; // nothing pending and nothing left to retry
+                }
+                runStore.touchRun(job.id); // still alive while waiting for the backoff
+                sleepUntil(nextRetry.getTime(), job);
+            }
+
+            String summary = job.result.toSummary(job.year, job.month, job.targetUserId);
+            System.out.println(summary);
+            if (stalled) {
+                finish(job, PayrollJobState.FAILED, "Payroll job stopped: a pass made no progress. " + summary);
+            } else {
+                finish(job, job.result.isCancelled() ? PayrollJobState.CANCELLED : PayrollJobState.COMPLETED, summary);
+            }
+        } catch (Exception e) {
+            System.err.printf("!!! Payroll job %s failed: %s\n", job.id, e.getMessage());
+            e.printStackTrace();
+            finish(job, PayrollJobState.FAILED, "Payroll job failed: " + e.getMessage());
+        }
+    }
+
+    private void executeRange(PayrollJob job) {
+        if (job.result.isCancelled()) {
+            finish(job, PayrollJobState.CANCELLED, "Payroll job cancelled before it started.");
+            return;
+        }
+        job.state = PayrollJobState.RUNNING;
+        job.runStartedAtMillis = System.currentTimeMillis();
+        try {
+            startGuardRuns(job);
+            LocalDate firstPeriod = LocalDate.of(job.year, job.month, 1);
+            int periods = (int) ChronoUnit.MONTHS.between(firstPeriod, job.lastPeriod) + 1;
+            List<User> employeesToPay = PayrollEngine.loadEmployeesToPay(job.targetUserId);
+            job.result.setTotal(employeesToPay.size() * periods);
+
+            engine.runRange(employeesToPay, firstPeriod, job.lastPeriod, job.outputMode, job.result, (period, periodResult) -> {
+                String line = periodResult.toSummary(period.getYear(), period.getMonthValue(), job.targetUserId);
+                System.out.println(line);
+                job.periodSummaries.add(line);
+                // The month is done: release its guard so a regular run of it can start
+                finishGuardRuns(job, List.of(job.runIds.get(period)),
+                        periodResult.isCancelled() ? PayrollJobState.CANCELLED : PayrollJobState.COMPLETED, line);
+            });
+
+            String summary = String.format("Payroll backfill from %d-%02d to %d-%02d %s: %d of %d period(s). Processed: %d, Skipped: %d, Failed: %d.",
+                    job.year, job.month, job.lastPeriod.getYear(), job.lastPeriod.getMonthValue(),
+                    job.result.isCancelled() ? "cancelled" : "complete", job.periodSummaries.size(), periods,
+                    job.result.getProcessed(), job.result.getSkipped(), job.result.getFailed());
+            System.out.println(summary);
+            finish(job, job.result.isCancelled() ? PayrollJobState.CANCELLED : PayrollJobState.COMPLETED, summary);
+        } catch (Exception e) {
+            System.err.printf("!!! Payroll job %s failed: %s\n", job.id, e.getMessage());
+            e.printStackTrace();
+            finish(job, PayrollJobState.FAILED, "Payroll job failed: " + e.getMessage());
+        }
+    }
+
+    private void executeDepartments(PayrollJob job) {
+        if (job.result.isCancelled()) {
+            finish(job, PayrollJobState.CANCELLED, "Payroll job cancelled before it started.");
+            return;
+        }
+        job.state = PayrollJobState.RUNNING;
+        job.runStartedAtMillis = System.currentTimeMillis();
+        try {
+            startGuardRuns(job);
+            Map<Integer, List<User>> employeesByDepartment = PayrollEngine.loadEmployeesByDepartment(job.departmentIds);
+            job.result.setTotal(employeesByDepartment.values().stream().mapToInt(List::size).sum());
+
+            engine.runDepartments(employeesByDepartment, LocalDate.of(job.year, job.month, 1), job.result, (departmentId, departmentResult) -> {
+                String line = String.format("Department %d for %d-%02d %s. Processed: %d, Skipped: %d, Failed: %d.",
+                        departmentId, job.year, job.month,
+                        departmentResult.getProcessed() > 0 ? "committed" : departmentResult.getFailed() > 0 ? "failed" : "had nothing to pay",
+                        departmentResult.getProcessed(), departmentResult.getSkipped(), departmentResult.getFailed());
+                System.out.println(line);
+                job.periodSummaries.add(line);
+            });
+
+            String summary = String.format("Payroll for %d-%02d by department %s: %d of %d department(s). Processed: %d, Skipped: %d, Failed: %d.",
+                    job.year, job.month, job.result.isCancelled() ? "cancelled" : "complete",
+                    job.periodSummaries.size(), job.departmentIds.size(),
+                    job.result.getProcessed(), job.result.getSkipped(), job.result.getFailed());
+            System.out.println(summary);
+            finish(job, job.result.isCancelled() ? PayrollJobState.CANCELLED : PayrollJobState.COMPLETED, summary);
+        } catch (Exception e) {
+            System.err.printf("!!! Payroll job %s failed: %s\n", job.id, e.getMessage());
+            e.printStackTrace();
+            finish(job, PayrollJobState.FAILED, "Payroll job failed: " + e.getMessage());
+        }
+    }
+
+    private void executeRecompute(PayrollJob job) {
+        if (job.result.isCancelled()) {
+            finish(job, PayrollJobState.CANCELLED, "Payroll job cancelled before it started.");
+            return;
+        }
+        job.state = PayrollJobState.RUNNING;
+        job.runStartedAtMillis = System.currentTimeMillis();
+        try {
+            startGuardRuns(job);
+            List<User> employees = PayrollEngine.loadEmployeesToPay(job.targetUserId);
+            engine.recompute(employees, LocalDate.of(job.year, job.month, 1), job.result);
+
+            String target = job.targetUserId == 0 ? "all employees" : "user ID " + job.targetUserId;
+            String summary = String.format("Incremental payroll re-run for %d-%02d for %s %s. Recomputed: %d, Unchanged: %d, Failed: %d.",
+                    job.year, job.month, target, job.result.isCancelled() ? "cancelled" : "complete",
+                    job.result.getProcessed(), job.result.getSkipped(), job.result.getFailed());
+            System.out.println(summary);
+            finish(job, job.result.isCancelled() ? PayrollJobState.CANCELLED : PayrollJobState.COMPLETED, summary);
+        } catch (Exception e) {
+            System.err.printf("!!! Payroll job %s failed: %s\n", job.id, e.getMessage());
+            e.printStackTrace();
+            finish(job, PayrollJobState.FAILED, "Payroll job failed: " + e.getMessage());
+        }
+    }
+
+    private void checkpoint(PayrollJob job, List<Integer> saved, List<Integer> skipped, Map<Integer, String> failures) {
+        try {
+            runStore.checkpoint(job.id, saved, skipped, failures);
+        } catch (SQLException e) {
+            // The payslips are safe; a lost checkpoint only means a resume re-checks these employees
+            System.err.printf("⚠️  Payroll job %s could not save a checkpoint: %s\n", job.id, e.getMessage());
+        }
+    }
+
+    private void sleepUntil(long wakeAtMillis, PayrollJob job) throws InterruptedException {
+        while (!job.result.isCancelled()) {
+            long remaining = wakeAtMillis - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return;
+            }
+            Thread.sleep(Math.min(remaining, 1000));
+        }
+    }
+
+    private void finish(PayrollJob job, PayrollJobState finalState, String summary) {
+        job.finish(finalState, summary);
+        if (job.runIds != null) {
+            finishGuardRuns(job, job.runIds.values(), finalState, summary);
+            return;
+        }
+        try {
+            runStore.updateRunStatus(job.id, finalState, summary);
+        } catch (SQLException e) {
+            System.err.printf("⚠️  Could not store the final state of payroll job %s: %s\n", job.id, e.getMessage());
+        }
+    }
+
+    private void startGuardRuns(PayrollJob job) throws SQLException {
+        for (String runId : job.runIds.values()) {
+            runStore.updateRunStatus(runId, PayrollJobState.RUNNING, null);
+        }
+        job.lastHeartbeatMillis = System.currentTimeMillis();
+    }
+
+    private void touchGuardRuns(PayrollJob job) {
+        long now = System.currentTimeMillis();
+        if (now - job.lastHeartbeatMillis < GUARD_HEARTBEAT_MS) {
+            return;
+        }
+        job.lastHeartbeatMillis = now;
+        try {
+            runStore.touchRuns(job.runIds.values());
+        } catch (SQLException e) {
+            System.err.printf("⚠️  Payroll job %s could not refresh its guard rows: %s\n", job.id, e.getMessage());
+        }
+    }
+
+    private void finishGuardRuns(PayrollJob job, Collection<String> runIds, PayrollJobState finalState, String summary) {
+        try {
+            runStore.finishRuns(runIds, finalState, summary);
+        } catch (SQLException e) {
+            // They stop blocking other runs once they go stale
+            System.err.printf("⚠️  Could not store the final state of payroll job %s: %s\n", job.id, e.getMessage());
+        }
+    }
+
+    private void evictOldJobs() {
+        long cutoff = System.currentTimeMillis() - FINISHED_JOB_RETENTION_MS;
+        jobs.values().removeIf(job -> job.isFinished() && job.finishedAtMillis < cutoff);
+    }
+
+    private static class PayrollJob {
+        final String id;
+        final int year;
+        final int month;
+        final int targetUserId;
+        final PayrollOutputMode outputMode;
+        final boolean resumed;
+        volatile LocalDate lastPeriod; // set for range (backfill) jobs only
+        volatile List<Integer> departmentIds; // set for department jobs only
+        volatile SortedMap<LocalDate, String> runIds; // guard rows of backfill, department and re-run jobs, by month
+        volatile long lastHeartbeatMillis;
+        final List<String> periodSummaries = new CopyOnWriteArrayList<>();
+        final PayrollEngine.RunResult result = new PayrollEngine.RunResult();
+        volatile PayrollJobState state = PayrollJobState.QUEUED;
+        volatile String summary;
+        volatile long runStartedAtMillis;
+        volatile long finishedAtMillis;
+        volatile Future<?> future;
+
+        PayrollJob(String id, int year, int month, int targetUserId, PayrollOutputMode outputMode, boolean resumed) {
+            this.id = id;
+            this.year = year;
+            this.month = month;
+            this.targetUserId = targetUserId;
+            this.outputMode = outputMode;
+            this.resumed = resumed;
+        }
+
+        boolean isFinished() {
+            return finishedAtMillis != 0;
+        }
+
+        void finish(PayrollJobState finalState, String finalSummary) {
+            summary = finalSummary;
+            state = finalState;
+            finishedAtMillis = System.currentTimeMillis();
+        }
+
+        PayrollJobStatus toStatus() {
+            PayrollJobStatus status = new PayrollJobStatus();
+            status.setJobId(id);
+            status.setState(state);
+            status.setYear(year);
+            status.setMonth(month);
+            status.setTargetUserId(targetUserId);
+            status.setTotalEmployees(result.getTotal());
+            status.setProcessed(result.getProcessed());
+            status.setSkipped(result.getSkipped());
+            status.setFailed(result.getFailed());
+            status.setSummary(summary);
+            status.setStages(new ArrayList<>(result.getStageStats()));
+            if (lastPeriod != null) {
+                status.setEndYear(lastPeriod.getYear());
+                status.setEndMonth(lastPeriod.getMonthValue());
+                status.setPeriodSummaries(new ArrayList<>(periodSummaries));
+            }
+            if (departmentIds != null) {
+                status.setPeriodSummaries(new ArrayList<>(periodSummaries));
+            }
+
+            if (runStartedAtMillis != 0) {
+                long end = isFinished() ? finishedAtMillis : System.currentTimeMillis();
+                double elapsedSeconds = Math.max(0.001, (end - runStartedAtMillis) / 1000.0);
+                int done = result.getDone();
+                double rate = done / elapsedSeconds;
+                status.setEmployeesPerSecond(rate);
+                if (isFinished()) {
+                    status.setEtaSeconds(0);
+                } else if (rate > 0 && result.getTotal() > 0) {
+                    status.setEtaSeconds(Math.round(Math.max(0, result.getTotal() - done) / rate));
+                }
+            }
+            return status;
+        }
+    }
+}
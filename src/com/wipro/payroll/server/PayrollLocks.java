@@ -0,0 +1,86 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.Payslip;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * PostgreSQL advisory locks that coordinate payroll runs across every server instance.
+ * All locks are transaction-scoped (pg_advisory_xact_lock), so they are released on commit or rollback,
+ * including when a server dies mid-transaction.
+ *
+ * Two key spaces, both (int, int):
+ * - (periodKey, userId): one employee's payslip for one month. Taken by every payslip write, so two runs
+ *   only wait on each other for the employees they share and run in parallel for everyone else.
+ * - (-periodKey, targetUserId): creating a run for a month and target (0 = everyone). Makes the
+ *   "is this already running?" check and the insert of the new run atomic across servers.
+ */
+public final class PayrollLocks {
+
+    // Sorted, so two transactions locking overlapping chunks always lock in the same order and never deadlock
+    private static final String LOCK_EMPLOYEES_SQL =
+            "SELECT pg_advisory_xact_lock(?, u) FROM (SELECT DISTINCT unnest(?::int[]) AS u ORDER BY 1) ids";
+    private static final String LOCK_RUN_SQL = "SELECT pg_advisory_xact_lock(?, ?)";
+
+    private PayrollLocks() {}
+
+    /** 2025-01 becomes 24301: months since year 0, plus one so it is never 0 and -periodKey stays distinct. */
+    static int periodKey(LocalDate payPeriodStart) {
+        return payPeriodStart.getYear() * 12 + payPeriodStart.getMonthValue();
+    }
+
+    /**
+     * Locks every employee of the chunk for its pay period, waiting for any other run that is writing the
+     * same employees right now. Call it first thing in the write transaction.
+     */
+    static void lockEmployees(Connection conn, List<Payslip> chunk) throws SQLException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        // The pipeline batches per period, so every payslip of a chunk shares the first one's period
+        Integer[] userIds = new Integer[chunk.size()];
+        for (int i = 0; i < chunk.size(); i++) {
+            userIds[i] = chunk.get(i).getUserId();
+        }
+        try (PreparedStatement ps = conn.prepareStatement(LOCK_EMPLOYEES_SQL)) {
+            ps.setInt(1, periodKey(chunk.get(0).getPayPeriodStartDate()));
+            ps.setArray(2, conn.createArrayOf("integer", userIds));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    // every row is one granted lock
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #lockEmployees}, for every user_id in a table, e.g. a draft's staging table being promoted.
+     */
+    static void lockEmployeesIn(Connection conn, LocalDate payPeriodStart, String table) throws SQLException {
+        String sql = "SELECT pg_advisory_xact_lock(?, user_id) FROM (SELECT user_id FROM " + table + " ORDER BY user_id) ids";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, periodKey(payPeriodStart));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    // every row is one granted lock
+                }
+            }
+        }
+    }
+
+    /**
+     * Serializes run creation for one month and target across servers, until the transaction ends.
+     */
+    static void lockRunCreation(Connection conn, LocalDate payPeriodStart, int targetUserId) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(LOCK_RUN_SQL)) {
+            ps.setInt(1, -periodKey(payPeriodStart));
+            ps.setInt(2, targetUserId);
+            ps.executeQuery().close();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayItem;
+import com.wipro.payroll.common.PayItemType;
+import com.wipro.payroll.common.PayTemplate;
+import com.wipro.payroll.common.Payslip;
+import com.wipro.payroll.common.User;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Property check for FixedPointPayCalculator: on randomized rules and bonuses, the long-cents calculation
+ * must give exactly the same payslip as the BigDecimal reference (same values AND scales, item by item),
+ * or decline so the caller falls back. No database needed.
+ *
+ * Inputs are biased toward the hard cases: rounding ties (x.xx5), negative amounts, zero, rates and amounts
+ * with one decimal too many, and very large salaries.
+ *
+ * Usage: PayrollMoneyCheck [iterations] [seed]   (defaults: 200000 iterations, random seed)
+ * Exits with status 1 on the first mismatch, printing the seed and inputs so it can be reproduced.
+ */
+public class PayrollMoneyCheck {
+
+    private static final LocalDate START = LocalDate.of(2025, 1, 1);
+    private static final LocalDate END = LocalDate.of(2025, 1, 31);
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        Random random = new Random(seed);
+        System.out.printf("Checking fixed-point payroll math against BigDecimal: %d cases, seed %d...\n", iterations, seed);
+
+        User employee = new User();
+        employee.setId(1);
+        int fixedPointCases = 0;
+        for (int i = 0; i < iterations; i++) {
+            Map<String, PayTemplate> rules = randomRules(random);
+            List<PayItem> bonuses = randomBonuses(random);
+            PayRulePlan plan = PayRulePlan.compile(rules);
+
+            Payslip expected = PayrollEngine.calculatePayslipExact(employee, START, END, plan, bonuses);
+            Payslip actual = FixedPointPayCalculator.calculate(employee, START, END, plan, bonuses);
+            if (actual == null) {
+                continue; // declined: the engine would use the BigDecimal result, which is trivially identical
+            }
+            fixedPointCases++;
+            String mismatch = compare(expected, actual);
+            if (mismatch != null) {
+                System.err.println("❌ MISMATCH in case " + i + " (seed " + seed + "): " + mismatch);
+                rules.values().forEach(r -> System.err.printf("   rule  %-10s %-30s %s\n", r.getType(), r.getDescription(), r.getAmount()));
+                bonuses.forEach(b -> System.err.printf("   bonus %-10s %-30s %s\n", b.getType(), b.getName(), b.getAmount()));
+                System.exit(1);
+            }
+        }
+        System.out.println("--------------------------------------------------");
+        System.out.printf("✅ All %d cases identical (%d calculated in fixed point, %d fell back to BigDecimal).\n",
+                iterations, fixedPointCases, iterations - fixedPointCases);
+        System.out.println("--------------------------------------------------");
+    }
+
+    private static String compare(Payslip expected, Payslip actual) {
+        if (!expected.getGrossEarnings().equals(actual.getGrossEarnings())) {
+            return "gross " + expected.getGrossEarnings() + " vs " + actual.getGrossEarnings();
+        }
+        if (!expected.getTotalDeductions().equals(actual.getTotalDeductions())) {
+            return "total deductions " + expected.getTotalDeductions() + " vs " + actual.getTotalDeductions();
+        }
+        if (!expected.getNetPay().equals(actual.getNetPay())) {
+            return "net " + expected.getNetPay() + " vs " + actual.getNetPay();
+        }
+        if (expected.getPayItems().size() != actual.getPayItems().size()) {
+            return "item count " + expected.getPayItems().size() + " vs " + actual.getPayItems().size();
+        }
+        for (int i = 0; i < expected.getPayItems().size(); i++) {
+            PayItem e = expected.getPayItems().get(i);
+            PayItem a = actual.getPayItems().get(i);
+            if (!e.getName().equals(a.getName()) || e.getType() != a.getType() || !e.getAmount().equals(a.getAmount())) {
+                return "item " + i + ": " + e.getName() + " " + e.getAmount() + " vs " + a.getName() + " " + a.getAmount();
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, PayTemplate> randomRules(Random random) {
+        Map<String, PayTemplate> rules = new LinkedHashMap<>();
+        int earnings = 1 + random.nextInt(4);
+        for (int i = 0; i < earnings; i++) {
+            rules.put("Earning " + i, template("Earning " + i, PayItemType.EARNING, randomMoney(random)));
+        }
+        if (random.nextInt(3) == 0) {
+            rules.put("Annual Leave Entitlement", template("Annual Leave Entitlement", PayItemType.EARNING, new BigDecimal("14.00")));
+        }
+        if (random.nextBoolean()) {
+            rules.put("EPF Employee", template("EPF Employee", PayItemType.DEDUCTION, randomRate(random)));
+        }
+        if (random.nextBoolean()) {
+            rules.put("EIS Contribution", template("EIS Contribution", PayItemType.DEDUCTION, randomRate(random)));
+        }
+        int fixedDeductions = random.nextInt(3);
+        for (int i = 0; i < fixedDeductions; i++) {
+            rules.put("Deduction " + i, template("Deduction " + i, PayItemType.DEDUCTION, randomMoney(random)));
+        }
+        return rules;
+    }
+
+    private static List<PayItem> randomBonuses(Random random) {
+        List<PayItem> bonuses = new ArrayList<>();
+        int count = random.nextInt(3);
+        for (int i = 0; i < count; i++) {
+            PayItem bonus = new PayItem();
+            bonus.setName("Bonus " + i);
+            bonus.setType(random.nextInt(4) == 0 ? PayItemType.DEDUCTION : PayItemType.EARNING);
+            bonus.setAmount(randomMoney(random));
+            bonuses.add(bonus);
+        }
+        return bonuses;
+    }
+
+    // Mostly whole cents; sometimes a third decimal (must fall back), negative, zero or huge
+    private static BigDecimal randomMoney(Random random) {
+        switch (random.nextInt(10)) {
+            case 0: return BigDecimal.valueOf(random.nextInt(100000), 3);
+            case 1: return BigDecimal.valueOf(-random.nextInt(100000), 2);
+            case 2: return BigDecimal.ZERO;
+            case 3: return BigDecimal.valueOf(random.nextLong() % 1_000_000_000_000L, 2);
+            case 4: return BigDecimal.valueOf(random.nextInt(100000)); // scale 0
+            default: return BigDecimal.valueOf(random.nextInt(2_000_000), 2);
+        }
+    }
+
+    // Real-world rates plus ones built to hit exact rounding ties; sometimes a seventh decimal (must fall back)
+    private static BigDecimal randomRate(Random random) {
+        switch (random.nextInt(8)) {
+            case 0: return new BigDecimal("0.11");
+            case 1: return new BigDecimal("0.002");
+            case 2: return new BigDecimal("0.5");
+            case 3: return new BigDecimal("0.005");
+            case 4: return BigDecimal.valueOf(random.nextInt(10_000_000), 7);
+            case 5: return BigDecimal.valueOf(-random.nextInt(1_000_000), 6);
+            default: return BigDecimal.valueOf(random.nextInt(1_000_000), 6);
+        }
+    }
+
+    private static PayTemplate template(String description, PayItemType type, BigDecimal amount) {
+        PayTemplate template = new PayTemplate();
+        template.setDescription(description);
+        template.setType(type);
+        template.setAmount(amount);
+        return template;
+    }
+}
@@ -0,0 +1,122 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayrollJobState;
+import com.wipro.payroll.common.User;
+
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs on every server instance and works through the partitions of distributed payroll runs.
+ * A partition is claimed with a lease that is renewed while it is being processed; if this node dies,
+ * the lease runs out and another node re-claims the partition. Re-processing a partition is safe,
+ * because employees that already have a payslip for the period are skipped.
+ *
+ * Partitions are processed one at a time per node; the engine already spreads each one over its pipeline.
+ */
+public class PayrollPartitionWorker {
+
+    private static final int LEASE_SECONDS = Integer.getInteger("payroll.partitionLeaseSeconds", 60);
+    private static final long POLL_INTERVAL_MS = Long.getLong("payroll.partitionPollMs", 2000L);
+    private static final int MAX_ATTEMPTS = Integer.getInteger("payroll.partitionMaxAttempts", 3);
+
+    private final PayrollEngine engine;
+    private final PayrollRunStore runStore;
+    // Unique per process, so two servers on one host never share a lease
+    private final String nodeId = System.getProperty("java.rmi.server.hostname", "localhost") + "/"
+            + ManagementFactory.getRuntimeMXBean().getName();
+    private final ScheduledExecutorService leaseRenewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread t = new Thread(runnable, "payroll-lease-renewer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public PayrollPartitionWorker(PayrollEngine engine, PayrollRunStore runStore) {
+        this.engine = engine;
+        this.runStore = runStore;
+    }
+
+    public void start() {
+        Thread t = new Thread(this::pollLoop, "payroll-partition-worker");
+        t.setDaemon(true);
+        t.start();
+        System.out.println("✅ Payroll partition worker started as node " + nodeId + ".");
+    }
+
+    private void pollLoop() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                PayrollRunStore.Partition partition = runStore.claimPartition(nodeId, LEASE_SECONDS);
+                if (partition != null) {
+                    process(partition);
+                    continue; // look for more work straight away
+                }
+            } catch (SQLException e) {
+                System.err.println("⚠️  Partition worker could not claim work: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void process(PayrollRunStore.Partition partition) {
+        PayrollEngine.RunResult result = new PayrollEngine.RunResult();
+        // Keep the lease alive; stop early if we lost it or the run was cancelled
+        ScheduledFuture<?> renewal = leaseRenewer.scheduleAtFixedRate(() -> {
+            try {
+                if (!runStore.renewLease(partition, nodeId, LEASE_SECONDS)) {
+                    result.cancel();
+                }
+            } catch (SQLException e) {
+                System.err.println("⚠️  Could not renew partition lease: " + e.getMessage());
+            }
+        }, LEASE_SECONDS / 3, LEASE_SECONDS / 3, TimeUnit.SECONDS);
+
+        try {
+            PayrollRunStore.RunRecord run = runStore.loadRun(partition.runId);
+            List<User> employees = PayrollEngine.loadEmployeesInRange(partition.fromUserId, partition.toUserId);
+            System.out.printf("Node %s: partition %d of run %s (%d employees, users %d-%d).\n", nodeId,
+                    partition.partitionNo, partition.runId, employees.size(), partition.fromUserId, partition.toUserId);
+            result.setTotal(employees.size());
+            engine.run(employees, run.payPeriodStart, run.outputMode, result);
+            if (!result.isCancelled()) {
+                runStore.completePartition(partition, nodeId, result.getProcessed(), result.getSkipped(), result.getFailed());
+                finishRunIfDone(run);
+            }
+        } catch (Exception e) {
+            System.err.printf("!!! Partition %d of run %s failed: %s\n", partition.partitionNo, partition.runId, e.getMessage());
+            try {
+                runStore.releasePartition(partition, nodeId, e.getMessage(), MAX_ATTEMPTS);
+                finishRunIfDone(runStore.loadRun(partition.runId));
+            } catch (SQLException releaseError) {
+                // The lease will run out and another node will pick the partition up
+                System.err.println("⚠️  Could not release the partition: " + releaseError.getMessage());
+            }
+        } finally {
+            renewal.cancel(false);
+        }
+    }
+
+    private void finishRunIfDone(PayrollRunStore.RunRecord run) throws SQLException {
+        PayrollRunStore.PartitionProgress progress = runStore.sumPartitions(run.id);
+        if (progress.finishedPartitions < progress.partitions) {
+            return;
+        }
+        PayrollJobState finalState = progress.failedPartitions > 0 ? PayrollJobState.FAILED : PayrollJobState.COMPLETED;
+        String summary = String.format("Distributed payroll run for %d-%02d for all employees %s. Processed: %d, Skipped: %d, Failed: %d (%d of %d partitions failed).",
+                run.payPeriodStart.getYear(), run.payPeriodStart.getMonthValue(),
+                finalState == PayrollJobState.COMPLETED ? "complete" : "finished with errors",
+                progress.processed, progress.skipped, progress.failed, progress.failedPartitions, progress.partitions);
+        if (runStore.finishRunningRun(run.id, finalState, summary)) {
+            System.out.println(summary);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayItem;
+import com.wipro.payroll.common.Payslip;
+import com.wipro.payroll.common.PipelineStageStats;
+import com.wipro.payroll.common.User;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * One payroll run split into three stages, each with its own threads:
+ *
+ *   read      - loads a period's bonuses and paid ids, drops already-paid employees and cuts the rest into batches
+ *   calculate - pure in-memory payslip math
+ *   write     - saves a batch through the payslip sink
+ *
+ * The stages are connected by bounded queues, so a slow stage makes the ones before it wait instead of
+ * piling up payslips in memory. Writers take a permit from the engine-wide AdaptiveWriteLimiter before touching
+ * the database, so concurrent runs together never use more connections than the engine allows, and
+ * fewer while interactive calls are waiting on the database.
+ *
+ * A pipeline is built for one run and thrown away afterwards.
+ */
+class PayrollPipeline {
+
+    private static final int QUEUE_CAPACITY = Math.max(1, Integer.getInteger("payroll.queueCapacity", 8));
+
+    // Marks the end of a queue; each consumer thread gets its own
+    private static final EmployeeBatch NO_MORE_EMPLOYEES = new EmployeeBatch(null, null, Collections.emptyList());
+    private static final PayslipBatch NO_MORE_PAYSLIPS = new PayslipBatch(null, Collections.emptyList(), Collections.emptyMap(), 0);
+
+    private final PayRuleIndex ruleIndex;
+    private final PayslipSink sink;
+    private final AdaptiveWriteLimiter writeLimiter;
+    private final int batchSize;
+
+    private final Queue<Period> periodsToRead = new ConcurrentLinkedQueue<>();
+    private final BlockingQueue<EmployeeBatch> toCalculate = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<PayslipBatch> toWrite = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final Stage read;
+    private final Stage calculate;
+    private final Stage write;
+    private final long startedAtNanos = System.nanoTime();
+
+    PayrollPipeline(PayRuleIndex ruleIndex, PayslipSink sink, AdaptiveWriteLimiter writeLimiter, int batchSize,
+                    int readerThreads, int calculatorThreads, int writerThreads) {
+        this.ruleIndex = ruleIndex;
+        this.sink = sink;
+        this.writeLimiter = writeLimiter;
+        this.batchSize = batchSize;
+        this.read = new Stage("read", readerThreads);
+        this.calculate = new Stage("calculate", calculatorThreads);
+        this.write = new Stage("write", writerThreads);
+    }
+
+    /**
+     * One pay period to process. Its result gets every chunk; onFinished runs once all of its batches are written.
+     */
+    static class Period {
+        final LocalDate payPeriodStart;
+        final List<User> employees;
+        final PayrollEngine.RunResult result;
+        final Consumer<Period> onFinished;
+        volatile SQLException loadError;
+
+        private final AtomicInteger batchesInFlight = new AtomicInteger(1); // 1 = the reader still adding batches
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        Period(LocalDate payPeriodStart, List<User> employees, PayrollEngine.RunResult result, Consumer<Period> onFinished) {
+            this.payPeriodStart = payPeriodStart;
+            this.employees = employees;
+            this.result = result;
+            this.onFinished = onFinished;
+        }
+
+        void batchDone() {
+            if (batchesInFlight.decrementAndGet() == 0 && finished.compareAndSet(false, true) && onFinished != null) {
+                onFinished.accept(this);
+            }
+        }
+    }
+
+    /**
+     * Runs every period through the pipeline and blocks until all of them are written (or dropped after a cancel).
+     */
+    void run(List<Period> periods) throws InterruptedException {
+        periodsToRead.addAll(periods);
+        List<Thread> readers = read.start(this::readLoop);
+        List<Thread> calculators = calculate.start(this::calculateLoop);
+        List<Thread> writers = write.start(this::writeLoop);
+        List<Thread> all = new ArrayList<>(readers);
+        all.addAll(calculators);
+        all.addAll(writers);
+        try {
+            // Shut the stages down in order: each end marker goes in only after the stage before has stopped
+            joinAll(readers);
+            for (int i = 0; i < calculators.size(); i++) toCalculate.put(NO_MORE_EMPLOYEES);
+            joinAll(calculators);
+            for (int i = 0; i < writers.size(); i++) toWrite.put(NO_MORE_PAYSLIPS);
+            joinAll(writers);
+        } finally {
+            // Interrupted or not, no stage thread outlives the run parked on a queue (and holding up its caller)
+            for (Thread t : all) {
+                if (t.isAlive()) {
+                    t.interrupt();
+                }
+            }
+        }
+    }
+
+    List<PipelineStageStats> snapshot() {
+        return Arrays.asList(
+                read.stats(periodsToRead.size(), -1),
+                calculate.stats(toCalculate.size(), QUEUE_CAPACITY),
+                write.stats(toWrite.size(), QUEUE_CAPACITY));
+    }
+
+    // --- Stage loops ---
+
+    private void readLoop() throws InterruptedException {
+        Period period;
+        while ((period = periodsToRead.poll()) != null) {
+            try {
+                if (!period.result.isCancelled()) {
+                    readPeriod(period);
+                }
+            } catch (SQLException e) {
+                System.err.printf("!!! Could not load payroll inputs for %s: %s\n", period.payPeriodStart, e.getMessage());
+                period.loadError = e;
+            } catch (RuntimeException e) {
+                // Nothing was queued yet (that is the last step), so the whole period fails instead of staying pending
+                System.err.printf("!!! Could not prepare payroll for %s: %s\n", period.payPeriodStart, e);
+                period.result.recordChunk(Collections.emptyList(), Collections.emptyList(), failAll(period.employees, e));
+            } finally {
+                period.batchDone(); // the reader's own share; the period finishes once its last batch is written
+            }
+        }
+    }
+
+    private void readPeriod(Period period) throws SQLException, InterruptedException {
+        long started = System.nanoTime();
+        PayrollEngine.PeriodInputs inputs = PayrollEngine.loadPeriodInputs(period.payPeriodStart);
+
+        // Skip anyone who already has a payslip for this period to prevent duplicates
+        List<User> unpaid = new ArrayList<>(period.employees.size());
+        List<Integer> alreadyPaid = new ArrayList<>();
+        for (User employee : period.employees) {
+            if (inputs.paidUserIds.get(employee.getId())) {
+                System.out.printf("Skipping %s: Payslip for this period already exists.\n", employee.getUsername());
+                alreadyPaid.add(employee.getId());
+            } else {
+                unpaid.add(employee);
+            }
+        }
+        period.result.recordChunk(Collections.emptyList(), alreadyPaid, Collections.emptyMap());
+        // Waiting on the full queue below is backpressure, not work, so it is left out of the stage's busy time
+        read.record(period.employees.size(), System.nanoTime() - started);
+
+        // Small runs are split evenly so every writer gets a share; big runs use full-size batches
+        int chunkSize = Math.max(1, Math.min(batchSize, (unpaid.size() + write.threads - 1) / write.threads));
+        for (int from = 0; from < unpaid.size(); from += chunkSize) {
+            period.batchesInFlight.incrementAndGet();
+            toCalculate.put(new EmployeeBatch(period, inputs, unpaid.subList(from, Math.min(from + chunkSize, unpaid.size()))));
+        }
+    }
+
+    private void calculateLoop() throws InterruptedException {
+        while (true) {
+            EmployeeBatch batch = toCalculate.take();
+            if (batch == NO_MORE_EMPLOYEES) {
+                return;
+            }
+            if (batch.period.result.isCancelled()) {
+                batch.period.batchDone(); // batches that have not been calculated yet are simply dropped
+                continue;
+            }
+            long started = System.nanoTime();
+            List<Payslip> payslips = new ArrayList<>(batch.employees.size());
+            Map<Integer, String> failures = new LinkedHashMap<>();
+            try {
+                for (User employee : batch.employees) {
+                    try {
+                        PayRulePlan plan = ruleIndex.planFor(employee.getJobTitleId(), employee.getEmpTypeId());
+                        List<PayItem> bonuses = batch.inputs.bonusesByUser.getOrDefault(employee.getId(), Collections.emptyList());
+                        Payslip payslip = PayrollEngine.calculatePayslip(employee, batch.inputs.payPeriodStart, batch.inputs.payPeriodEnd, plan, bonuses);
+                        payslip.setInputFingerprint(PayrollEngine.inputFingerprint(employee, plan, bonuses));
+                        payslips.add(payslip);
+                    } catch (Exception e) {
+                        System.err.printf("!!! FAILED to process payroll for %s: %s\n", employee.getUsername(), e.getMessage());
+                        failures.put(employee.getId(), e.getMessage());
+                    }
+                }
+                calculate.record(batch.employees.size(), System.nanoTime() - started);
+            } catch (RuntimeException e) {
+                // Keep the thread alive: the writers are waiting on it, and the batch still has to be accounted for
+                System.err.printf("!!! Payroll batch of %d employee(s) could not be calculated: %s\n", batch.employees.size(), e);
+                payslips.clear();
+                failures = failAll(batch.employees, e);
+            }
+            toWrite.put(new PayslipBatch(batch.period, payslips, failures, batch.employees.size()));
+        }
+    }
+
+    private void writeLoop() throws InterruptedException {
+        while (true) {
+            PayslipBatch batch = toWrite.take();
+            if (batch == NO_MORE_PAYSLIPS) {
+                return;
+            }
+            try {
+                if (!batch.period.result.isCancelled()) {
+                    writeBatch(batch);
+                }
+            } catch (RuntimeException e) {
+                // Keep the thread alive: if every writer died, the calculators would wait on a full queue forever
+                System.err.printf("!!! Payroll chunk of %d employee(s) could not be written: %s\n", batch.employees, e);
+                Map<Integer, String> failures = new LinkedHashMap<>(batch.failures);
+                for (Payslip payslip : batch.payslips) {
+                    failures.put(payslip.getUserId(), String.valueOf(e.getMessage()));
+                }
+                batch.period.result.recordChunk(Collections.emptyList(), Collections.emptyList(), failures);
+            } finally {
+                batch.period.batchDone();
+            }
+        }
+    }
+
+    private static Map<Integer, String> failAll(List<User> employees, RuntimeException e) {
+        Map<Integer, String> failures = new LinkedHashMap<>();
+        for (User employee : employees) {
+            failures.put(employee.getId(), String.valueOf(e.getMessage()));
+        }
+        return failures;
+    }
+
+    /**
+     * Another run can still pay an employee after we loaded the paid set; the unique index turns that into a skip.
+     */
+    private void writeBatch(PayslipBatch batch) throws InterruptedException {
+        PayslipSink.WriteResult written;
+        writeLimiter.acquire();
+        long started = System.nanoTime();
+        try {
+            written = sink.write(batch.payslips);
+        } finally {
+            writeLimiter.release(batch.employees, System.nanoTime() - started);
+        }
+        write.record(batch.employees, System.nanoTime() - started);
+
+        Map<Integer, String> failures = new LinkedHashMap<>(batch.failures);
+        failures.putAll(written.getFailures());
+        // Outcomes come from the payslips themselves: a saved one has its id set
+        List<Integer> savedUserIds = new ArrayList<>(batch.payslips.size());
+        List<Integer> skippedUserIds = new ArrayList<>(batch.payslips.size());
+        for (Payslip payslip : batch.payslips) {
+            if (payslip.getId() != 0) {
+                savedUserIds.add(payslip.getUserId());
+            } else if (!failures.containsKey(payslip.getUserId())) {
+                skippedUserIds.add(payslip.getUserId());
+            }
+        }
+        batch.period.result.recordChunk(savedUserIds, skippedUserIds, failures);
+        System.out.printf("Processed payroll chunk of %d employee(s): %d saved, %d already paid, %d failed.\n",
+                batch.employees, savedUserIds.size(), skippedUserIds.size(), failures.size());
+    }
+
+    private static void joinAll(List<Thread> threads) throws InterruptedException {
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    // --- Plumbing ---
+
+    private interface StageLoop {
+        void run() throws InterruptedException;
+    }
+
+    private class Stage {
+        final String name;
+        final int threads;
+        final AtomicLong employees = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+
+        Stage(String name, int threads) {
+            this.name = name;
+            this.threads = Math.max(1, threads);
+        }
+
+        List<Thread> start(StageLoop loop) {
+            List<Thread> started = new ArrayList<>(threads);
+            for (int i = 1; i <= threads; i++) {
+                Thread t = new Thread(() -> {
+                    try {
+                        loop.run();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, "payroll-" + name + "-" + i);
+                t.setDaemon(true);
+                t.start();
+                started.add(t);
+            }
+            return started;
+        }
+
+        void record(int count, long nanos) {
+            employees.addAndGet(count);
+            busyNanos.addAndGet(nanos);
+        }
+
+        PipelineStageStats stats(int queueDepth, int queueCapacity) {
+            double elapsedSeconds = Math.max(0.001, (System.nanoTime() - startedAtNanos) / 1e9);
+            PipelineStageStats stats = new PipelineStageStats();
+            stats.setStage(name);
+            stats.setThreads(threads);
+            stats.setEmployees(employees.get());
+            stats.setEmployeesPerSecond(employees.get() / elapsedSeconds);
+            stats.setBusyPercent(Math.min(100.0, busyNanos.get() / 1e9 / (elapsedSeconds * threads) * 100.0));
+            stats.setQueueDepth(queueDepth);
+            stats.setQueueCapacity(queueCapacity);
+            return stats;
+        }
+    }
+
+    private static class EmployeeBatch {
+        final Period period;
+        final PayrollEngine.PeriodInputs inputs;
+        final List<User> employees;
+
+        EmployeeBatch(Period period, PayrollEngine.PeriodInputs inputs, List<User> employees) {
+            this.period = period;
+            this.inputs = inputs;
+            this.employees = employees;
+        }
+    }
+
+    private static class PayslipBatch {
+        final Period period;
+        final List<Payslip> payslips;
+        final Map<Integer, String> failures;
+        final int employees;
+
+        PayslipBatch(Period period, List<Payslip> payslips, Map<Integer, String> failures, int employees) {
+            this.period = period;
+            this.payslips = payslips;
+            this.failures = failures;
+            this.employees = employees;
+        }
+    }
+}
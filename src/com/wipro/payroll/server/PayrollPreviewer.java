@@ -0,0 +1,136 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.*;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Payroll dry runs: the same calculation as a real run, entirely in memory, with nothing written.
+ * HR can override template amounts to see what a change would do before saving it.
+ *
+ * Employees, rules and bonuses are bulk-loaded exactly like a real run, so a full headcount costs
+ * three queries. Results are kept on the server for a while and handed out page by page.
+ */
+public class PayrollPreviewer {
+
+    private static final long PREVIEW_RETENTION_MS = 15 * 60 * 1000L;
+    private static final int MAX_STORED_PREVIEWS = 20;
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private final PayrollEngine engine;
+    private final Map<String, StoredPreview> previews = new ConcurrentHashMap<>();
+
+    public PayrollPreviewer(PayrollEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Calculates the period for everyone (or one user) and returns the totals. Already-paid employees
+     * are still calculated, but flagged and left out of the totals, because a real run would skip them.
+     */
+    public PayrollPreview preview(int year, int month, int targetUserId, Map<Integer, BigDecimal> templateAmountOverrides)
+            throws SQLException {
+        long start = System.currentTimeMillis();
+        LocalDate payPeriodStart = LocalDate.of(year, month, 1);
+        LocalDate payPeriodEnd = payPeriodStart.withDayOfMonth(payPeriodStart.lengthOfMonth());
+
+        // Step A: bulk-load everything once
+        PayRuleIndex ruleIndex = engine.payRules();
+        if (templateAmountOverrides != null && !templateAmountOverrides.isEmpty()) {
+            ruleIndex = ruleIndex.withOverrides(templateAmountOverrides);
+        }
+        List<User> employees = PayrollEngine.loadEmployeesToPay(targetUserId);
+        Map<Integer, List<PayItem>> bonusesByUser = PayrollEngine.loadApprovedBonuses(payPeriodStart);
+        BitSet paidUserIds = PayrollEngine.loadPaidUserIds(payPeriodStart);
+
+        // Step B: calculate in memory
+        PayrollPreview preview = new PayrollPreview();
+        preview.setPreviewId(UUID.randomUUID().toString());
+        preview.setYear(year);
+        preview.setMonth(month);
+        preview.setTargetUserId(targetUserId);
+        preview.setEmployeeCount(employees.size());
+
+        List<PayrollPreviewLine> lines = new ArrayList<>(employees.size());
+        BigDecimal totalGross = BigDecimal.ZERO;
+        BigDecimal totalDeductions = BigDecimal.ZERO;
+        BigDecimal totalNet = BigDecimal.ZERO;
+        int alreadyPaid = 0;
+        int failed = 0;
+        for (User employee : employees) {
+            PayrollPreviewLine line = new PayrollPreviewLine();
+            line.setUserId(employee.getId());
+            line.setUsername(employee.getUsername());
+            line.setAlreadyPaid(paidUserIds.get(employee.getId()));
+            try {
+                Payslip payslip = PayrollEngine.calculatePayslip(employee, payPeriodStart, payPeriodEnd,
+                        ruleIndex.planFor(employee.getJobTitleId(), employee.getEmpTypeId()),
+                        bonusesByUser.getOrDefault(employee.getId(), Collections.emptyList()));
+                line.setGrossEarnings(payslip.getGrossEarnings());
+                line.setTotalDeductions(payslip.getTotalDeductions());
+                line.setNetPay(payslip.getNetPay());
+                if (line.isAlreadyPaid()) {
+                    alreadyPaid++;
+                } else {
+                    totalGross = totalGross.add(payslip.getGrossEarnings());
+                    totalDeductions = totalDeductions.add(payslip.getTotalDeductions());
+                    totalNet = totalNet.add(payslip.getNetPay());
+                }
+            } catch (Exception e) {
+                line.setError(e.getMessage());
+                failed++;
+            }
+            lines.add(line);
+        }
+        preview.setAlreadyPaidCount(alreadyPaid);
+        preview.setFailedCount(failed);
+        preview.setTotalGross(totalGross);
+        preview.setTotalDeductions(totalDeductions);
+        preview.setTotalNet(totalNet);
+        preview.setElapsedMillis(System.currentTimeMillis() - start);
+
+        // Step C: keep the lines so the client can page through them
+        evictOldPreviews();
+        previews.put(preview.getPreviewId(), new StoredPreview(lines));
+        System.out.printf("Payroll preview %s for %d-%02d: %d employee(s) in %d ms.\n",
+                preview.getPreviewId(), year, month, employees.size(), preview.getElapsedMillis());
+        return preview;
+    }
+
+    /**
+     * @return Up to {@link #MAX_PAGE_SIZE} lines starting at offset, or null if the preview is unknown or expired.
+     */
+    public List<PayrollPreviewLine> page(String previewId, int offset, int limit) {
+        StoredPreview stored = previews.get(previewId);
+        if (stored == null) {
+            return null;
+        }
+        int from = Math.max(0, Math.min(offset, stored.lines.size()));
+        int to = Math.min(stored.lines.size(), from + Math.max(0, Math.min(limit, MAX_PAGE_SIZE)));
+        // Copy, so RMI serializes only this page and not the backing list
+        return new ArrayList<>(stored.lines.subList(from, to));
+    }
+
+    private void evictOldPreviews() {
+        long cutoff = System.currentTimeMillis() - PREVIEW_RETENTION_MS;
+        previews.values().removeIf(p -> p.createdAtMillis < cutoff);
+        while (previews.size() >= MAX_STORED_PREVIEWS) {
+            previews.entrySet().stream()
+                    .min(Comparator.comparingLong(e -> e.getValue().createdAtMillis))
+                    .ifPresent(oldest -> previews.remove(oldest.getKey()));
+        }
+    }
+
+    private static class StoredPreview {
+        final List<PayrollPreviewLine> lines;
+        final long createdAtMillis = System.currentTimeMillis();
+
+        StoredPreview(List<PayrollPreviewLine> lines) {
+            this.lines = lines;
+        }
+    }
+}
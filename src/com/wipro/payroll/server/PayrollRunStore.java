@@ -0,0 +1,719 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayrollJobState;
+import com.wipro.payroll.common.PayrollOutputMode;
+import com.wipro.payroll.common.PayrollRunHistory;
+import com.wipro.payroll.common.User;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Database access for persisted payroll runs (payroll_run) and their per-employee checkpoints (payroll_run_employee).
+ * Checkpoints are written a chunk at a time with one statement per state, never one per employee.
+ */
+public class PayrollRunStore {
+
+    // Failed employees wait BASE * 2^attempts seconds before the next try, capped at MAX
+    private static final int RETRY_BACKOFF_BASE_SECONDS = 5;
+    private static final int RETRY_BACKOFF_MAX_SECONDS = 300;
+    // A QUEUED or RUNNING run nobody has touched for this long is orphaned (its server died)
+    static final int STALE_RUN_SECONDS = Integer.getInteger("payroll.staleRunSeconds", 600);
+
+    /**
+     * Records a new QUEUED run, unless a run for the same month and target is already QUEUED or RUNNING on any server.
+     * Check and insert happen under an advisory lock, so two servers can't both pass the check.
+     * @param scheduleId The schedule that started the run, or 0 when it was started from the menu.
+     * @return null if the run was created, otherwise the id of the run already in progress.
+     */
+    public String createRun(String runId, LocalDate payPeriodStart, int targetUserId, PayrollOutputMode outputMode,
+                            String ownerHost, int scheduleId) throws SQLException {
+        String sql = "INSERT INTO public.payroll_run (id, pay_period_start_date, target_user_id, output_mode, status, owner_host, schedule_id) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)";
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                String activeRunId = lockAndFindActiveRun(conn, payPeriodStart, targetUserId);
+                if (activeRunId == null) {
+                    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                        ps.setString(1, runId);
+                        ps.setDate(2, java.sql.Date.valueOf(payPeriodStart));
+                        ps.setInt(3, targetUserId);
+                        ps.setString(4, outputMode.name());
+                        ps.setString(5, PayrollJobState.QUEUED.name());
+                        ps.setString(6, ownerHost);
+                        if (scheduleId > 0) {
+                            ps.setInt(7, scheduleId);
+                        } else {
+                            ps.setNull(7, Types.INTEGER);
+                        }
+                        ps.executeUpdate();
+                    }
+                }
+                conn.commit(); // also releases the advisory lock
+                return activeRunId;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Records the guard rows of an in-memory job (kind BACKFILL, DEPARTMENT or RECOMPUTE): one QUEUED run per month, all or
+     * none, under the same advisory locks and "already in progress" check as createRun. The months are locked in
+     * date order, so two jobs over overlapping ranges can't deadlock.
+     * @param departmentIds The departments a DEPARTMENT job pays, or null for a job over every employee of the target.
+     *                      Department jobs only refuse each other when they share a department.
+     * @return null if the rows were created, otherwise the id of the run already in progress for one of the months.
+     */
+    public String createJobRuns(SortedMap<LocalDate, String> runIdsByPeriod, int targetUserId, PayrollOutputMode outputMode,
+                                String ownerHost, String kind, List<Integer> departmentIds) throws SQLException {
+        String sql = "INSERT INTO public.payroll_run (id, pay_period_start_date, target_user_id, output_mode, status, owner_host, kind, department_ids) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                Array departments = departmentIds == null ? null : conn.createArrayOf("integer", departmentIds.toArray());
+                for (LocalDate payPeriodStart : runIdsByPeriod.keySet()) {
+                    String activeRunId = lockAndFindActiveRun(conn, payPeriodStart, targetUserId, departments, null);
+                    if (activeRunId != null) {
+                        conn.rollback(); // also releases the advisory locks
+                        return activeRunId;
+                    }
+                }
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    for (Map.Entry<LocalDate, String> run : runIdsByPeriod.entrySet()) {
+                        ps.setString(1, run.getValue());
+                        ps.setDate(2, java.sql.Date.valueOf(run.getKey()));
+                        ps.setInt(3, targetUserId);
+                        ps.setString(4, outputMode.name());
+                        ps.setString(5, PayrollJobState.QUEUED.name());
+                        ps.setString(6, ownerHost);
+                        ps.setString(7, kind);
+                        ps.setArray(8, departments);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                }
+                conn.commit();
+                return null;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Moves every run in runIds that is still QUEUED or RUNNING to its final state.
+     */
+    public void finishRuns(Collection<String> runIds, PayrollJobState finalState, String summary) throws SQLException {
+        String sql = "UPDATE public.payroll_run SET status = ?, summary = ?, updated_at = now(), finished_at = now() " +
+                "WHERE id = ANY (?) AND status IN ('QUEUED', 'RUNNING')";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, finalState.name());
+            ps.setString(2, summary);
+            ps.setArray(3, conn.createArrayOf("varchar", runIds.toArray()));
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Ends the guard rows of backfill, department and re-run jobs this server was running when it stopped. Unlike
+     * MONTHLY runs they have no checkpoints to resume from; submitting the job again skips what was already paid.
+     */
+    public int failUnfinishedJobRuns(String ownerHost) throws SQLException {
+        String sql = "UPDATE public.payroll_run SET status = 'FAILED', updated_at = now(), finished_at = now(), " +
+                "summary = 'The server stopped before this job finished. Submit it again; employees already paid are skipped.' " +
+                "WHERE status IN ('QUEUED', 'RUNNING') AND owner_host = ? AND kind <> 'MONTHLY'";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, ownerHost);
+            return ps.executeUpdate();
+        }
+    }
+
+    // Runs for the same month and the same target (0 = everyone) would do exactly the same work.
+    // Different targets are allowed to overlap; they wait for each other per employee in the payslip writers.
+    private String lockAndFindActiveRun(Connection conn, LocalDate payPeriodStart, int targetUserId) throws SQLException {
+        return lockAndFindActiveRun(conn, payPeriodStart, targetUserId, null, null);
+    }
+
+    private String lockAndFindActiveRun(Connection conn, LocalDate payPeriodStart, int targetUserId, String exceptRunId) throws SQLException {
+        return lockAndFindActiveRun(conn, payPeriodStart, targetUserId, null, exceptRunId);
+    }
+
+    // Same, ignoring the run with id exceptRunId (a run being resumed doesn't conflict with itself). A run limited to
+    // departments only collides with runs over everyone and with runs sharing one of those departments.
+    private String lockAndFindActiveRun(Connection conn, LocalDate payPeriodStart, int targetUserId, Array departmentIds,
+                                        String exceptRunId) throws SQLException {
+        PayrollLocks.lockRunCreation(conn, payPeriodStart, targetUserId);
+        // A backfill or department job that stopped touching its guard rows died with its server; it no longer blocks
+        String sql = "SELECT id FROM public.payroll_run WHERE pay_period_start_date = ? AND target_user_id = ? " +
+                "AND status IN ('QUEUED', 'RUNNING') AND id IS DISTINCT FROM ? " +
+                "AND (CAST(? AS INT[]) IS NULL OR department_ids IS NULL OR department_ids && CAST(? AS INT[])) " +
+                "AND (kind = 'MONTHLY' OR updated_at > now() - interval '1 second' * ?) ORDER BY created_at LIMIT 1";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setDate(1, java.sql.Date.valueOf(payPeriodStart));
+            ps.setInt(2, targetUserId);
+            ps.setString(3, exceptRunId);
+            ps.setArray(4, departmentIds);
+            ps.setArray(5, departmentIds);
+            ps.setInt(6, STALE_RUN_SECONDS);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString("id") : null;
+            }
+        }
+    }
+
+    /**
+     * Also stamps started_at the first time a run goes RUNNING and finished_at when it ends, for the job history.
+     */
+    public void updateRunStatus(String runId, PayrollJobState status, String summary) throws SQLException {
+        String sql = "UPDATE public.payroll_run SET status = ?, summary = ?, updated_at = now(), " +
+                "started_at = CASE WHEN ? THEN COALESCE(started_at, now()) ELSE started_at END, " +
+                "finished_at = CASE WHEN ? THEN now() ELSE NULL END WHERE id = ?";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, status.name());
+            ps.setString(2, summary);
+            ps.setBoolean(3, status == PayrollJobState.RUNNING);
+            ps.setBoolean(4, isFinal(status));
+            ps.setString(5, runId);
+            ps.executeUpdate();
+        }
+    }
+
+    private static boolean isFinal(PayrollJobState status) {
+        return status == PayrollJobState.COMPLETED || status == PayrollJobState.FAILED || status == PayrollJobState.CANCELLED;
+    }
+
+    /**
+     * Takes a run back up on this server, if it may be: a CANCELLED or FAILED run, or a QUEUED/RUNNING one whose
+     * owner stopped updating it for staleSeconds (the server died). A distributed run goes back to RUNNING with its
+     * PENDING and FAILED partitions open again, so the partition workers pick it up; any other run goes back to QUEUED.
+     * Like createRun, nothing happens while another run for the same month and target is in progress.
+     */
+    public ReopenResult reopenRun(RunRecord run, String ownerHost, int staleSeconds) throws SQLException {
+        String runSql = run.partitioned
+                ? "UPDATE public.payroll_run SET status = 'RUNNING', owner_host = ?, summary = NULL, updated_at = now(), finished_at = NULL " +
+                  "WHERE id = ? AND partitioned AND status IN ('CANCELLED', 'FAILED')"
+                : "UPDATE public.payroll_run SET status = 'QUEUED', owner_host = ?, summary = NULL, updated_at = now(), finished_at = NULL " +
+                  "WHERE id = ? AND NOT partitioned AND kind = 'MONTHLY' AND (status IN ('CANCELLED', 'FAILED') " +
+                  "OR (status IN ('QUEUED', 'RUNNING') AND updated_at < now() - interval '1 second' * ?))";
+        String partitionSql = "UPDATE public.payroll_partition SET state = 'PENDING', attempts = 0, owner_node = NULL, " +
+                "lease_expires_at = NULL, last_error = NULL WHERE run_id = ? AND state IN ('PENDING', 'FAILED')";
+        ReopenResult result = new ReopenResult();
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                result.activeRunId = lockAndFindActiveRun(conn, run.payPeriodStart, run.targetUserId, run.id);
+                if (result.activeRunId == null) {
+                    try (PreparedStatement ps = conn.prepareStatement(runSql)) {
+                        ps.setString(1, ownerHost);
+                        ps.setString(2, run.id);
+                        if (!run.partitioned) {
+                            ps.setInt(3, staleSeconds);
+                        }
+                        result.reopened = ps.executeUpdate() == 1;
+                    }
+                    if (result.reopened && run.partitioned) {
+                        try (PreparedStatement ps = conn.prepareStatement(partitionSql)) {
+                            ps.setString(1, run.id);
+                            ps.executeUpdate();
+                        }
+                    }
+                }
+                conn.commit(); // also releases the advisory lock
+                return result;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Marks a run as still alive. A QUEUED or RUNNING run that isn't touched for a while counts as orphaned.
+     */
+    public void touchRun(String runId) throws SQLException {
+        touchRuns(List.of(runId));
+    }
+
+    public void touchRuns(Collection<String> runIds) throws SQLException {
+        String sql = "UPDATE public.payroll_run SET updated_at = now() WHERE id = ANY (?)";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setArray(1, conn.createArrayOf("varchar", runIds.toArray()));
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Adds every employee the run should pay as PENDING, in one set-based statement.
+     * Safe to repeat: employees that are already enrolled keep their state.
+     */
+    public int enrollEmployees(String runId, int targetUserId) throws SQLException {
+        StringBuilder sql = new StringBuilder(
+                "INSERT INTO public.payroll_run_employee (run_id, user_id) " +
+                "SELECT ?, id FROM public.\"user\" WHERE status = 'ACTIVE'");
+        if (targetUserId != 0) {
+            sql.append(" AND id = ?");
+        }
+        sql.append(" ON CONFLICT (run_id, user_id) DO NOTHING");
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            ps.setString(1, runId);
+            if (targetUserId != 0) {
+                ps.setInt(2, targetUserId);
+            }
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Loads the employees that still need work: PENDING ones, plus FAILED ones whose backoff has elapsed.
+     */
+    public RunnableEmployees loadRunnableEmployees(String runId, int maxAttempts) throws SQLException {
+        String sql = "SELECT u.id, u.username, u.job_title_id, u.emp_type_id, e.state " +
+                "FROM public.payroll_run_employee e JOIN public.\"user\" u ON u.id = e.user_id " +
+                "WHERE e.run_id = ? AND (e.state = 'PENDING' " +
+                "OR (e.state = 'FAILED' AND e.attempts < ? AND (e.next_attempt_at IS NULL OR e.next_attempt_at <= now()))) " +
+                "ORDER BY u.id";
+        RunnableEmployees runnable = new RunnableEmployees();
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, runId);
+            ps.setInt(2, maxAttempts);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    User u = new User();
+                    u.setId(rs.getInt("id"));
+                    u.setUsername(rs.getString("username"));
+                    u.setJobTitleId(rs.getInt("job_title_id"));
+                    u.setEmpTypeId(rs.getInt("emp_type_id"));
+                    runnable.employees.add(u);
+                    if ("FAILED".equals(rs.getString("state"))) {
+                        runnable.retries++;
+                    }
+                }
+            }
+        }
+        return runnable;
+    }
+
+    /**
+     * When the next failed employee becomes retryable, or null if nobody is left to retry.
+     */
+    public Timestamp nextRetryAt(String runId, int maxAttempts) throws SQLException {
+        String sql = "SELECT MIN(COALESCE(next_attempt_at, now())) FROM public.payroll_run_employee " +
+                "WHERE run_id = ? AND state = 'FAILED' AND attempts < ?";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, runId);
+            ps.setInt(2, maxAttempts);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getTimestamp(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Writes one chunk's outcome: one UPDATE for the saved ids, one for the skipped ids and one batch for failures.
+     * It also touches the run, so a run that keeps checkpointing is never mistaken for an orphan.
+     */
+    public void checkpoint(String runId, List<Integer> savedUserIds, List<Integer> skippedUserIds,
+                           Map<Integer, String> failures) throws SQLException {
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement ps = conn.prepareStatement("UPDATE public.payroll_run SET updated_at = now() WHERE id = ?")) {
+                    ps.setString(1, runId); // every checkpoint doubles as a heartbeat
+                    ps.executeUpdate();
+                }
+                markState(conn, runId, savedUserIds, "DONE");
+                markState(conn, runId, skippedUserIds, "SKIPPED");
+                if (!failures.isEmpty()) {
+                    String sql = "UPDATE public.payroll_run_employee SET state = 'FAILED', attempts = attempts + 1, last_error = ?, " +
+                            "next_attempt_at = now() + interval '1 second' * LEAST(?, ? * power(2, attempts)) " +
+                            "WHERE run_id = ? AND user_id = ?";
+                    try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                        for (Map.Entry<Integer, String> failure : failures.entrySet()) {
+                            ps.setString(1, failure.getValue());
+                            ps.setInt(2, RETRY_BACKOFF_MAX_SECONDS);
+                            ps.setInt(3, RETRY_BACKOFF_BASE_SECONDS);
+                            ps.setString(4, runId);
+                            ps.setInt(5, failure.getKey());
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private void markState(Connection conn, String runId, List<Integer> userIds, String state) throws SQLException {
+        if (userIds.isEmpty()) return;
+        String sql = "UPDATE public.payroll_run_employee SET state = ?, last_error = NULL, next_attempt_at = NULL " +
+                "WHERE run_id = ? AND user_id = ANY (?)";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, state);
+            ps.setString(2, runId);
+            ps.setArray(3, conn.createArrayOf("integer", userIds.toArray()));
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Counts the run's employees per state.
+     */
+    public StateCounts countStates(String runId) throws SQLException {
+        String sql = "SELECT state, COUNT(*) FROM public.payroll_run_employee WHERE run_id = ? GROUP BY state";
+        StateCounts counts = new StateCounts();
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, runId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    int n = rs.getInt(2);
+                    switch (rs.getString(1)) {
+                        case "PENDING": counts.pending = n; break;
+                        case "DONE": counts.done = n; break;
+                        case "SKIPPED": counts.skipped = n; break;
+                        case "FAILED": counts.failed = n; break;
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    public RunRecord loadRun(String runId) throws SQLException {
+        String sql = "SELECT id, pay_period_start_date, target_user_id, output_mode, status, summary, partitioned, schedule_id, kind FROM public.payroll_run WHERE id = ?";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, runId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? toRecord(rs) : null;
+            }
+        }
+    }
+
+    /**
+     * Runs this server owned that never finished, e.g. because the server died halfway through.
+     */
+    public List<RunRecord> findUnfinishedRuns(String ownerHost) throws SQLException {
+        String sql = "SELECT id, pay_period_start_date, target_user_id, output_mode, status, summary, partitioned, schedule_id, kind FROM public.payroll_run " +
+                "WHERE status IN ('QUEUED', 'RUNNING') AND owner_host = ? AND NOT partitioned AND kind = 'MONTHLY' ORDER BY created_at";
+        List<RunRecord> runs = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, ownerHost);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    runs.add(toRecord(rs));
+                }
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * The most recent runs first, menu-started and scheduled alike. Backfill and department jobs show up with one row per month.
+     */
+    public List<PayrollRunHistory> loadHistory(int limit) throws SQLException {
+        String sql = "SELECT r.id, r.pay_period_start_date, r.target_user_id, r.status, r.partitioned, r.summary, " +
+                "r.created_at, r.started_at, r.finished_at, s.name AS schedule_name " +
+                "FROM public.payroll_run r LEFT JOIN public.payroll_schedule s ON s.id = r.schedule_id " +
+                "ORDER BY r.created_at DESC LIMIT ?";
+        List<PayrollRunHistory> history = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    PayrollRunHistory entry = new PayrollRunHistory();
+                    LocalDate period = rs.getDate("pay_period_start_date").toLocalDate();
+                    entry.setJobId(rs.getString("id"));
+                    entry.setYear(period.getYear());
+                    entry.setMonth(period.getMonthValue());
+                    entry.setTargetUserId(rs.getInt("target_user_id"));
+                    entry.setState(PayrollJobState.valueOf(rs.getString("status")));
+                    entry.setDistributed(rs.getBoolean("partitioned"));
+                    entry.setSummary(rs.getString("summary"));
+                    entry.setScheduleName(rs.getString("schedule_name"));
+                    entry.setCreatedAt(toLocalDateTime(rs.getTimestamp("created_at")));
+                    entry.setStartedAt(toLocalDateTime(rs.getTimestamp("started_at")));
+                    entry.setFinishedAt(toLocalDateTime(rs.getTimestamp("finished_at")));
+                    history.add(entry);
+                }
+            }
+        }
+        return history;
+    }
+
+    private static java.time.LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toLocalDateTime();
+    }
+
+    // --- Distributed (partitioned) runs ---
+
+    /**
+     * Creates a RUNNING distributed run and cuts the ACTIVE employees into partitions of partitionSize,
+     * by id order, in one transaction. Any server instance can then claim the partitions.
+     * Like createRun, nothing is created while another full run for the month is QUEUED or RUNNING.
+     * @return null if the run was created, otherwise the id of the run already in progress.
+     */
+    public String createPartitionedRun(String runId, LocalDate payPeriodStart, PayrollOutputMode outputMode,
+                                    String ownerHost, int partitionSize) throws SQLException {
+        String runSql = "INSERT INTO public.payroll_run (id, pay_period_start_date, target_user_id, output_mode, status, owner_host, partitioned, started_at) " +
+                "VALUES (?, ?, 0, ?, ?, ?, true, now())";
+        String partitionSql = "INSERT INTO public.payroll_partition (run_id, partition_no, from_user_id, to_user_id, employees) " +
+                "SELECT ?, bucket, MIN(id), MAX(id), COUNT(*) FROM (" +
+                "SELECT id, (ROW_NUMBER() OVER (ORDER BY id) - 1) / ? AS bucket FROM public.\"user\" WHERE status = 'ACTIVE'" +
+                ") numbered GROUP BY bucket";
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement runPs = conn.prepareStatement(runSql);
+                 PreparedStatement partitionPs = conn.prepareStatement(partitionSql)) {
+                String activeRunId = lockAndFindActiveRun(conn, payPeriodStart, 0);
+                if (activeRunId != null) {
+                    conn.commit();
+                    return activeRunId;
+                }
+                runPs.setString(1, runId);
+                runPs.setDate(2, java.sql.Date.valueOf(payPeriodStart));
+                runPs.setString(3, outputMode.name());
+                runPs.setString(4, PayrollJobState.RUNNING.name());
+                runPs.setString(5, ownerHost);
+                runPs.executeUpdate();
+
+                partitionPs.setString(1, runId);
+                partitionPs.setInt(2, partitionSize);
+                partitionPs.executeUpdate();
+                conn.commit();
+                return null;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Claims one partition of any RUNNING distributed run: a PENDING one, or one whose lease ran out because its
+     * node died. SKIP LOCKED lets every node claim at the same time without waiting on each other.
+     * @return The claimed partition, or null if there is nothing to do.
+     */
+    public Partition claimPartition(String nodeId, int leaseSeconds) throws SQLException {
+        String sql = "UPDATE public.payroll_partition p SET state = 'CLAIMED', owner_node = ?, attempts = attempts + 1, " +
+                "lease_expires_at = now() + interval '1 second' * ? " +
+                "WHERE (p.run_id, p.partition_no) = (" +
+                "SELECT c.run_id, c.partition_no FROM public.payroll_partition c JOIN public.payroll_run r ON r.id = c.run_id " +
+                "WHERE r.status = 'RUNNING' AND (c.state = 'PENDING' OR (c.state = 'CLAIMED' AND c.lease_expires_at < now())) " +
+                "ORDER BY r.created_at, c.partition_no LIMIT 1 FOR UPDATE OF c SKIP LOCKED) " +
+                "RETURNING p.run_id, p.partition_no, p.from_user_id, p.to_user_id, p.attempts";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, nodeId);
+            ps.setInt(2, leaseSeconds);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                Partition partition = new Partition();
+                partition.runId = rs.getString("run_id");
+                partition.partitionNo = rs.getInt("partition_no");
+                partition.fromUserId = rs.getInt("from_user_id");
+                partition.toUserId = rs.getInt("to_user_id");
+                partition.attempts = rs.getInt("attempts");
+                return partition;
+            }
+        }
+    }
+
+    /**
+     * Extends our lease on a partition.
+     * @return false if we lost the partition (lease expired and another node took it) or the run is no longer RUNNING.
+     */
+    public boolean renewLease(Partition partition, String nodeId, int leaseSeconds) throws SQLException {
+        String sql = "UPDATE public.payroll_partition p SET lease_expires_at = now() + interval '1 second' * ? " +
+                "FROM public.payroll_run r WHERE r.id = p.run_id AND p.run_id = ? AND p.partition_no = ? " +
+                "AND p.owner_node = ? AND p.state = 'CLAIMED' RETURNING r.status";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, leaseSeconds);
+            ps.setString(2, partition.runId);
+            ps.setInt(3, partition.partitionNo);
+            ps.setString(4, nodeId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && PayrollJobState.RUNNING.name().equals(rs.getString(1));
+            }
+        }
+    }
+
+    /**
+     * Records a finished partition, if it is still ours.
+     */
+    public void completePartition(Partition partition, String nodeId, int processed, int skipped, int failed) throws SQLException {
+        String sql = "UPDATE public.payroll_partition SET state = 'DONE', lease_expires_at = NULL, last_error = NULL, " +
+                "processed = ?, skipped = ?, failed = ? WHERE run_id = ? AND partition_no = ? AND owner_node = ? AND state = 'CLAIMED'";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, processed);
+            ps.setInt(2, skipped);
+            ps.setInt(3, failed);
+            ps.setString(4, partition.runId);
+            ps.setInt(5, partition.partitionNo);
+            ps.setString(6, nodeId);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Hands a partition back after an error: PENDING again, or FAILED once it has used up its attempts.
+     */
+    public void releasePartition(Partition partition, String nodeId, String error, int maxAttempts) throws SQLException {
+        String sql = "UPDATE public.payroll_partition SET state = CASE WHEN attempts >= ? THEN 'FAILED' ELSE 'PENDING' END, " +
+                "owner_node = NULL, lease_expires_at = NULL, last_error = ? " +
+                "WHERE run_id = ? AND partition_no = ? AND owner_node = ? AND state = 'CLAIMED'";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, maxAttempts);
+            ps.setString(2, error);
+            ps.setString(3, partition.runId);
+            ps.setInt(4, partition.partitionNo);
+            ps.setString(5, nodeId);
+            ps.executeUpdate();
+        }
+    }
+
+    public PartitionProgress sumPartitions(String runId) throws SQLException {
+        String sql = "SELECT COUNT(*), COUNT(*) FILTER (WHERE state IN ('DONE', 'FAILED')), " +
+                "COUNT(*) FILTER (WHERE state = 'FAILED'), COALESCE(SUM(employees), 0), " +
+                "COALESCE(SUM(processed), 0), COALESCE(SUM(skipped), 0), COALESCE(SUM(failed), 0) " +
+                "FROM public.payroll_partition WHERE run_id = ?";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, runId);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                PartitionProgress progress = new PartitionProgress();
+                progress.partitions = rs.getInt(1);
+                progress.finishedPartitions = rs.getInt(2);
+                progress.failedPartitions = rs.getInt(3);
+                progress.employees = rs.getInt(4);
+                progress.processed = rs.getInt(5);
+                progress.skipped = rs.getInt(6);
+                progress.failed = rs.getInt(7);
+                return progress;
+            }
+        }
+    }
+
+    /**
+     * Cancels a RUNNING distributed run; its nodes notice on their next lease renewal. Other runs are cancelled
+     * through the server executing them, so this never ends a run another node is working on.
+     */
+    public boolean cancelPartitionedRun(String runId, String summary) throws SQLException {
+        String sql = "UPDATE public.payroll_run SET status = 'CANCELLED', summary = ?, updated_at = now(), finished_at = now() " +
+                "WHERE id = ? AND status = 'RUNNING' AND partitioned";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, summary);
+            ps.setString(2, runId);
+            return ps.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Moves a RUNNING run to its final state. Only one caller can win, so two nodes finishing the last
+     * partitions at the same time don't both close the run.
+     */
+    public boolean finishRunningRun(String runId, PayrollJobState finalState, String summary) throws SQLException {
+        String sql = "UPDATE public.payroll_run SET status = ?, summary = ?, updated_at = now(), finished_at = now() " +
+                "WHERE id = ? AND status = 'RUNNING'";
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, finalState.name());
+            ps.setString(2, summary);
+            ps.setString(3, runId);
+            return ps.executeUpdate() == 1;
+        }
+    }
+
+    private RunRecord toRecord(ResultSet rs) throws SQLException {
+        RunRecord run = new RunRecord();
+        run.id = rs.getString("id");
+        run.payPeriodStart = rs.getDate("pay_period_start_date").toLocalDate();
+        run.targetUserId = rs.getInt("target_user_id");
+        run.outputMode = PayrollOutputMode.valueOf(rs.getString("output_mode"));
+        run.status = PayrollJobState.valueOf(rs.getString("status"));
+        run.summary = rs.getString("summary");
+        run.partitioned = rs.getBoolean("partitioned");
+        run.scheduleId = rs.getInt("schedule_id"); // 0 when NULL
+        run.kind = rs.getString("kind");
+        return run;
+    }
+
+    public static class RunRecord {
+        String id;
+        LocalDate payPeriodStart;
+        int targetUserId;
+        PayrollOutputMode outputMode;
+        PayrollJobState status;
+        String summary;
+        boolean partitioned;
+        int scheduleId;
+        String kind; // MONTHLY, BACKFILL, DEPARTMENT or RECOMPUTE
+    }
+
+    public static class Partition {
+        String runId;
+        int partitionNo;
+        int fromUserId;
+        int toUserId;
+        int attempts;
+    }
+
+    public static class PartitionProgress {
+        int partitions;
+        int finishedPartitions; // DONE or FAILED
+        int failedPartitions;
+        int employees;
+        int processed;
+        int skipped;
+        int failed;
+    }
+
+    public static class ReopenResult {
+        boolean reopened;
+        String activeRunId; // set when another run for the same month and target is in progress
+    }
+
+    public static class RunnableEmployees {
+        final List<User> employees = new ArrayList<>();
+        int retries; // how many of them are FAILED employees being retried
+    }
+
+    public static class StateCounts {
+        int pending;
+        int done;
+        int skipped;
+        int failed;
+
+        int total() { return pending + done + skipped + failed; }
+    }
+}
@@ -0,0 +1,160 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayrollOutputMode;
+import com.wipro.payroll.common.PayrollSchedule;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Database access for payroll schedules (payroll_schedule).
+ */
+public class PayrollScheduleStore {
+
+    private static final String COLUMNS = "id, name, day_of_month, run_at, period_offset, target_user_id, output_mode, enabled, " +
+            "next_run_at, last_run_at, last_job_id, last_result";
+
+    public int create(PayrollSchedule schedule, int createdBy) throws SQLException {
+        String sql = "INSERT INTO public.payroll_schedule (name, day_of_month, run_at, period_offset, target_user_id, output_mode, " +
+                "enabled, next_run_at, created_by) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?) RETURNING id";
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, schedule.getName());
+            ps.setInt(2, schedule.getDayOfMonth());
+            ps.setTime(3, Time.valueOf(schedule.getRunAt()));
+            ps.setInt(4, schedule.getPeriodOffset());
+            ps.setInt(5, schedule.getTargetUserId());
+            ps.setString(6, schedule.getOutputMode().name());
+            ps.setBoolean(7, schedule.isEnabled());
+            ps.setTimestamp(8, Timestamp.valueOf(schedule.getNextRunAt()));
+            ps.setInt(9, createdBy);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                return rs.getInt("id");
+            }
+        }
+    }
+
+    public List<PayrollSchedule> findAll() throws SQLException {
+        String sql = "SELECT " + COLUMNS + " FROM public.payroll_schedule ORDER BY next_run_at";
+        List<PayrollSchedule> schedules = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                schedules.add(toSchedule(rs));
+            }
+        }
+        return schedules;
+    }
+
+    /**
+     * Turning a schedule back on also moves its next run to the next regular slot, so it doesn't fire for
+     * everything it missed while it was off.
+     */
+    public boolean setEnabled(int scheduleId, boolean enabled, LocalDateTime nextRunAt) throws SQLException {
+        String sql = "UPDATE public.payroll_schedule SET enabled = ?, next_run_at = ? WHERE id = ?";
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setBoolean(1, enabled);
+            ps.setTimestamp(2, Timestamp.valueOf(nextRunAt));
+            ps.setInt(3, scheduleId);
+            return ps.executeUpdate() == 1;
+        }
+    }
+
+    public PayrollSchedule find(int scheduleId) throws SQLException {
+        String sql = "SELECT " + COLUMNS + " FROM public.payroll_schedule WHERE id = ?";
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, scheduleId);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? toSchedule(rs) : null;
+            }
+        }
+    }
+
+    /**
+     * Past runs keep their history; their schedule_id is set to NULL by the foreign key.
+     */
+    public boolean delete(int scheduleId) throws SQLException {
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement("DELETE FROM public.payroll_schedule WHERE id = ?")) {
+            ps.setInt(1, scheduleId);
+            return ps.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Takes one enabled schedule that is due and moves its next_run_at forward in the same transaction.
+     * SKIP LOCKED means that with several servers polling, each due schedule is started by exactly one of them.
+     * Times are the application server's local wall-clock time, not the database's, hence no now() here.
+     * @return The claimed schedule (with its old next_run_at), or null if nothing is due.
+     */
+    public PayrollSchedule claimDue() throws SQLException {
+        String selectSql = "SELECT " + COLUMNS + " FROM public.payroll_schedule WHERE enabled AND next_run_at <= ? " +
+                "ORDER BY next_run_at LIMIT 1 FOR UPDATE SKIP LOCKED";
+        String advanceSql = "UPDATE public.payroll_schedule SET next_run_at = ?, last_run_at = ? WHERE id = ?";
+        try (Connection conn = DatabaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                LocalDateTime now = LocalDateTime.now();
+                PayrollSchedule due = null;
+                try (PreparedStatement ps = conn.prepareStatement(selectSql)) {
+                    ps.setTimestamp(1, Timestamp.valueOf(now));
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            due = toSchedule(rs);
+                        }
+                    }
+                }
+                if (due != null) {
+                    // From now, not from the missed slot: a server that was down for a while runs it once, not once per slot
+                    LocalDateTime next = PayrollScheduler.nextRunAfter(now, due.getDayOfMonth(), due.getRunAt());
+                    try (PreparedStatement ps = conn.prepareStatement(advanceSql)) {
+                        ps.setTimestamp(1, Timestamp.valueOf(next));
+                        ps.setTimestamp(2, Timestamp.valueOf(now));
+                        ps.setInt(3, due.getId());
+                        ps.executeUpdate();
+                    }
+                }
+                conn.commit();
+                return due;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    public void recordResult(int scheduleId, String jobId, String result) throws SQLException {
+        String sql = "UPDATE public.payroll_schedule SET last_job_id = ?, last_result = ? WHERE id = ?";
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setString(1, jobId);
+            ps.setString(2, result);
+            ps.setInt(3, scheduleId);
+            ps.executeUpdate();
+        }
+    }
+
+    private PayrollSchedule toSchedule(ResultSet rs) throws SQLException {
+        PayrollSchedule schedule = new PayrollSchedule();
+        schedule.setId(rs.getInt("id"));
+        schedule.setName(rs.getString("name"));
+        schedule.setDayOfMonth(rs.getInt("day_of_month"));
+        schedule.setRunAt(rs.getTime("run_at").toLocalTime());
+        schedule.setPeriodOffset(rs.getInt("period_offset"));
+        schedule.setTargetUserId(rs.getInt("target_user_id"));
+        schedule.setOutputMode(PayrollOutputMode.valueOf(rs.getString("output_mode")));
+        schedule.setEnabled(rs.getBoolean("enabled"));
+        schedule.setNextRunAt(rs.getTimestamp("next_run_at").toLocalDateTime());
+        Timestamp lastRunAt = rs.getTimestamp("last_run_at");
+        schedule.setLastRunAt(lastRunAt == null ? null : lastRunAt.toLocalDateTime());
+        schedule.setLastJobId(rs.getString("last_job_id"));
+        schedule.setLastResult(rs.getString("last_result"));
+        return schedule;
+    }
+}
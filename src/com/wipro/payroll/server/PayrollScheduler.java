@@ -0,0 +1,90 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayrollRunInProgressException;
+import com.wipro.payroll.common.PayrollSchedule;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts payroll_schedule entries when they are due, so the heavy month-end run can happen at night without
+ * anyone at a terminal. Every server polls; claiming a due schedule is a SKIP LOCKED update, so each one
+ * is started by a single server.
+ *
+ * A scheduled run is a normal persisted job (checkpoints, resume, history), but runs with the engine's
+ * low-priority worker budget.
+ */
+public class PayrollScheduler {
+
+    private static final long POLL_INTERVAL_SECONDS = Long.getLong("payroll.schedulerPollSeconds", 60);
+
+    private final PayrollJobManager jobs;
+    private final PayrollScheduleStore scheduleStore;
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread t = new Thread(runnable, "payroll-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public PayrollScheduler(PayrollJobManager jobs, PayrollScheduleStore scheduleStore) {
+        this.jobs = jobs;
+        this.scheduleStore = scheduleStore;
+    }
+
+    public void start() {
+        poller.scheduleWithFixedDelay(this::startDueSchedules, POLL_INTERVAL_SECONDS, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        System.out.printf("✅ Payroll scheduler polling every %d s.\n", POLL_INTERVAL_SECONDS);
+    }
+
+    private void startDueSchedules() {
+        try {
+            PayrollSchedule due;
+            while ((due = scheduleStore.claimDue()) != null) {
+                startRun(due);
+            }
+        } catch (Exception e) {
+            // Never let an exception kill the scheduled task; the next poll tries again
+            System.err.println("!!! Payroll scheduler poll failed: " + e.getMessage());
+        }
+    }
+
+    private void startRun(PayrollSchedule schedule) throws Exception {
+        // The month of the slot that was claimed, not of today: a 23:59 slot started after midnight, or a missed
+        // slot caught up on after the month has turned, still pays the month it was meant for
+        LocalDate period = schedule.getNextRunAt().toLocalDate().withDayOfMonth(1).minusMonths(schedule.getPeriodOffset());
+        String jobId = null;
+        String result;
+        try {
+            jobId = jobs.submitScheduled(period.getYear(), period.getMonthValue(), schedule.getTargetUserId(),
+                    schedule.getOutputMode(), schedule.getId());
+            result = String.format("Started payroll for %d-%02d.", period.getYear(), period.getMonthValue());
+            System.out.printf("✅ Schedule '%s' started payroll job %s for %d-%02d.\n",
+                    schedule.getName(), jobId, period.getYear(), period.getMonthValue());
+        } catch (PayrollRunInProgressException e) {
+            jobId = e.getJobId();
+            result = "Skipped: " + e.getMessage();
+        } catch (Exception e) {
+            result = "Could not start: " + e.getMessage();
+            System.err.printf("!!! Schedule '%s' could not start payroll: %s\n", schedule.getName(), e.getMessage());
+        }
+        scheduleStore.recordResult(schedule.getId(), jobId, result);
+    }
+
+    /**
+     * The first slot strictly after the given time. Days past the end of a month mean the month's last day,
+     * so "the 31st" runs on 30 April and 28/29 February.
+     */
+    public static LocalDateTime nextRunAfter(LocalDateTime after, int dayOfMonth, LocalTime runAt) {
+        LocalDate month = after.toLocalDate().withDayOfMonth(1);
+        LocalDateTime thisMonth = slotIn(month, dayOfMonth, runAt);
+        return thisMonth.isAfter(after) ? thisMonth : slotIn(month.plusMonths(1), dayOfMonth, runAt);
+    }
+
+    private static LocalDateTime slotIn(LocalDate month, int dayOfMonth, LocalTime runAt) {
+        return month.withDayOfMonth(Math.min(dayOfMonth, month.lengthOfMonth())).atTime(runAt);
+    }
+}
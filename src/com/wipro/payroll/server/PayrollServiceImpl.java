@@ -1,13 +1,14 @@
 package com.wipro.payroll.server;
 
 import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.math.RoundingMode;
 import java.rmi.RemoteException;
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
 import java.rmi.server.UnicastRemoteObject;
-import java.security.MessageDigest;
 import java.sql.*;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -18,24 +19,66 @@ import com.wipro.payroll.common.*;
 public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollService {
     private static final int RMI_OBJECT_PORT = 1100;
 
+    private final PayrollEngine payrollEngine;
+    private final PayrollJobManager payrollJobs;
+    private final PayrollPreviewer payrollPreviewer;
+    private final PayrollScheduleStore payrollSchedules = new PayrollScheduleStore();
+    private final PayrollDraftManager payrollDrafts;
+    // Role, department and status per user, shared by every session so a check is a lookup, not a query
+    private final UserAuthCache authCache = new UserAuthCache();
+    private final SessionManager sessions = new SessionManager(authCache);
+    private final PasswordHasher passwordHasher = new PasswordHasher();
+    // Checked before any query or hash, so guessing passwords can't eat the pool or the hashing threads
+    private final LoginLimiter loginLimiter = new LoginLimiter();
+
     public PayrollServiceImpl() throws RemoteException {
         super(RMI_OBJECT_PORT);
+        this.payrollEngine = new PayrollEngine();
+        this.payrollJobs = new PayrollJobManager(payrollEngine);
+        this.payrollJobs.resumeUnfinishedRuns();
+        this.payrollPreviewer = new PayrollPreviewer(payrollEngine);
+        this.payrollDrafts = new PayrollDraftManager(payrollEngine);
+        if (Boolean.parseBoolean(System.getProperty("payroll.partitionWorker", "true"))) {
+            new PayrollPartitionWorker(payrollEngine, new PayrollRunStore()).start();
+        }
+        if (Boolean.parseBoolean(System.getProperty("payroll.scheduler", "true"))) {
+            new PayrollScheduler(payrollJobs, payrollSchedules).start();
+        }
         System.out.println("✅ PayrollServiceImpl instance created and ready.");
     }
 
     // --- AUTHENTICATION ---
     @Override
     public User login(String username, String password) throws RemoteException {
+        String account = username == null ? "" : username.trim().toLowerCase();
+        LoginLimiter.Permit permit;
+        try {
+            permit = loginLimiter.admit(account, clientHost());
+        } catch (LoginThrottledException e) {
+            System.err.printf("⚠️  Login for '%s' turned away: %s\n", username, e.getMessage());
+            throw e;
+        }
+        try {
+            return authenticate(username, password);
+        } finally {
+            permit.release();
+        }
+    }
+
+    private User authenticate(String username, String password) throws RemoteException {
         User user = null;
+        String storedHash = null;
 
-        String sql = "SELECT id, username, f_name, l_name, email, phone, ic, status, role " +
-                "FROM public.user WHERE username = ? AND pwd_hash = ?";
+        // The department comes along so the session can answer manager checks without another query
+        String sql = "SELECT u.id, u.username, u.f_name, u.l_name, u.email, u.phone, u.ic, u.status, u.role, u.pwd_hash, j.dept_id " +
+                "FROM public.\"user\" u LEFT JOIN public.job_titles j ON u.job_title_id = j.id " +
+                "WHERE u.username = ?";
 
-        try (Connection conn = DatabaseManager.getConnection(); // Assumes you have a DatabaseManager
+        // Step 1: fetch the account; the connection goes back to the pool before the (slow) bcrypt check
+        try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
 
             ps.setString(1, username);
-            ps.setString(2, hashPassword(password)); // Hash the provided password for comparison
 
             ResultSet rs = ps.executeQuery();
 
@@ -54,6 +97,17 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
                 if (roleStr != null) {
                     user.setRole(Role.valueOf(roleStr.toUpperCase()));
                 }
+
+                int departmentId = rs.getInt("dept_id");
+                if (rs.wasNull()) {
+                    departmentId = -1; // no job title yet
+                }
+                user.setDeptId(departmentId);
+                String statusStr = rs.getString("status");
+                if (statusStr != null) {
+                    user.setStatus(UserStatus.valueOf(statusStr.toUpperCase()));
+                }
+                storedHash = rs.getString("pwd_hash");
             }
 
         } catch (SQLException e) {
@@ -61,32 +115,69 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
             e.printStackTrace();
             // It's good practice to wrap the SQLException in a RemoteException for the client
             throw new RemoteException("Server database error, please try again later.", e);
-        } catch (Exception e) {
-            // Catch hashing errors
-            e.printStackTrace();
-            throw new RemoteException("Server security error.", e);
         }
 
+        // Step 2: check the password on the hashing pool
+        if (user == null || !passwordHasher.verify(password, storedHash)) {
+            return null; // Unknown user or wrong password
+        }
+
+        // Step 3: now that the password is known, replace a legacy SHA-256 hash with bcrypt
+        if (passwordHasher.needsRehash(storedHash)) {
+            rehashPassword(user.getId(), storedHash, password);
+        }
+
+        authCache.put(user.getId(), user.getRole(), user.getDeptId(), user.getStatus());
+        user.setSessionToken(sessions.open(user.getId()));
         return user; // Returns the full User object on success, or null on failure
     }
 
-    private String hashPassword(String password) {
+    @Override
+    public void logout(String sessionToken) throws RemoteException {
+        sessions.close(sessionToken);
+    }
+
+    // The caller's host for RMI calls; "local" when called from inside the server (e.g. a test harness)
+    private static String clientHost() {
         try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(password.getBytes());
-            BigInteger number = new BigInteger(1, hash);
-            StringBuilder hexString = new StringBuilder(number.toString(16));
-            while (hexString.length() < 64) {
-                hexString.insert(0, '0');
+            return RemoteServer.getClientHost();
+        } catch (ServerNotActiveException e) {
+            return "local";
+        }
+    }
+
+    // Best effort: if it fails, the old hash still works and the upgrade is tried again at the next login
+    private void rehashPassword(int userId, String oldHash, String password) {
+        String sql = "UPDATE public.\"user\" SET pwd_hash = ? WHERE id = ? AND pwd_hash = ?";
+        try {
+            String newHash = passwordHasher.hash(password);
+            try (Connection conn = DatabaseManager.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setString(1, newHash);
+                ps.setInt(2, userId);
+                ps.setString(3, oldHash); // skip it if the password was changed in the meantime
+                if (ps.executeUpdate() > 0) {
+                    System.out.printf("✅ Password hash of user %d upgraded to bcrypt.\n", userId);
+                }
             }
-            return hexString.toString();
-        } catch (Exception e) {
-            throw new RuntimeException("Error hashing password", e);
+        } catch (RemoteException | SQLException e) {
+            System.err.printf("⚠️  Could not upgrade the password hash of user %d: %s\n", userId, e.getMessage());
         }
     }
 
     @Override
-    public boolean verifyCurrentUserPassword(int actorUserId, String password) throws RemoteException {
+    public boolean verifyCurrentUserPassword(String sessionToken, String password) throws RemoteException {
+        int actorUserId = sessions.require(sessionToken).getUserId();
+        // Same limits as login, so a stolen session can't be used to guess the password either
+        LoginLimiter.Permit permit = loginLimiter.admit("#" + actorUserId, clientHost());
+        try {
+            return checkPassword(actorUserId, password);
+        } finally {
+            permit.release();
+        }
+    }
+
+    private boolean checkPassword(int actorUserId, String password) throws RemoteException {
         String storedHash = "";
         String sql = "SELECT pwd_hash FROM public.\"user\" WHERE id = ?";
 
@@ -104,13 +195,13 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
             throw new RemoteException("Database error verifying password.", e);
         }
 
-        // Hash the provided password and compare it to the stored hash
-        String providedHash = hashPassword(password); // Reuse our existing helper
-        return providedHash.equals(storedHash);
+        // Compare outside the connection block: a bcrypt check must not hold a pooled connection
+        return passwordHasher.verify(password, storedHash);
     }
 
     @Override
-    public Payslip getPayslipById(int actorUserId, int payslipId) throws RemoteException {
+    public Payslip getPayslipById(String sessionToken, int payslipId) throws RemoteException {
+        sessions.require(sessionToken);
         // Add security check for HR role here
         try {
             return fetchFullPayslipDetails(payslipId);
@@ -160,13 +251,9 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public boolean deleteUser(int actorUserId, int userIdToDelete) throws RemoteException {
+    public boolean deleteUser(String sessionToken, int userIdToDelete) throws RemoteException {
         // Security Check for HR Role
-        try {
-            if (!checkUserRole(actorUserId, Role.HR)) {
-                throw new SecurityException("Access Denied: You do not have HR privileges.");
-            }
-        } catch (SQLException e) { throw new RemoteException("Could not verify permissions.", e); }
+        int actorUserId = sessions.require(sessionToken, Role.HR).getUserId();
 
         // Safety Check: Prevent an admin from deleting themselves
         if (actorUserId == userIdToDelete) {
@@ -179,6 +266,10 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, userIdToDelete);
             int rowsAffected = ps.executeUpdate();
+            if (rowsAffected > 0) {
+                authCache.invalidate(userIdToDelete);
+                sessions.closeAllFor(userIdToDelete);
+            }
             return rowsAffected > 0;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -189,7 +280,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
 
 
     @Override
-    public UserProfile getMyProfile(int userId) throws RemoteException {
+    public UserProfile getMyProfile(String sessionToken) throws RemoteException {
+        int userId = sessions.require(sessionToken).getUserId();
         UserProfile userProfile = new UserProfile();
 
         // Query 1: Get User, Department, Job Title, and Emp Type in one go using JOINs
@@ -222,7 +314,7 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
             }
 
             // Query 2: Get Bank Details (using your existing method logic)
-            userProfile.setBankDetails(this.getMyBankDetails(userId));
+            userProfile.setBankDetails(this.getMyBankDetails(sessionToken));
 
             // Query 3: Get Payslip History (you'll need a method for this)
             // For now, let's assume getMyPayslipHistory(userId) exists and fetches the list
@@ -238,7 +330,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public Payslip getMyLatestPayslip(int userId) throws RemoteException {
+    public Payslip getMyLatestPayslip(String sessionToken) throws RemoteException {
+        int userId = sessions.require(sessionToken).getUserId();
         String latestPayslipIdSql = "SELECT id FROM payslip WHERE user_id = ? ORDER BY pay_period_end_date DESC LIMIT 1";
         int payslipId = -1;
 
@@ -264,7 +357,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public List<String> getExistingPayrollPeriods(int actorUserId) throws RemoteException {
+    public List<String> getExistingPayrollPeriods(String sessionToken) throws RemoteException {
+        sessions.require(sessionToken);
         // Add security check for HR role here
         List<String> periods = new ArrayList<>();
         // This query finds all unique YYYY-MM periods from the payslip table
@@ -286,7 +380,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
 
     // Emp
     @Override
-    public UserBankDetails getMyBankDetails(int userId) throws RemoteException {
+    public UserBankDetails getMyBankDetails(String sessionToken) throws RemoteException {
+        int userId = sessions.require(sessionToken).getUserId();
         UserBankDetails details = null;
         String sql = "SELECT user_id, bank_name, acc_no, acc_name FROM user_bank_details WHERE user_id = ?";
         try(Connection conn = DatabaseManager.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
@@ -307,7 +402,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public boolean updateMyBankDetails(int userId, UserBankDetails details) throws RemoteException {
+    public boolean updateMyBankDetails(String sessionToken, UserBankDetails details) throws RemoteException {
+        int userId = sessions.require(sessionToken).getUserId();
         String sql = "INSERT INTO user_bank_details (user_id, bank_name, acc_no, acc_name) VALUES (?, ?, ?, ?) " +
                 "ON CONFLICT (user_id) DO UPDATE SET " +
                 "bank_name = EXCLUDED.bank_name, acc_no = EXCLUDED.acc_no, acc_name = EXCLUDED.acc_name";
@@ -330,18 +426,12 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     // =================================================================
 
     @Override
-    public String createUser(int actorUserId, User newUser, String password) throws RemoteException {
+    public String createUser(String sessionToken, User newUser, String password) throws RemoteException {
         // Step 1: Security Check - Ensure the person creating the user has the HR role.
-        try {
-            if (!checkUserRole(actorUserId, Role.HR)) {
-                throw new SecurityException("Access Denied: User with ID " + actorUserId + " does not have HR privileges.");
-            }
-        } catch (SQLException e) {
-            throw new RemoteException("Could not verify user permissions.", e);
-        }
+        int actorUserId = sessions.require(sessionToken, Role.HR).getUserId();
 
         // Step 2: Prepare the data for insertion
-        String hashedPassword = hashPassword(password); // Reuse our SHA-256 hashing method
+        String hashedPassword = passwordHasher.hash(password); // bcrypt, on the hashing pool
 
         String sql = "INSERT INTO public.\"user\" (job_title_id, emp_type_id, username, f_name, l_name, email, phone, ic, pwd_hash, status, role) " +
                 "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 'ACTIVE', 'EMPLOYEE')"; // New users default to EMPLOYEE role
@@ -400,15 +490,9 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public List<User> readAllUsers(int actorUserId) throws RemoteException {
+    public List<User> readAllUsers(String sessionToken) throws RemoteException {
         // Step 1: Security Check
-        try {
-            if (!checkUserRole(actorUserId, Role.HR)) {
-                throw new SecurityException("Access Denied: User with ID " + actorUserId + " does not have HR privileges.");
-            }
-        } catch (SQLException e) {
-            throw new RemoteException("Could not verify user permissions.", e);
-        }
+        sessions.require(sessionToken, Role.HR);
 
         List<User> userList = new ArrayList<>();
         // Step 2: Efficiently query users with their job and department info
@@ -448,14 +532,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public User readUserById(int userId, int targetUserId) throws RemoteException {
-        try {
-            if (!checkUserRole(userId, Role.HR)) {
-                throw new SecurityException("Access Denied: User with ID " + userId + " does not have HR privileges.");
-            }
-        } catch (SQLException e) {
-            throw new RemoteException("Could not verify user permissions.", e);
-        }
+    public User readUserById(String sessionToken, int targetUserId) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
 
         // Add security check for HR role here
         User user = null;
@@ -496,7 +574,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public boolean updateUser(int userId, User user) throws RemoteException {
+    public boolean updateUser(String sessionToken, User user) throws RemoteException {
+        sessions.require(sessionToken);
         // Add security check for HR role here
         String sql = "UPDATE public.\"user\" SET f_name = ?, l_name = ?, email = ?, phone = ?, " +
                 "ic = ?, job_title_id = ?, emp_type_id = ? WHERE id = ?";
@@ -513,28 +592,16 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
             ps.setInt(8, user.getId());
 
             int rowsAffected = ps.executeUpdate();
+            authCache.invalidate(user.getId()); // the job title decides the department
             return rowsAffected > 0;
         } catch (SQLException e) {
             throw new RemoteException("Error updating user", e);
         }
     }
 
-    private boolean checkUserRole(int userId, Role requiredRole) throws SQLException {
-        String sql = "SELECT role FROM public.\"user\" WHERE id = ?";
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, userId);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                Role userRole = Role.valueOf(rs.getString("role").toUpperCase());
-                return userRole == requiredRole;
-            }
-        }
-        return false; // User not found
-    }
-
     @Override
-    public List<JobTitle> getAllJobTitles(int userId) throws RemoteException {
+    public List<JobTitle> getAllJobTitles(String sessionToken) throws RemoteException {
+        sessions.require(sessionToken);
         List<JobTitle> jobTitles = new ArrayList<>();
         String sql = "SELECT id, dept_id, title, level, description FROM public.job_titles ORDER BY id";
         try (Connection conn = DatabaseManager.getConnection();
@@ -556,7 +623,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public List<EmpType> getAllEmpTypes(int userId) throws RemoteException {
+    public List<EmpType> getAllEmpTypes(String sessionToken) throws RemoteException {
+        sessions.require(sessionToken);
         List<EmpType> empTypes = new ArrayList<>();
         String sql = "SELECT id, name FROM public.emp_types ORDER BY id";
         try (Connection conn = DatabaseManager.getConnection();
@@ -575,7 +643,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public List<PayTemplate> getPayTemplatesForJobTitle(int actorUserId, int jobTitleId) throws RemoteException {
+    public List<PayTemplate> getPayTemplatesForJobTitle(String sessionToken, int jobTitleId) throws RemoteException {
+        sessions.require(sessionToken);
         // Add security check for HR role here
         List<PayTemplate> templates = new ArrayList<>();
         String sql = "SELECT id, job_title_id, description, type, amount FROM public.pay_templates WHERE job_title_id = ?";
@@ -599,7 +668,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public boolean updatePayTemplateItem(int actorUserId, int payTemplateItemId, BigDecimal newAmount) throws RemoteException {
+    public boolean updatePayTemplateItem(String sessionToken, int payTemplateItemId, BigDecimal newAmount) throws RemoteException {
+        sessions.require(sessionToken);
         // Add security check for HR role here
         String sql = "UPDATE public.pay_templates SET amount = ? WHERE id = ?";
         try (Connection conn = DatabaseManager.getConnection();
@@ -607,6 +677,7 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
             ps.setBigDecimal(1, newAmount);
             ps.setInt(2, payTemplateItemId);
             int rowsAffected = ps.executeUpdate();
+            payrollEngine.invalidatePayRules();
             return rowsAffected > 0;
         } catch (SQLException e) {
             throw new RemoteException("Error updating pay template item", e);
@@ -614,7 +685,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public PayTemplate addPayTemplateItem(int actorUserId, PayTemplate newItem) throws RemoteException {
+    public PayTemplate addPayTemplateItem(String sessionToken, PayTemplate newItem) throws RemoteException {
+        sessions.require(sessionToken);
         // Add security check for HR role here
         String sql = "INSERT INTO public.pay_templates (job_title_id, emp_type_id, description, type, amount) " +
                 "VALUES (?, ?, ?, CAST(? AS pay_item_type_enum), ?) RETURNING id";
@@ -630,6 +702,7 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
             ResultSet rs = ps.executeQuery(); // Use executeQuery for RETURNING
             if (rs.next()) {
                 newItem.setId(rs.getInt(1)); // Set the new ID on the object
+                payrollEngine.invalidatePayRules();
                 return newItem;
             }
         } catch (SQLException e) {
@@ -640,13 +713,15 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public boolean deletePayTemplateItem(int userId, int payTemplateItemId) throws RemoteException {
+    public boolean deletePayTemplateItem(String sessionToken, int payTemplateItemId) throws RemoteException {
+        sessions.require(sessionToken);
         // Add security check for HR role here
         String sql = "DELETE FROM public.pay_templates WHERE id = ?";
         try (Connection conn = DatabaseManager.getConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ps.setInt(1, payTemplateItemId);
             int rowsAffected = ps.executeUpdate();
+            payrollEngine.invalidatePayRules();
             return rowsAffected > 0;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -655,121 +730,9 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
 
-    private void processPayrollForEmployee(User employee, LocalDate startDate, LocalDate endDate) throws SQLException {
-        List<PayItem> finalPayItems = new ArrayList<>();
-        BigDecimal grossPay = BigDecimal.ZERO;
-
-        try (Connection conn = DatabaseManager.getConnection()) {
-            conn.setAutoCommit(false); // START TRANSACTION
-            try {
-                // Step A: Gather all RULES from pay_templates
-                Map<String, PayTemplate> rules = new HashMap<>();
-                String rulesSql = "SELECT * FROM pay_templates WHERE (job_title_id IS NULL AND emp_type_id IS NULL) OR (job_title_id IS NULL AND emp_type_id = ?) OR (job_title_id = ?)";
-                try (PreparedStatement ps = conn.prepareStatement(rulesSql)) {
-                    ps.setInt(1, employee.getEmpTypeId());
-                    ps.setInt(2, employee.getJobTitleId());
-                    ResultSet rs = ps.executeQuery();
-                    while (rs.next()) {
-                        PayTemplate item = new PayTemplate();
-                        item.setDescription(rs.getString("description"));
-                        item.setType(PayItemType.valueOf(rs.getString("type")));
-                        item.setAmount(rs.getBigDecimal("amount"));
-                        rules.put(item.getDescription(), item);
-                    }
-                }
-
-                List<PayItem> variableItems = new ArrayList<>();
-                String bonusSql = "SELECT name, amount, type FROM bonuses WHERE user_id = ? AND pay_period_start_date = ? AND is_approved = true";
-                try (PreparedStatement ps = conn.prepareStatement(bonusSql)) {
-                    ps.setInt(1, employee.getId());
-                    ps.setDate(2, java.sql.Date.valueOf(startDate));
-                    ResultSet rs = ps.executeQuery();
-                    while (rs.next()) {
-                        PayItem bonusItem = new PayItem();
-                        bonusItem.setName(rs.getString("name"));
-                        bonusItem.setAmount(rs.getBigDecimal("amount"));
-                        bonusItem.setType(PayItemType.valueOf(rs.getString("type")));
-                        variableItems.add(bonusItem); // Add found bonuses to a temporary list
-                    }
-                }
-
-                // --- Step C: Calculate Gross Pay & build the final pay item list ---
-                // First, add all standard earnings from the templates
-                for (PayTemplate rule : rules.values()) {
-                    if (rule.getType() == PayItemType.EARNING && !rule.getDescription().contains("Leave Entitlement")) {
-                        grossPay = grossPay.add(rule.getAmount());
-                        PayItem earningItem = new PayItem();
-                        earningItem.setName(rule.getDescription());
-                        earningItem.setType(PayItemType.EARNING);
-                        earningItem.setAmount(rule.getAmount());
-                        finalPayItems.add(earningItem);
-                    }
-                }
-                // NEXT, add all variable earnings (like bonuses) to the gross pay and the final list
-                for (PayItem varItem : variableItems) {
-                    if (varItem.getType() == PayItemType.EARNING) {
-                        grossPay = grossPay.add(varItem.getAmount());
-                        finalPayItems.add(varItem);
-                    }
-                }
-
-                // Step C: Calculate Deductions (including percentages)
-                BigDecimal totalDeductions = BigDecimal.ZERO;
-                for (PayTemplate rule : rules.values()) {
-                    if (rule.getType() == PayItemType.DEDUCTION) {
-                        BigDecimal deductionAmount;
-                        if (rule.getDescription().contains("EPF") || rule.getDescription().contains("EIS")) {
-                            deductionAmount = grossPay.multiply(rule.getAmount());
-                        } else {
-                            deductionAmount = rule.getAmount();
-                        }
-                        totalDeductions = totalDeductions.add(deductionAmount);
-                        PayItem deductionItem = new PayItem();
-                        deductionItem.setName(rule.getDescription());
-                        deductionItem.setType(PayItemType.DEDUCTION);
-                        deductionItem.setAmount(deductionAmount.setScale(2, RoundingMode.HALF_UP));
-                        finalPayItems.add(deductionItem);
-                    }
-                }
-                BigDecimal netPay = grossPay.subtract(totalDeductions);
-
-                // Step D: Save the final historical record
-                String payslipSql = "INSERT INTO payslip (user_id, pay_period_start_date, pay_period_end_date, gross_earnings, total_deductions, net_pay) VALUES (?, ?, ?, ?, ?, ?) RETURNING id";
-                int newPayslipId;
-                try (PreparedStatement ps = conn.prepareStatement(payslipSql)) {
-                    ps.setInt(1, employee.getId());
-                    ps.setDate(2, java.sql.Date.valueOf(startDate));
-                    ps.setDate(3, java.sql.Date.valueOf(endDate));
-                    ps.setBigDecimal(4, grossPay.setScale(2, RoundingMode.HALF_UP));
-                    ps.setBigDecimal(5, totalDeductions.setScale(2, RoundingMode.HALF_UP));
-                    ps.setBigDecimal(6, netPay.setScale(2, RoundingMode.HALF_UP));
-                    ResultSet rs = ps.executeQuery();
-                    rs.next();
-                    newPayslipId = rs.getInt(1);
-                }
-
-                String itemsSql = "INSERT INTO pay_items (payslip_id, name, type, amount) VALUES (?, ?, CAST(? AS pay_item_type_enum), ?)";
-                try (PreparedStatement ps = conn.prepareStatement(itemsSql)) {
-                    for (PayItem item : finalPayItems) {
-                        ps.setInt(1, newPayslipId);
-                        ps.setString(2, item.getName());
-                        ps.setString(3, item.getType().name());
-                        ps.setBigDecimal(4, item.getAmount());
-                        ps.addBatch();
-                    }
-                    ps.executeBatch();
-                }
-
-                conn.commit(); // COMMIT TRANSACTION
-            } catch (Exception e) {
-                conn.rollback(); // ROLLBACK TRANSACTION ON ERROR
-                throw new SQLException(e);
-            }
-        }
-    }
-
     @Override
-    public List<Department> getAllDepartments(int actorUserId) throws RemoteException {
+    public List<Department> getAllDepartments(String sessionToken) throws RemoteException {
+        sessions.require(sessionToken);
         // Add security check for HR role here
         List<Department> departments = new ArrayList<>();
         String sql = "SELECT id, name FROM public.departments ORDER BY name ASC";
@@ -789,7 +752,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public Department createDepartment(int actorUserId, Department newDepartment) throws RemoteException {
+    public Department createDepartment(String sessionToken, Department newDepartment) throws RemoteException {
+        sessions.require(sessionToken);
         // Add security check for HR role here
         String sql = "INSERT INTO public.departments (name) VALUES (?) RETURNING id";
         try (Connection conn = DatabaseManager.getConnection();
@@ -811,7 +775,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public JobTitle createJobTitle(int actorUserId, JobTitle newJobTitle) throws RemoteException {
+    public JobTitle createJobTitle(String sessionToken, JobTitle newJobTitle) throws RemoteException {
+        sessions.require(sessionToken);
         // Add security check for HR role here
         String sql = "INSERT INTO public.job_titles (dept_id, title, level) VALUES (?, ?, ?) RETURNING id";
         try (Connection conn = DatabaseManager.getConnection();
@@ -822,6 +787,7 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
             ResultSet rs = ps.executeQuery();
             if (rs.next()) {
                 newJobTitle.setId(rs.getInt(1));
+                authCache.invalidateAll(); // departments are resolved through job titles
                 return newJobTitle;
             }
         } catch (SQLException e) {
@@ -836,14 +802,15 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
 
 
     @Override
-    public List<PayslipSummary> getAllPayslips(int actorUserId) throws RemoteException {
+    public List<PayslipSummary> getAllPayslips(String sessionToken) throws RemoteException {
+        sessions.require(sessionToken);
         // Add security check for HR role here
         List<PayslipSummary> summaries = new ArrayList<>();
         String sql = "SELECT p.id, p.user_id, u.f_name, u.l_name, p.pay_period_start_date, p.net_pay " +
                 "FROM public.payslip p " +
                 "JOIN public.\"user\" u ON p.user_id = u.id " +
                 "ORDER BY p.pay_period_start_date DESC, u.l_name ASC";
-        try (Connection conn = DatabaseManager.getConnection();
+        try (Connection conn = DatabaseManager.getBatchConnection();
              PreparedStatement ps = conn.prepareStatement(sql)) {
             ResultSet rs = ps.executeQuery();
             while (rs.next()) {
@@ -863,95 +830,283 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
 
 
     @Override
-    public String runMonthlyPayrollForTarget(int actorUserId, int year, int month, int targetUserId) throws RemoteException {
+    public String runMonthlyPayrollForTarget(String sessionToken, int year, int month, int targetUserId) throws RemoteException {
+        return runMonthlyPayrollForTarget(sessionToken, year, month, targetUserId, PayrollOutputMode.BATCHED_INSERT);
+    }
+
+    @Override
+    public String runMonthlyPayrollForTarget(String sessionToken, int year, int month, int targetUserId, PayrollOutputMode outputMode) throws RemoteException {
         // 1. Security Check for HR role
+        sessions.require(sessionToken, Role.HR);
+
+        // 2. Run it as a persisted job so a crash halfway can be resumed from the last checkpoint
         try {
-            if (!checkUserRole(actorUserId, Role.HR)) {
-                throw new SecurityException("Access Denied: You do not have HR privileges to run payroll.");
-            }
+            String jobId = payrollJobs.submit(year, month, targetUserId, outputMode);
+            return payrollJobs.awaitSummary(jobId);
+        } catch (PayrollRunInProgressException e) {
+            return e.getMessage(); // the other run pays these employees; answer now instead of waiting on it
         } catch (SQLException e) {
-            throw new RemoteException("Could not verify user permissions.", e);
+            throw new RemoteException("Could not create the payroll job.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for the payroll run.", e);
         }
+    }
 
-        // 2. Setup pay period and fetch eligible employees
-        LocalDate payPeriodStart = LocalDate.of(year, month, 1);
-        List<User> employeesToPay = new ArrayList<>();
+    @Override
+    public String recomputePayrollForTarget(String sessionToken, int year, int month, int targetUserId) throws RemoteException {
+        // 1. Security Check for HR role
+        sessions.require(sessionToken, Role.HR);
 
-        // Start with the base SQL query
-        StringBuilder fetchUsersSql = new StringBuilder(
-                "SELECT id, username, f_name, l_name, job_title_id, emp_type_id FROM public.\"user\" WHERE status = 'ACTIVE'"
-        );
+        // 2. Recompute only the payslips whose inputs changed since they were generated, as a job
+        try {
+            String jobId = payrollJobs.submitRecompute(year, month, targetUserId);
+            return payrollJobs.awaitSummary(jobId);
+        } catch (PayrollRunInProgressException e) {
+            return e.getMessage();
+        } catch (SQLException e) {
+            throw new RemoteException("Could not recompute the payroll.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for the payroll re-run.", e);
+        }
+    }
 
-        // SECURELY add the condition if we are targeting a single user
-        if (targetUserId != 0) {
-            fetchUsersSql.append(" AND id = ?");
+    @Override
+    public String submitPayrollRecomputeJob(String sessionToken, int year, int month, int targetUserId) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        try {
+            return payrollJobs.submitRecompute(year, month, targetUserId);
+        } catch (SQLException e) {
+            throw new RemoteException("Could not create the payroll re-run job.", e);
         }
+    }
 
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement ps = conn.prepareStatement(fetchUsersSql.toString())) {
+    @Override
+    public String submitPayrollJob(String sessionToken, int year, int month, int targetUserId, PayrollOutputMode outputMode) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        try {
+            return payrollJobs.submit(year, month, targetUserId, outputMode);
+        } catch (SQLException e) {
+            throw new RemoteException("Could not create the payroll job.", e);
+        }
+    }
 
-            // Set the parameter ONLY if we're fetching a single user
-            if (targetUserId != 0) {
-                ps.setInt(1, targetUserId);
-            }
+    @Override
+    public String submitDistributedPayrollJob(String sessionToken, int year, int month, PayrollOutputMode outputMode) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        try {
+            return payrollJobs.submitPartitioned(year, month, outputMode);
+        } catch (SQLException e) {
+            throw new RemoteException("Could not create the distributed payroll job.", e);
+        }
+    }
 
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                User u = new User();
-                u.setId(rs.getInt("id"));
-                u.setUsername(rs.getString("username"));
-                u.setJobTitleId(rs.getInt("job_title_id"));
-                u.setEmpTypeId(rs.getInt("emp_type_id"));
-                employeesToPay.add(u);
-            }
+    @Override
+    public String submitPayrollBackfillJob(String sessionToken, int startYear, int startMonth, int endYear, int endMonth,
+                                           int targetUserId, PayrollOutputMode outputMode) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        if (LocalDate.of(endYear, endMonth, 1).isBefore(LocalDate.of(startYear, startMonth, 1))) {
+            throw new IllegalArgumentException("The end period must not be before the start period.");
+        }
+        try {
+            return payrollJobs.submitRange(startYear, startMonth, endYear, endMonth, targetUserId, outputMode);
         } catch (SQLException e) {
-            throw new RemoteException("Could not fetch list of employees.", e);
-        }
-
-        // 3. Loop through the list (which is either ALL users or just ONE user) and process payroll
-        int successCount = 0;
-        int failureCount = 0;
-        int skippedCount = 0;
-
-        for (User employee : employeesToPay) {
-            try (Connection conn = DatabaseManager.getConnection()) {
-                // Check if a payslip already exists for this user and period to prevent duplicates
-                String checkSql = "SELECT id FROM payslip WHERE user_id = ? AND pay_period_start_date = ?";
-                PreparedStatement checkPs = conn.prepareStatement(checkSql);
-                checkPs.setInt(1, employee.getId());
-                checkPs.setDate(2, java.sql.Date.valueOf(payPeriodStart));
-                if (checkPs.executeQuery().next()) {
-                    System.out.printf("Skipping %s: Payslip for this period already exists.\n", employee.getUsername());
-                    skippedCount++;
-                    continue; // Move to the next employee
-                }
+            throw new RemoteException("Could not create the payroll backfill job.", e);
+        }
+    }
 
-                // If it doesn't exist, process it using our existing helper method
-                processPayrollForEmployee(employee, payPeriodStart, payPeriodStart.withDayOfMonth(payPeriodStart.lengthOfMonth()));
-                System.out.printf("Successfully processed payroll for: %s\n", employee.getUsername());
-                successCount++;
-            } catch (Exception e) {
-                System.err.printf("!!! FAILED to process payroll for %s: %s\n", employee.getUsername(), e.getMessage());
-                failureCount++;
+    @Override
+    public String submitPayrollDepartmentJob(String sessionToken, int year, int month, List<Integer> departmentIds) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        if (departmentIds == null || departmentIds.isEmpty()) {
+            throw new IllegalArgumentException("At least one department is required.");
+        }
+        try {
+            return payrollJobs.submitDepartments(year, month, departmentIds.stream().distinct().toList());
+        } catch (SQLException e) {
+            throw new RemoteException("Could not create the department payroll job.", e);
+        }
+    }
+
+    @Override
+    public PayrollJobStatus getPayrollJobStatus(String sessionToken, String jobId) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        try {
+            return payrollJobs.getStatus(jobId);
+        } catch (SQLException e) {
+            throw new RemoteException("Could not read the payroll job status.", e);
+        }
+    }
+
+    @Override
+    public boolean cancelPayrollJob(String sessionToken, String jobId) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        try {
+            return payrollJobs.cancel(jobId);
+        } catch (SQLException e) {
+            throw new RemoteException("Could not cancel the payroll job.", e);
+        }
+    }
+
+    @Override
+    public boolean resumePayrollJob(String sessionToken, String jobId) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        try {
+            return payrollJobs.resume(jobId);
+        } catch (SQLException e) {
+            throw new RemoteException("Could not resume the payroll job.", e);
+        }
+    }
+
+    @Override
+    public PayrollPreview previewPayroll(String sessionToken, int year, int month, int targetUserId,
+                                         Map<Integer, BigDecimal> templateAmountOverrides) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        try {
+            return payrollPreviewer.preview(year, month, targetUserId, templateAmountOverrides);
+        } catch (SQLException e) {
+            throw new RemoteException("Could not calculate the payroll preview.", e);
+        }
+    }
+
+    @Override
+    public List<PayrollPreviewLine> getPayrollPreviewPage(String sessionToken, String previewId, int offset, int limit) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        List<PayrollPreviewLine> page = payrollPreviewer.page(previewId, offset, limit);
+        if (page == null) {
+            throw new RemoteException("Payroll preview " + previewId + " not found or expired. Run the preview again.");
+        }
+        return page;
+    }
+
+    // --- PAYROLL DRAFTS ---
+
+    @Override
+    public PayrollDraft createPayrollDraft(String sessionToken, int year, int month, int targetUserId) throws RemoteException {
+        int actorUserId = sessions.require(sessionToken, Role.HR).getUserId();
+        try {
+            return payrollDrafts.create(year, month, targetUserId, actorUserId);
+        } catch (SQLException e) {
+            throw new RemoteException("Could not create the payroll draft.", e);
+        }
+    }
+
+    @Override
+    public List<PayrollDraft> getPayrollDrafts(String sessionToken) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        try {
+            return payrollDrafts.listOpen();
+        } catch (SQLException e) {
+            throw new RemoteException("Could not load the payroll drafts.", e);
+        }
+    }
+
+    @Override
+    public String promotePayrollDraft(String sessionToken, int draftId) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        try {
+            String summary = payrollDrafts.promote(draftId);
+            return summary != null ? summary : "Draft " + draftId + " is not open (unknown, already promoted or discarded).";
+        } catch (SQLException e) {
+            throw new RemoteException("Could not promote the payroll draft.", e);
+        }
+    }
+
+    @Override
+    public boolean discardPayrollDraft(String sessionToken, int draftId) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        try {
+            return payrollDrafts.discard(draftId);
+        } catch (SQLException e) {
+            throw new RemoteException("Could not discard the payroll draft.", e);
+        }
+    }
+
+    // --- PAYROLL SCHEDULES & HISTORY ---
+
+    @Override
+    public int createPayrollSchedule(String sessionToken, PayrollSchedule schedule) throws RemoteException {
+        int actorUserId = sessions.require(sessionToken, Role.HR).getUserId();
+        try {
+            if (schedule.getName() == null || schedule.getName().isBlank() || schedule.getRunAt() == null
+                    || schedule.getDayOfMonth() < 1 || schedule.getDayOfMonth() > 31 || schedule.getPeriodOffset() < 0) {
+                throw new IllegalArgumentException("A schedule needs a name, a day of month (1-31), a time and a period offset of 0 or more.");
             }
+            if (schedule.getOutputMode() == null) {
+                schedule.setOutputMode(PayrollOutputMode.BATCHED_INSERT);
+            }
+            schedule.setNextRunAt(PayrollScheduler.nextRunAfter(LocalDateTime.now(), schedule.getDayOfMonth(), schedule.getRunAt()));
+            int id = payrollSchedules.create(schedule, actorUserId);
+            System.out.printf("✅ Payroll schedule #%d '%s' created; first run at %s.\n", id, schedule.getName(), schedule.getNextRunAt());
+            return id;
+        } catch (SQLException e) {
+            throw new RemoteException("Could not create the payroll schedule.", e);
         }
+    }
 
-        // 4. Return a final summary
-        String target = targetUserId == 0 ? "all employees" : "user ID " + targetUserId;
-        String summary = String.format("Payroll run for %d-%02d for %s complete. Processed: %d, Skipped: %d, Failed: %d.",
-                year, month, target, successCount, skippedCount, failureCount);
-        System.out.println(summary);
-        return summary;
+    @Override
+    public List<PayrollSchedule> getPayrollSchedules(String sessionToken) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        try {
+            return payrollSchedules.findAll();
+        } catch (SQLException e) {
+            throw new RemoteException("Could not load the payroll schedules.", e);
+        }
     }
 
     @Override
-    public List<Bonus> getAllPendingBonuses(int actorUserId) throws RemoteException {
-        // Security Check for HR Role
+    public boolean setPayrollScheduleEnabled(String sessionToken, int scheduleId, boolean enabled) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
         try {
-            if (!checkUserRole(actorUserId, Role.HR)) {
-                throw new SecurityException("Access Denied: You do not have HR privileges.");
+            PayrollSchedule schedule = payrollSchedules.find(scheduleId);
+            if (schedule == null) {
+                return false;
             }
-        } catch (SQLException e) { throw new RemoteException("Could not verify user permissions.", e); }
+            // Re-enabling starts from the next slot, not from the ones missed while it was off
+            LocalDateTime nextRunAt = enabled
+                    ? PayrollScheduler.nextRunAfter(LocalDateTime.now(), schedule.getDayOfMonth(), schedule.getRunAt())
+                    : schedule.getNextRunAt();
+            return payrollSchedules.setEnabled(scheduleId, enabled, nextRunAt);
+        } catch (SQLException e) {
+            throw new RemoteException("Could not update the payroll schedule.", e);
+        }
+    }
+
+    @Override
+    public boolean deletePayrollSchedule(String sessionToken, int scheduleId) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        try {
+            return payrollSchedules.delete(scheduleId);
+        } catch (SQLException e) {
+            throw new RemoteException("Could not delete the payroll schedule.", e);
+        }
+    }
+
+    @Override
+    public List<PayrollRunHistory> getPayrollJobHistory(String sessionToken, int limit) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        try {
+            return payrollJobs.history(Math.max(1, Math.min(limit, 200)));
+        } catch (SQLException e) {
+            throw new RemoteException("Could not load the payroll job history.", e);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getSecurityMetrics(String sessionToken) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
+        Map<String, Long> metrics = loginLimiter.metrics();
+        metrics.put("authCache.hits", authCache.getHits());
+        metrics.put("authCache.misses", authCache.getMisses());
+        metrics.put("authCache.size", (long) authCache.getSize());
+        return metrics;
+    }
+
+    @Override
+    public List<Bonus> getAllPendingBonuses(String sessionToken) throws RemoteException {
+        // Security Check for HR Role
+        sessions.require(sessionToken, Role.HR);
 
         List<Bonus> pendingList = new ArrayList<>();
         String sql = "SELECT b.id, b.user_id, u.f_name, u.l_name, b.pay_period_start_date, b.name, b.amount " +
@@ -980,15 +1135,14 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     //  MANAGER Administrator Methods
     // =================================================================
     @Override
-    public Bonus createBonusesToEmployee(int actorUserId, Bonus newBonus) throws RemoteException {
-        try (Connection conn = DatabaseManager.getConnection()) {
-            // Security Check 1: Ensure the user is a Manager
-            if (!checkUserRole(actorUserId, Role.MANAGER)) {
-                throw new SecurityException("Access Denied: You do not have Manager privileges.");
-            }
-
-            // Security Check 2: Ensure the target employee is in the manager's department
-            if (!isUserInManagerDept(conn, actorUserId, newBonus.getUserId())) {
+    public Bonus createBonusesToEmployee(String sessionToken, Bonus newBonus) throws RemoteException {
+        // Security Check 1: Ensure the user is a Manager
+        SessionManager.Session session = sessions.require(sessionToken, Role.MANAGER);
+        int actorUserId = session.getUserId();
+        try {
+            // Security Check 2: Ensure the target employee is in the manager's department.
+            // Done before taking a connection: a cache miss borrows one of its own from the same small pool.
+            if (!isUserInManagerDept(session.getDepartmentId(), newBonus.getUserId())) {
                 throw new SecurityException("Access Denied: You can only assign bonuses to employees in your own department.");
             }
 
@@ -996,7 +1150,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
             String sql = "INSERT INTO public.bonuses (user_id, pay_period_start_date, name, type, amount, is_approved, approved_by_id) " +
                     "VALUES (?, ?, ?, CAST(? AS pay_item_type_enum), ?, ?, ?) RETURNING id";
 
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            try (Connection conn = DatabaseManager.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(sql)) {
                 ps.setInt(1, newBonus.getUserId());
                 ps.setDate(2, java.sql.Date.valueOf(newBonus.getPayPeriodStartDate()));
                 ps.setString(3, newBonus.getName());
@@ -1019,39 +1174,23 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     // Add this new private helper for the security check
-    private boolean isUserInManagerDept(Connection conn, int managerId, int employeeId) throws SQLException {
-        int managerDept = getDepartmentIdForUser(conn, managerId);
-        int employeeDept = getDepartmentIdForUser(conn, employeeId);
-        return managerDept != -1 && managerDept == employeeDept;
+    private boolean isUserInManagerDept(int managerDept, int employeeId) throws SQLException {
+        UserAuthCache.Entry employee = authCache.get(employeeId);
+        return managerDept != -1 && employee != null && managerDept == employee.getDepartmentId();
     }
 
     @Override
-    public List<User> getMyDepartmentEmployees(int actorUserId) throws RemoteException {
+    public List<User> getMyDepartmentEmployees(String sessionToken) throws RemoteException {
         // 1. Security Check: Ensure the user is a Manager
-        try {
-            if (!checkUserRole(actorUserId, Role.MANAGER)) {
-                throw new SecurityException("Access Denied: You do not have Manager privileges.");
-            }
-        } catch (SQLException e) {
-            throw new RemoteException("Could not verify user permissions.", e);
-        }
+        SessionManager.Session session = sessions.require(sessionToken, Role.MANAGER);
 
         List<User> departmentEmployees = new ArrayList<>();
 
         try (Connection conn = DatabaseManager.getConnection()) {
-            // 2. First, find out which department the manager (actorUserId) belongs to.
-            int departmentId = -1;
-            String findDeptSql = "SELECT j.dept_id FROM public.\"user\" u " +
-                    "JOIN public.job_titles j ON u.job_title_id = j.id WHERE u.id = ?";
-
-            try (PreparedStatement ps = conn.prepareStatement(findDeptSql)) {
-                ps.setInt(1, actorUserId);
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    departmentId = rs.getInt("dept_id");
-                } else {
-                    throw new RemoteException("Could not find department for manager ID: " + actorUserId);
-                }
+            // 2. The manager's department was looked up once, at login
+            int departmentId = session.getDepartmentId();
+            if (departmentId == -1) {
+                throw new RemoteException("Could not find department for manager ID: " + session.getUserId());
             }
 
             // 3. Now, fetch all employees who belong to that departmentId.
@@ -1083,14 +1222,8 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public PayrollSummaryReport getPayrollSummaryReport(int actorUserId, int year, int month) throws RemoteException {
-        try {
-            if (!checkUserRole(actorUserId, Role.HR)) {
-                throw new SecurityException("Access Denied: You do not have HR privileges.");
-            }
-        } catch (SQLException e) {
-            throw new RemoteException("Could not verify user permissions.", e);
-        }
+    public PayrollSummaryReport getPayrollSummaryReport(String sessionToken, int year, int month) throws RemoteException {
+        sessions.require(sessionToken, Role.HR);
 
         PayrollSummaryReport report = new PayrollSummaryReport();
         report.setPayPeriod(LocalDate.of(year, month, 1));
@@ -1108,7 +1241,13 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
                 "WHERE date_part('year', p.pay_period_start_date) = ? AND date_part('month', p.pay_period_start_date) = ? " +
                 "GROUP BY d.name ORDER BY d.name";
 
-        try (Connection conn = DatabaseManager.getConnection()) {
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            // Both queries read one snapshot, so a department run committing in between can't make the totals
+            // and the breakdown disagree; each department shows up as soon as its own transaction commits
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            conn.setReadOnly(true);
+            conn.setAutoCommit(false);
+
             // Execute first query for overall totals
             try (PreparedStatement ps = conn.prepareStatement(summarySql)) {
                 ps.setInt(1, year);
@@ -1142,6 +1281,7 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
                 }
             }
             report.setNetPayByDepartment(breakdownMap);
+            conn.commit();
 
         } catch (SQLException e) {
             e.printStackTrace();
@@ -1152,18 +1292,12 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public List<Bonus> getUnapprovedBonusesForMyDepartment(int actorUserId) throws RemoteException {
+    public List<Bonus> getUnapprovedBonusesForMyDepartment(String sessionToken) throws RemoteException {
         // Security Check for Manager Role
-        try {
-            if (!checkUserRole(actorUserId, Role.MANAGER)) {
-                throw new SecurityException("Access Denied: You do not have Manager privileges.");
-            }
-        } catch (SQLException e) { throw new RemoteException("Could not verify user permissions.", e); }
+        int departmentId = sessions.require(sessionToken, Role.MANAGER).getDepartmentId();
 
         List<Bonus> bonusList = new ArrayList<>();
         try (Connection conn = DatabaseManager.getConnection()) {
-            // First, find the manager's department ID
-            int departmentId = getDepartmentIdForUser(conn, actorUserId);
 
             // Now, find all unapproved bonuses for users in that department
             String sql = "SELECT b.id, b.user_id, u.f_name, u.l_name, b.pay_period_start_date, b.name, b.type, b.amount " +
@@ -1194,13 +1328,9 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
     }
 
     @Override
-    public boolean approveBonus(int actorUserId, int bonusId) throws RemoteException {
+    public boolean approveBonus(String sessionToken, int bonusId) throws RemoteException {
         // Security Check for Manager Role
-        try {
-            if (!checkUserRole(actorUserId, Role.MANAGER)) {
-                throw new SecurityException("Access Denied: You do not have Manager privileges.");
-            }
-        } catch (SQLException e) { throw new RemoteException("Could not verify user permissions.", e); }
+        int actorUserId = sessions.require(sessionToken, Role.MANAGER).getUserId();
 
         // Security Check: Ensure manager is not approving bonuses outside their department (important!)
         // (This check would be added in a production system)
@@ -1217,19 +1347,5 @@ public class PayrollServiceImpl extends UnicastRemoteObject implements PayrollSe
         }
     }
 
-    // It's good practice to refactor repeated logic into a helper method.
-    // We can create a helper to get a user's department ID.
-    private int getDepartmentIdForUser(Connection conn, int userId) throws SQLException {
-        String findDeptSql = "SELECT j.dept_id FROM public.\"user\" u JOIN public.job_titles j ON u.job_title_id = j.id WHERE u.id = ?";
-        try (PreparedStatement ps = conn.prepareStatement(findDeptSql)) {
-            ps.setInt(1, userId);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                return rs.getInt("dept_id");
-            }
-        }
-        return -1; // User not found or has no department
-    }
-
 
 }
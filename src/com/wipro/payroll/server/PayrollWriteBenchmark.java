@@ -0,0 +1,132 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayItem;
+import com.wipro.payroll.common.PayItemType;
+import com.wipro.payroll.common.Payslip;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the batched-INSERT and COPY payslip writers against the database DatabaseManager points at.
+ * It writes and deletes thousands of rows, so it refuses to start unless db.url is set explicitly to a
+ * Postgres on localhost.
+ *
+ * Synthetic payslips are spread over fake pay periods before 1900 for the existing users, so no extra
+ * users are needed and the unique (user_id, period) index is respected. They are deleted after each pass.
+ *
+ * Usage: PayrollWriteBenchmark [rows] [chunkSize]   (defaults: 20000 rows, 500 per chunk)
+ */
+public class PayrollWriteBenchmark {
+
+    private static final LocalDate FIRST_FAKE_PERIOD = LocalDate.of(1000, 1, 1);
+    private static final LocalDate FAKE_PERIODS_END = LocalDate.of(1900, 1, 1);
+    private static final int ITEMS_PER_PAYSLIP = 5;
+
+    public static void main(String[] args) throws SQLException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        // Checked before DatabaseManager is touched, so not even a pool is opened against another database
+        String url = DatabaseConfig.get("db.url");
+        if (!DatabaseConfig.isLocalUrl(url)) {
+            System.err.println("❌ Refusing to run: set db.url to a local Postgres (jdbc:postgresql://localhost/...). Current: "
+                    + (url == null ? "not set" : url));
+            return;
+        }
+
+        List<Integer> userIds = loadUserIds();
+        if (userIds.isEmpty()) {
+            System.err.println("❌ No users found. Run DataSeeder first.");
+            return;
+        }
+        int maxRows = userIds.size() * 12 * (FAKE_PERIODS_END.getYear() - FIRST_FAKE_PERIOD.getYear());
+        if (rows > maxRows) {
+            System.out.printf("⚠️  Only %d users, capping the benchmark at %d rows.\n", userIds.size(), maxRows);
+            rows = maxRows;
+        }
+
+        System.out.printf("Benchmarking %d payslips (%d pay items each) in chunks of %d...\n", rows, ITEMS_PER_PAYSLIP, chunkSize);
+        deleteFakePayslips();
+
+        PayslipBatchWriter batchWriter = new PayslipBatchWriter();
+        long batchedMs = timeWriter(batchWriter, buildPayslips(userIds, rows), chunkSize);
+        deleteFakePayslips();
+
+        long copyMs = timeWriter(new PayslipCopyWriter(batchWriter), buildPayslips(userIds, rows), chunkSize);
+        deleteFakePayslips();
+
+        System.out.println("--------------------------------------------------");
+        System.out.printf("Batched INSERT: %6d ms  (%.0f payslips/s)\n", batchedMs, rows * 1000.0 / Math.max(1, batchedMs));
+        System.out.printf("COPY          : %6d ms  (%.0f payslips/s)\n", copyMs, rows * 1000.0 / Math.max(1, copyMs));
+        System.out.println("--------------------------------------------------");
+    }
+
+    private static long timeWriter(PayslipSink sink, List<Payslip> payslips, int chunkSize) {
+        long start = System.nanoTime();
+        int written = 0;
+        for (int from = 0; from < payslips.size(); from += chunkSize) {
+            written += sink.write(payslips.subList(from, Math.min(from + chunkSize, payslips.size()))).getWritten();
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        if (written != payslips.size()) {
+            System.err.printf("⚠️  %s only wrote %d of %d payslips.\n", sink.getClass().getSimpleName(), written, payslips.size());
+        }
+        return elapsedMs;
+    }
+
+    private static List<Payslip> buildPayslips(List<Integer> userIds, int rows) {
+        List<Payslip> payslips = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            LocalDate start = FIRST_FAKE_PERIOD.plusMonths(i / userIds.size());
+            Payslip payslip = new Payslip();
+            payslip.setUserId(userIds.get(i % userIds.size()));
+            payslip.setPayPeriodStartDate(start);
+            payslip.setPayPeriodEndDate(start.withDayOfMonth(start.lengthOfMonth()));
+            payslip.setGrossEarnings(new BigDecimal("9000.00"));
+            payslip.setTotalDeductions(new BigDecimal("1014.75"));
+            payslip.setNetPay(new BigDecimal("7985.25"));
+            for (int j = 0; j < ITEMS_PER_PAYSLIP; j++) {
+                PayItem item = new PayItem();
+                item.setName("Benchmark Item " + j);
+                item.setType(j < 2 ? PayItemType.EARNING : PayItemType.DEDUCTION);
+                item.setAmount(new BigDecimal("100.00"));
+                payslip.getPayItems().add(item);
+            }
+            payslips.add(payslip);
+        }
+        return payslips;
+    }
+
+    private static List<Integer> loadUserIds() throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getBatchConnection();
+             PreparedStatement ps = conn.prepareStatement("SELECT id FROM public.\"user\" ORDER BY id");
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    private static void deleteFakePayslips() throws SQLException {
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "DELETE FROM pay_items WHERE payslip_id IN (SELECT id FROM payslip WHERE pay_period_start_date < ?)")) {
+                ps.setDate(1, java.sql.Date.valueOf(FAKE_PERIODS_END));
+                ps.executeUpdate();
+            }
+            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM payslip WHERE pay_period_start_date < ?")) {
+                ps.setDate(1, java.sql.Date.valueOf(FAKE_PERIODS_END));
+                ps.executeUpdate();
+            }
+        }
+    }
+}
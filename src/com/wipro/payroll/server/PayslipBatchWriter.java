@@ -0,0 +1,260 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayItem;
+import com.wipro.payroll.common.Payslip;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes computed payslips a chunk at a time: one multi-row INSERT into payslip and one
+ * pay_items batch per chunk. If a chunk fails it falls back to one transaction per payslip,
+ * so a single bad row never fails the rest of the chunk.
+ *
+ * Each transaction first takes the per-employee advisory locks (see PayrollLocks), so overlapping runs
+ * on other servers wait only for the employees they share.
+ */
+public class PayslipBatchWriter implements PayslipSink {
+
+    private static final String PAYSLIP_COLUMNS = "INSERT INTO payslip (user_id, pay_period_start_date, pay_period_end_date, gross_earnings, total_deductions, net_pay, input_fingerprint) VALUES ";
+    private static final String PAYSLIP_VALUES = "(?, ?, ?, ?, ?, ?, ?)";
+    private static final int PARAMS_PER_PAYSLIP = 7;
+    // PostgreSQL accepts at most 32767 bind parameters per statement; beyond that every chunk would fail and
+    // fall back to one transaction per employee
+    public static final int MAX_ROWS_PER_INSERT = 32767 / PARAMS_PER_PAYSLIP;
+    private static final String ON_CONFLICT = " ON CONFLICT (user_id, pay_period_start_date) DO NOTHING RETURNING id, user_id";
+    private static final String REPLACE_PAYSLIP_SQL = "UPDATE payslip SET pay_period_end_date = ?, gross_earnings = ?, total_deductions = ?, net_pay = ?, input_fingerprint = ? WHERE id = ?";
+    private static final String DELETE_ITEMS_SQL = "DELETE FROM pay_items WHERE payslip_id = ANY (?)";
+    private static final String ITEMS_SQL = "INSERT INTO pay_items (payslip_id, name, type, amount) VALUES (?, ?, CAST(? AS pay_item_type_enum), ?)";
+
+    @Override
+    public WriteResult write(List<Payslip> chunk) {
+        WriteResult result = new WriteResult();
+        if (chunk.isEmpty()) {
+            return result;
+        }
+
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false); // START TRANSACTION
+            try {
+                int written = insertChunk(conn, chunk);
+                conn.commit(); // COMMIT TRANSACTION
+                result.written += written;
+                result.skipped += chunk.size() - written;
+                return result;
+            } catch (Exception e) {
+                conn.rollback(); // ROLLBACK TRANSACTION ON ERROR
+                chunk.forEach(p -> p.setId(0));
+                System.err.printf("!!! Batch of %d payslips failed (%s). Retrying one by one...\n", chunk.size(), e.getMessage());
+            }
+        } catch (SQLException e) {
+            System.err.printf("!!! Could not open a transaction for %d payslips: %s\n", chunk.size(), e.getMessage());
+        }
+
+        // Fallback: one transaction per employee, exactly like the old run loop
+        for (Payslip payslip : chunk) {
+            try {
+                if (writeOne(payslip)) {
+                    result.written++;
+                } else {
+                    result.skipped++;
+                }
+            } catch (SQLException e) {
+                System.err.printf("!!! FAILED to save payslip for user %d: %s\n", payslip.getUserId(), e.getMessage());
+                result.failures.put(payslip.getUserId(), e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Saves a single payslip in its own transaction.
+     * @return false if a payslip for this user and period already existed.
+     */
+    public boolean writeOne(Payslip payslip) throws SQLException {
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int written = insertChunk(conn, List.of(payslip));
+                conn.commit();
+                return written == 1;
+            } catch (Exception e) {
+                conn.rollback();
+                payslip.setId(0);
+                throw new SQLException(e);
+            }
+        }
+    }
+
+    /**
+     * Saves all the payslips in ONE transaction, in multi-row inserts of at most batchSize payslips each.
+     * Unlike write() there is no one-by-one fallback: either every payslip is committed or none is.
+     * Used by department runs, where a department is committed as a whole.
+     * @return How many payslips were written; the rest were already paid (ON CONFLICT).
+     */
+    public int writeAtomically(List<Payslip> payslips, int batchSize) throws SQLException {
+        if (payslips.isEmpty()) {
+            return 0;
+        }
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false); // START TRANSACTION
+            try {
+                // All locks first, in one sorted pass, so a concurrent run can't interleave with the sub-chunks
+                PayrollLocks.lockEmployees(conn, payslips);
+                int written = 0;
+                for (int from = 0; from < payslips.size(); from += batchSize) {
+                    written += insertChunk(conn, payslips.subList(from, Math.min(from + batchSize, payslips.size())));
+                }
+                conn.commit(); // COMMIT TRANSACTION
+                return written;
+            } catch (Exception e) {
+                conn.rollback(); // ROLLBACK TRANSACTION ON ERROR
+                payslips.forEach(p -> p.setId(0));
+                throw e instanceof SQLException ? (SQLException) e : new SQLException(e);
+            }
+        }
+    }
+
+    /**
+     * Overwrites existing payslips (their ids must be set) in place: the payslip row is updated and its
+     * pay_items are replaced. Used by incremental re-runs. Like write(), a failing chunk is retried one by one.
+     */
+    public WriteResult replace(List<Payslip> chunk) {
+        WriteResult result = new WriteResult();
+        if (chunk.isEmpty()) {
+            return result;
+        }
+
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false); // START TRANSACTION
+            try {
+                replaceChunk(conn, chunk);
+                conn.commit(); // COMMIT TRANSACTION
+                result.written = chunk.size();
+                return result;
+            } catch (Exception e) {
+                conn.rollback(); // ROLLBACK TRANSACTION ON ERROR
+                System.err.printf("!!! Replacing %d payslips failed (%s). Retrying one by one...\n", chunk.size(), e.getMessage());
+            }
+        } catch (SQLException e) {
+            System.err.printf("!!! Could not open a transaction for %d payslips: %s\n", chunk.size(), e.getMessage());
+        }
+
+        for (Payslip payslip : chunk) {
+            try (Connection conn = DatabaseManager.getBatchConnection()) {
+                conn.setAutoCommit(false);
+                try {
+                    replaceChunk(conn, List.of(payslip));
+                    conn.commit();
+                    result.written++;
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                System.err.printf("!!! FAILED to replace payslip for user %d: %s\n", payslip.getUserId(), e.getMessage());
+                result.failures.put(payslip.getUserId(), e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private void replaceChunk(Connection conn, List<Payslip> chunk) throws SQLException {
+        // Step 0: wait for any other run writing these employees right now
+        PayrollLocks.lockEmployees(conn, chunk);
+
+        // Step 1: new totals and fingerprint, one batch
+        Integer[] ids = new Integer[chunk.size()];
+        try (PreparedStatement ps = conn.prepareStatement(REPLACE_PAYSLIP_SQL)) {
+            for (int i = 0; i < chunk.size(); i++) {
+                Payslip payslip = chunk.get(i);
+                ids[i] = payslip.getId();
+                ps.setDate(1, java.sql.Date.valueOf(payslip.getPayPeriodEndDate()));
+                ps.setBigDecimal(2, payslip.getGrossEarnings());
+                ps.setBigDecimal(3, payslip.getTotalDeductions());
+                ps.setBigDecimal(4, payslip.getNetPay());
+                ps.setString(5, payslip.getInputFingerprint());
+                ps.setInt(6, payslip.getId());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+
+        // Step 2: drop the old items with one statement
+        try (PreparedStatement ps = conn.prepareStatement(DELETE_ITEMS_SQL)) {
+            ps.setArray(1, conn.createArrayOf("integer", ids));
+            ps.executeUpdate();
+        }
+
+        // Step 3: the new items, one batch
+        insertItems(conn, chunk);
+    }
+
+    private int insertChunk(Connection conn, List<Payslip> chunk) throws SQLException {
+        // Step 0: wait for any other run writing these employees right now; after that, ON CONFLICT sees its rows
+        PayrollLocks.lockEmployees(conn, chunk);
+
+        // Step 1: one multi-row insert for every payslip in the chunk (several if it is over the bind limit)
+        for (int from = 0; from < chunk.size(); from += MAX_ROWS_PER_INSERT) {
+            insertPayslips(conn, chunk.subList(from, Math.min(from + MAX_ROWS_PER_INSERT, chunk.size())));
+        }
+
+        // Step 3: all pay items of the chunk in one batch
+        return insertItems(conn, chunk);
+    }
+
+    private void insertPayslips(Connection conn, List<Payslip> chunk) throws SQLException {
+        StringBuilder sql = new StringBuilder(PAYSLIP_COLUMNS);
+        for (int i = 0; i < chunk.size(); i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(PAYSLIP_VALUES);
+        }
+        sql.append(ON_CONFLICT);
+
+        Map<Integer, Payslip> byUserId = new HashMap<>();
+        try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+            int idx = 1;
+            for (Payslip payslip : chunk) {
+                ps.setInt(idx++, payslip.getUserId());
+                ps.setDate(idx++, java.sql.Date.valueOf(payslip.getPayPeriodStartDate()));
+                ps.setDate(idx++, java.sql.Date.valueOf(payslip.getPayPeriodEndDate()));
+                ps.setBigDecimal(idx++, payslip.getGrossEarnings());
+                ps.setBigDecimal(idx++, payslip.getTotalDeductions());
+                ps.setBigDecimal(idx++, payslip.getNetPay());
+                ps.setString(idx++, payslip.getInputFingerprint());
+                byUserId.put(payslip.getUserId(), payslip);
+            }
+
+            // Step 2: map the returned ids back; conflicting (already paid) rows return nothing
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    byUserId.get(rs.getInt("user_id")).setId(rs.getInt("id"));
+                }
+            }
+        }
+    }
+
+    private int insertItems(Connection conn, List<Payslip> chunk) throws SQLException {
+        int written = 0;
+        try (PreparedStatement ps = conn.prepareStatement(ITEMS_SQL)) {
+            for (Payslip payslip : chunk) {
+                if (payslip.getId() == 0) continue;
+                written++;
+                for (PayItem item : payslip.getPayItems()) {
+                    ps.setInt(1, payslip.getId());
+                    ps.setString(2, item.getName());
+                    ps.setString(3, item.getType().name());
+                    ps.setBigDecimal(4, item.getAmount());
+                    ps.addBatch();
+                }
+            }
+            ps.executeBatch();
+        }
+        return written;
+    }
+}
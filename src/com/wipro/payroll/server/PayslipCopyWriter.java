@@ -0,0 +1,112 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayItem;
+import com.wipro.payroll.common.Payslip;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Streams payslip and pay_items rows through PostgreSQL's COPY ... FROM STDIN instead of JDBC batches.
+ * Payslip ids are taken from the payslip sequence up front, one block per chunk, so the pay_items rows
+ * can reference them without a RETURNING round trip.
+ *
+ * COPY cannot skip conflicting rows, so a chunk that hits an already-paid employee (or any other error)
+ * is rolled back and handed to the batched-INSERT writer, which handles conflicts row by row.
+ */
+public class PayslipCopyWriter implements PayslipSink {
+
+    private static final String ID_BLOCK_SQL = "SELECT nextval(pg_get_serial_sequence('public.payslip', 'id')) FROM generate_series(1, ?)";
+    private static final String COPY_PAYSLIP_SQL = "COPY payslip (id, user_id, pay_period_start_date, pay_period_end_date, gross_earnings, total_deductions, net_pay, input_fingerprint) FROM STDIN WITH (FORMAT csv)";
+    private static final String COPY_ITEMS_SQL = "COPY pay_items (payslip_id, name, type, amount) FROM STDIN WITH (FORMAT csv)";
+
+    private final PayslipSink fallback;
+
+    public PayslipCopyWriter(PayslipSink fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public WriteResult write(List<Payslip> chunk) {
+        if (chunk.isEmpty()) {
+            return new WriteResult();
+        }
+
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false); // START TRANSACTION
+            try {
+                copyChunk(conn, chunk);
+                conn.commit(); // COMMIT TRANSACTION
+                WriteResult result = new WriteResult();
+                result.written = chunk.size();
+                return result;
+            } catch (Exception e) {
+                conn.rollback(); // ROLLBACK TRANSACTION ON ERROR
+                chunk.forEach(p -> p.setId(0));
+                System.err.printf("!!! COPY of %d payslips failed (%s). Falling back to batched inserts...\n", chunk.size(), e.getMessage());
+            }
+        } catch (SQLException e) {
+            System.err.printf("!!! Could not open a COPY transaction for %d payslips: %s\n", chunk.size(), e.getMessage());
+        }
+        return fallback.write(chunk);
+    }
+
+    private void copyChunk(Connection conn, List<Payslip> chunk) throws Exception {
+        // Step 0: wait for any other run writing these employees right now
+        PayrollLocks.lockEmployees(conn, chunk);
+
+        // Step 1: reserve one block of ids for the whole chunk
+        try (PreparedStatement ps = conn.prepareStatement(ID_BLOCK_SQL)) {
+            ps.setInt(1, chunk.size());
+            try (ResultSet rs = ps.executeQuery()) {
+                for (Payslip payslip : chunk) {
+                    rs.next();
+                    payslip.setId(rs.getInt(1));
+                }
+            }
+        }
+
+        // Step 2: build the CSV for both tables
+        StringBuilder payslipRows = new StringBuilder(chunk.size() * 64);
+        StringBuilder itemRows = new StringBuilder(chunk.size() * 256);
+        for (Payslip payslip : chunk) {
+            payslipRows.append(payslip.getId()).append(',')
+                    .append(payslip.getUserId()).append(',')
+                    .append(payslip.getPayPeriodStartDate()).append(',')
+                    .append(payslip.getPayPeriodEndDate()).append(',')
+                    .append(payslip.getGrossEarnings().toPlainString()).append(',')
+                    .append(payslip.getTotalDeductions().toPlainString()).append(',')
+                    .append(payslip.getNetPay().toPlainString()).append(',');
+            appendCsvText(payslipRows, payslip.getInputFingerprint());
+            payslipRows.append('\n');
+            for (PayItem item : payslip.getPayItems()) {
+                itemRows.append(payslip.getId()).append(',');
+                appendCsvText(itemRows, item.getName());
+                itemRows.append(',').append(item.getType().name())
+                        .append(',').append(item.getAmount().toPlainString()).append('\n');
+            }
+        }
+
+        // Step 3: stream both tables in the same transaction
+        CopyManager copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+        copyManager.copyIn(COPY_PAYSLIP_SQL, new StringReader(payslipRows.toString()));
+        copyManager.copyIn(COPY_ITEMS_SQL, new StringReader(itemRows.toString()));
+    }
+
+    /**
+     * Appends a text field for COPY ... WITH (FORMAT csv): quoted, with quotes doubled, or nothing for NULL.
+     * Shared with PayslipDraftWriter so both COPY paths quote the same way.
+     */
+    static void appendCsvText(StringBuilder sb, String value) {
+        if (value == null) {
+            return; // an unquoted empty field is NULL in CSV mode
+        }
+        sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
@@ -0,0 +1,84 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.PayItem;
+import com.wipro.payroll.common.Payslip;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Writes computed payslips into one draft's UNLOGGED staging tables (see PayrollDraftStore) with COPY.
+ * Nothing here goes through the WAL, and nothing touches the real payslip tables until the draft is promoted.
+ *
+ * Staging rows are keyed by user id, so a written payslip gets its user id as id: the pipeline only needs
+ * a non-zero id to count it as saved.
+ */
+public class PayslipDraftWriter implements PayslipSink {
+
+    private final String payslipTable;
+    private final String itemsTable;
+
+    public PayslipDraftWriter(int draftId) {
+        this.payslipTable = PayrollDraftStore.payslipTable(draftId);
+        this.itemsTable = PayrollDraftStore.itemsTable(draftId);
+    }
+
+    @Override
+    public WriteResult write(List<Payslip> chunk) {
+        WriteResult result = new WriteResult();
+        if (chunk.isEmpty()) {
+            return result;
+        }
+
+        // Step 1: build the CSV for both staging tables
+        StringBuilder payslipRows = new StringBuilder(chunk.size() * 64);
+        StringBuilder itemRows = new StringBuilder(chunk.size() * 256);
+        for (Payslip payslip : chunk) {
+            payslipRows.append(payslip.getUserId()).append(',')
+                    .append(payslip.getPayPeriodStartDate()).append(',')
+                    .append(payslip.getPayPeriodEndDate()).append(',')
+                    .append(payslip.getGrossEarnings().toPlainString()).append(',')
+                    .append(payslip.getTotalDeductions().toPlainString()).append(',')
+                    .append(payslip.getNetPay().toPlainString()).append(',');
+            PayslipCopyWriter.appendCsvText(payslipRows, payslip.getInputFingerprint());
+            payslipRows.append('\n');
+            int itemNo = 0;
+            for (PayItem item : payslip.getPayItems()) {
+                itemRows.append(payslip.getUserId()).append(',').append(itemNo++).append(',');
+                PayslipCopyWriter.appendCsvText(itemRows, item.getName());
+                itemRows.append(',').append(item.getType().name())
+                        .append(',').append(item.getAmount().toPlainString()).append('\n');
+            }
+        }
+
+        // Step 2: stream both in one transaction
+        try (Connection conn = DatabaseManager.getBatchConnection()) {
+            conn.setAutoCommit(false); // START TRANSACTION
+            try {
+                CopyManager copyManager = conn.unwrap(PGConnection.class).getCopyAPI();
+                copyManager.copyIn("COPY " + payslipTable + " (user_id, pay_period_start_date, pay_period_end_date, " +
+                        "gross_earnings, total_deductions, net_pay, input_fingerprint) FROM STDIN WITH (FORMAT csv)",
+                        new StringReader(payslipRows.toString()));
+                copyManager.copyIn("COPY " + itemsTable + " (user_id, item_no, name, type, amount) FROM STDIN WITH (FORMAT csv)",
+                        new StringReader(itemRows.toString()));
+                conn.commit(); // COMMIT TRANSACTION
+                for (Payslip payslip : chunk) {
+                    payslip.setId(payslip.getUserId());
+                }
+                result.written = chunk.size();
+            } catch (Exception e) {
+                conn.rollback(); // ROLLBACK TRANSACTION ON ERROR
+                System.err.printf("!!! Could not stage %d draft payslips: %s\n", chunk.size(), e.getMessage());
+                chunk.forEach(p -> result.failures.put(p.getUserId(), e.getMessage()));
+            }
+        } catch (SQLException e) {
+            System.err.printf("!!! Could not open a transaction for %d draft payslips: %s\n", chunk.size(), e.getMessage());
+            chunk.forEach(p -> result.failures.put(p.getUserId(), e.getMessage()));
+        }
+        return result;
+    }
+}
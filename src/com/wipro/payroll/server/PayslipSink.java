@@ -0,0 +1,33 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.Payslip;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Somewhere the payroll engine can save a chunk of computed payslips.
+ */
+public interface PayslipSink {
+
+    /**
+     * Saves a chunk of payslips. Payslips that are written get their new id set;
+     * payslips that already existed keep id 0 and are counted as skipped.
+     * @return What happened to the chunk, per payslip.
+     */
+    WriteResult write(List<Payslip> chunk);
+
+    /**
+     * Outcome of one chunk: how many payslips were written, how many already existed, and who failed.
+     */
+    class WriteResult {
+        int written;
+        int skipped;
+        final Map<Integer, String> failures = new LinkedHashMap<>(); // user id -> error message
+
+        public int getWritten() { return written; }
+        public int getSkipped() { return skipped; }
+        public Map<Integer, String> getFailures() { return failures; }
+    }
+}
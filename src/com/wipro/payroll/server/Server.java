@@ -18,9 +18,19 @@ public class Server {
             System.out.println("✅ INFO: No hostname provided. Defaulting to 'localhost' for local development.");
         }
 
+        try {
+            DatabaseConfig.requireConnectionSettings();
+        } catch (IllegalStateException e) {
+            System.err.println("❌ " + e.getMessage());
+            System.exit(1);
+        }
+
         try {
             System.setProperty("java.rmi.server.hostname", hostname);
 
+            // 0. Make sure the constraints and tables the payroll engine needs exist
+            DatabaseSchema.ensurePayrollSchema();
+
             // 1. Create an instance of our implementation
             PayrollServiceImpl payrollService = new PayrollServiceImpl();
 
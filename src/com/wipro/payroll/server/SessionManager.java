@@ -0,0 +1,127 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.Role;
+import com.wipro.payroll.common.SessionExpiredException;
+import com.wipro.payroll.common.UserStatus;
+
+import java.rmi.RemoteException;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Logged-in sessions, kept in memory. login() opens a session bound to the user's id and hands the client an
+ * opaque random token; every other call presents that token. The user's role and department come from the
+ * {@link UserAuthCache}, so authorization is a map lookup instead of a role query per call, a client can no longer
+ * act as someone else by sending their id, and a role or department change applies without logging in again.
+ *
+ * A session ends after payroll.sessionIdleMinutes (default 30) without a call, on logout, or when the user is
+ * deleted. A user who is no longer ACTIVE is refused. Sessions live on one server instance: after a restart or
+ * a failover to another server, the user logs in again.
+ */
+public class SessionManager {
+
+    private static final long IDLE_TIMEOUT_MS = Long.getLong("payroll.sessionIdleMinutes", 30) * 60_000L;
+    private static final int TOKEN_BYTES = 32;
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final UserAuthCache authCache;
+
+    public SessionManager(UserAuthCache authCache) {
+        this.authCache = authCache;
+    }
+
+    public static final class Session {
+        private final int userId;
+        private final UserAuthCache.Entry auth; // role, department and status as of this call
+        private volatile long lastUsedMillis;
+
+        Session(int userId, UserAuthCache.Entry auth) {
+            this.userId = userId;
+            this.auth = auth;
+            this.lastUsedMillis = System.currentTimeMillis();
+        }
+
+        public int getUserId() { return userId; }
+        public Role getRole() { return auth == null ? null : auth.getRole(); }
+        public int getDepartmentId() { return auth == null ? -1 : auth.getDepartmentId(); } // -1: no job title
+
+        boolean isExpired(long now) {
+            return now - lastUsedMillis > IDLE_TIMEOUT_MS;
+        }
+    }
+
+    /**
+     * @return The new session's token.
+     */
+    public String open(int userId) {
+        evictExpired();
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(userId, null));
+        return token;
+    }
+
+    /**
+     * Looks the session up, marks it as used just now and resolves the user's current role and department.
+     */
+    public Session require(String token) throws RemoteException {
+        Session session = token == null ? null : sessions.get(token);
+        long now = System.currentTimeMillis();
+        if (session == null || session.isExpired(now)) {
+            if (session != null) {
+                sessions.remove(token);
+            }
+            throw new SessionExpiredException("Your session has expired or is not valid on this server. Please log in again.");
+        }
+        session.lastUsedMillis = now;
+
+        UserAuthCache.Entry auth;
+        try {
+            auth = authCache.get(session.userId);
+        } catch (SQLException e) {
+            throw new RemoteException("Could not verify user permissions.", e);
+        }
+        if (auth == null) {
+            sessions.remove(token);
+            throw new SessionExpiredException("Your account no longer exists. Please contact HR.");
+        }
+        if (auth.getStatus() != UserStatus.ACTIVE) {
+            throw new SecurityException("Access Denied: Your account is " + auth.getStatus() + ".");
+        }
+        return new Session(session.userId, auth);
+    }
+
+    /**
+     * Same as {@link #require(String)}, and the session's user must have the given role.
+     */
+    public Session require(String token, Role requiredRole) throws RemoteException {
+        Session session = require(token);
+        if (session.getRole() != requiredRole) {
+            throw new SecurityException("Access Denied: You do not have " + requiredRole + " privileges.");
+        }
+        return session;
+    }
+
+    public void close(String token) {
+        if (token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    /**
+     * Ends every session of the user, e.g. when the account is deleted.
+     */
+    public void closeAllFor(int userId) {
+        sessions.values().removeIf(session -> session.getUserId() == userId);
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> session.isExpired(now));
+    }
+}
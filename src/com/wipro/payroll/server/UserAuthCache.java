@@ -0,0 +1,159 @@
+package com.wipro.payroll.server;
+
+import com.wipro.payroll.common.Role;
+import com.wipro.payroll.common.UserStatus;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What authorization needs to know about a user (role, department, status), cached by user id so that
+ * HR and manager calls don't query it again for every check.
+ *
+ * Entries live for payroll.authCacheTtlSeconds (default 300) and at most payroll.authCacheSize (default 10000)
+ * users are kept. The TTL only bounds how stale an entry can get when the row is changed outside this server;
+ * changes made through it (updateUser, deleteUser, createJobTitle) invalidate the cache right away.
+ */
+public class UserAuthCache {
+
+    private static final long TTL_MS = Long.getLong("payroll.authCacheTtlSeconds", 300) * 1000L;
+    private static final int MAX_SIZE = Math.max(1, Integer.getInteger("payroll.authCacheSize", 10_000));
+
+    private static final int STRIPES = 64;
+
+    private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+    // Bumped by every invalidation, per stripe of user ids, so a load that overlapped one doesn't cache what it read
+    private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public static final class Entry {
+        private final Role role;
+        private final int departmentId; // -1 if the user has no job title
+        private final UserStatus status;
+        private final long loadedAtMillis;
+
+        Entry(Role role, int departmentId, UserStatus status) {
+            this.role = role;
+            this.departmentId = departmentId;
+            this.status = status;
+            this.loadedAtMillis = System.currentTimeMillis();
+        }
+
+        public Role getRole() { return role; }
+        public int getDepartmentId() { return departmentId; }
+        public UserStatus getStatus() { return status; }
+
+        boolean isExpired(long now) {
+            return now - loadedAtMillis > TTL_MS;
+        }
+    }
+
+    /**
+     * @return The user's entry, from the cache or loaded with one query; null if the user does not exist.
+     */
+    public Entry get(int userId) throws SQLException {
+        Entry entry = entries.get(userId);
+        if (entry != null && !entry.isExpired(System.currentTimeMillis())) {
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        long generation = generations.get(stripe(userId));
+        entry = load(userId);
+        if (entry == null) {
+            entries.remove(userId);
+        } else {
+            makeRoom(userId);
+            Entry loaded = entry;
+            // invalidate() bumps the generation before it removes, so either this sees the bump or the remove runs after it
+            entries.compute(userId, (id, current) -> generations.get(stripe(id)) == generation ? loaded : current);
+        }
+        return entry;
+    }
+
+    /**
+     * Stores what the caller has just read anyway, e.g. login, so the first call after it is a hit.
+     */
+    public void put(int userId, Role role, int departmentId, UserStatus status) {
+        put(userId, new Entry(role, departmentId, status));
+    }
+
+    public void invalidate(int userId) {
+        generations.incrementAndGet(stripe(userId));
+        entries.remove(userId);
+    }
+
+    /**
+     * Drops every entry, for changes that can move many users at once (e.g. job titles, which decide departments).
+     */
+    public void invalidateAll() {
+        for (int i = 0; i < STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        entries.clear();
+    }
+
+    public long getHits() { return hits.sum(); }
+    public long getMisses() { return misses.sum(); }
+    public int getSize() { return entries.size(); }
+
+    @Override
+    public String toString() {
+        return String.format("auth cache: %d user(s), %d hit(s), %d miss(es)", getSize(), getHits(), getMisses());
+    }
+
+    private void put(int userId, Entry entry) {
+        makeRoom(userId);
+        entries.put(userId, entry);
+    }
+
+    private void makeRoom(int userId) {
+        if (entries.size() >= MAX_SIZE && !entries.containsKey(userId)) {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(e -> e.isExpired(now));
+            if (entries.size() >= MAX_SIZE) {
+                // Still full of live entries: drop a tenth of them rather than track recency on every hit,
+                // so the rest stay cached
+                Iterator<Entry> it = entries.values().iterator();
+                for (int evict = Math.max(1, MAX_SIZE / 10); evict > 0 && it.hasNext(); evict--) {
+                    it.next();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private static int stripe(int userId) {
+        return Math.floorMod(userId, STRIPES);
+    }
+
+    private Entry load(int userId) throws SQLException {
+        String sql = "SELECT u.role, u.status, j.dept_id FROM public.\"user\" u " +
+                "LEFT JOIN public.job_titles j ON u.job_title_id = j.id WHERE u.id = ?";
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setInt(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                String role = rs.getString("role");
+                String status = rs.getString("status");
+                int departmentId = rs.getInt("dept_id");
+                if (rs.wasNull()) {
+                    departmentId = -1;
+                }
+                return new Entry(role == null ? null : Role.valueOf(role.toUpperCase()), departmentId,
+                        status == null ? null : UserStatus.valueOf(status.toUpperCase()));
+            }
+        }
+    }
+}